@@ -0,0 +1,120 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+
+import androidx.exifinterface.media.ExifInterface;
+
+/**
+ * The default decoder backend by Android {@link BitmapFactory}, {@link BitmapRegionDecoder} and
+ * {@link ExifInterface}.<br>
+ * Has additional methods taking {@link BitmapFactory.Options} used by the library to decode into
+ * pooled bitmaps with density scaling, other backends are used by the generic methods only.
+ */
+final class AndroidImageDecoder implements ImageDecoderSpi<Bitmap> {
+
+  /** The single instance of the default backend */
+  static final AndroidImageDecoder INSTANCE = new AndroidImageDecoder();
+
+  private AndroidImageDecoder() {}
+
+  @Override
+  public int[] decodeBounds(InputStream stream) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeStream(stream, BitmapUtils.EMPTY_RECT, options);
+    return options.outWidth > 0 && options.outHeight > 0
+        ? new int[] {options.outWidth, options.outHeight}
+        : null;
+  }
+
+  @Override
+  public Bitmap decode(InputStream stream, int sampleSize) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize;
+    return decode(stream, options);
+  }
+
+  /** Decode the image by the given options, "inBitmap" is not returned to the pool on failure. */
+  Bitmap decode(InputStream stream, BitmapFactory.Options options) {
+    return BitmapFactory.decodeStream(stream, BitmapUtils.EMPTY_RECT, options);
+  }
+
+  @Override
+  public Region<Bitmap> openRegion(InputStream stream) throws IOException {
+    return new AndroidRegion(BitmapRegionDecoder.newInstance(stream, false));
+  }
+
+  /** Open region decoder by file descriptor so it can seek instead of buffering the stream. */
+  Region<Bitmap> openRegion(FileDescriptor fd) throws IOException {
+    return new AndroidRegion(BitmapRegionDecoder.newInstance(fd, false));
+  }
+
+  @Override
+  public int decodeOrientation(InputStream stream) throws IOException {
+    ExifInterface exif = new ExifInterface(stream);
+    return BitmapUtils.getExifOrientationDegrees(
+        exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+  }
+
+  // region: Inner class: AndroidRegion
+
+  /** Region of {@link BitmapRegionDecoder}. */
+  static final class AndroidRegion implements Region<Bitmap> {
+
+    private final BitmapRegionDecoder mDecoder;
+
+    AndroidRegion(BitmapRegionDecoder decoder) throws IOException {
+      if (decoder == null) {
+        throw new IOException("Image format not supported by region decoder");
+      }
+      mDecoder = decoder;
+    }
+
+    @Override
+    public int getWidth() {
+      return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+      return mDecoder.getHeight();
+    }
+
+    @Override
+    public Bitmap decodeRegion(int left, int top, int right, int bottom, int sampleSize) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inSampleSize = sampleSize;
+      return decodeRegion(new Rect(left, top, right, bottom), options);
+    }
+
+    /** Decode the given rectangle by the given options. */
+    Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) {
+      return mDecoder.decodeRegion(rect, options);
+    }
+
+    @Override
+    public void close() {
+      mDecoder.recycle();
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,264 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Crop of image from URI in horizontal bands for saving huge images (panorama, scans).<br>
+ * The crop rectangle is region decoded band by band, each band is rotated, flipped and resampled
+ * directly into the final size output bitmap, so the peak memory is the output bitmap and a single
+ * band instead of the full region, its rotated copy and its resized copy.<br>
+ * The output is still a single bitmap of the full output size as {@link Bitmap#compress} can't
+ * encode in strips, so the peak memory is bounded by the output size, not by the band height.
+ * Used only when the estimated peak of the regular crop doesn't fit the available memory, smaller
+ * crops keep the regular route.<br>
+ * Only for rotation by 0, 90, 180 or 270 degrees, non straight angle requires the extra crop of
+ * the full rotated region, and not for progressive JPEG.
+ */
+final class BandedCropper {
+
+  // region: Fields and Consts
+
+  /** The max bytes of decoded band */
+  private static final int MAX_BAND_BYTES = 4 * 1024 * 1024;
+
+  /** The min rows of decoded band, for very wide images */
+  private static final int MIN_BAND_ROWS = 16;
+  // endregion
+
+  private BandedCropper() {}
+
+  /**
+   * Crop image bitmap from URI in bands to the final requested size.<br>
+   * The output size is the same as {@link BitmapUtils#cropBitmap} followed by {@link
+   * BitmapUtils#resizeBitmap}.
+   *
+   * @param session the region decoder session of the image, null to use a temporary session
+   * @param token stops the crop between bands when cancelled, null if not cancellable
+   * @return the cropped bitmap or null if the regular crop fits the memory, the crop is not
+   *     supported in bands or failed so the regular crop should be used
+   */
+  static BitmapUtils.BitmapSampled crop(
+      Context context,
+      Uri loadedImageUri,
+      RegionDecoderSession session,
+      float[] points,
+      int degreesRotated,
+      int orgWidth,
+      int orgHeight,
+      boolean fixAspectRatio,
+      int aspectRatioX,
+      int aspectRatioY,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      boolean flipHorizontally,
+      boolean flipVertically,
+      CancellationToken token) {
+    if (degreesRotated % 90 != 0) {
+      return null;
+    }
+    // every band of progressive JPEG decodes the full image
+    ImageMetadataCache.Entry metadata =
+        ImageMetadataCache.getInstance(context)
+            .get(loadedImageUri, ImageSource.getVersion(context, loadedImageUri));
+    if (metadata != null && metadata.progressive) {
+      return null;
+    }
+    RegionDecoderSession regionSession =
+        session != null ? session : new RegionDecoderSession(context, loadedImageUri);
+    Bitmap output = null;
+    try {
+      Rect rect =
+          BitmapUtils.getRectFromPoints(
+              points, orgWidth, orgHeight, fixAspectRatio, aspectRatioX, aspectRatioY);
+      if (rect.width() < 1 || rect.height() < 1) {
+        return null;
+      }
+      // bands lower the peak memory only when the regular crop doesn't fit
+      long regularBytes =
+          CropMemoryPlanner.estimateCropBytes(
+              rect.width(), rect.height(), degreesRotated, true, reqWidth, reqHeight, options);
+      if (regularBytes <= CropMemoryPlanner.getAvailableMemory()) {
+        return null;
+      }
+      regionSession.open();
+
+      // sample the region the same as the regular crop, raise it if the output doesn't fit memory
+      int sampleSize =
+          BitmapUtils.calculateInSampleSizeByReqestedSize(
+              rect.width(),
+              rect.height(),
+              reqWidth > 0 ? reqWidth : rect.width(),
+              reqHeight > 0 ? reqHeight : rect.height());
+      long available = CropMemoryPlanner.getAvailableMemory();
+      int[] outputSize;
+      int bandRows;
+      while (true) {
+        outputSize = getOutputSize(rect, sampleSize, degreesRotated, reqWidth, reqHeight, options);
+        int sampledWidth = (rect.width() + sampleSize - 1) / sampleSize;
+        int sampledHeight = (rect.height() + sampleSize - 1) / sampleSize;
+        bandRows =
+            Math.min(sampledHeight, Math.max(MIN_BAND_ROWS, MAX_BAND_BYTES / 4 / sampledWidth));
+        long bytes = 4L * outputSize[0] * outputSize[1] + 4L * sampledWidth * (bandRows + 2);
+        if (bytes <= available || sampleSize >= 512) {
+          break;
+        }
+        sampleSize *= 2;
+      }
+
+      output =
+          BitmapPool.getInstance()
+              .getOrCreate(outputSize[0], outputSize[1], Bitmap.Config.ARGB_8888);
+      drawBands(
+          regionSession,
+          rect,
+          sampleSize,
+          bandRows,
+          degreesRotated,
+          flipHorizontally,
+          flipVertically,
+          output,
+          token);
+      return new BitmapUtils.BitmapSampled(output, sampleSize);
+    } catch (CancellationException e) {
+      BitmapPool.getInstance().put(output);
+      throw e;
+    } catch (Exception | OutOfMemoryError e) {
+      Log.w("AIC", "Failed to crop image in bands, fallback to regular crop: " + loadedImageUri, e);
+      BitmapPool.getInstance().put(output);
+      return null;
+    } finally {
+      if (session == null) {
+        regionSession.release();
+      }
+    }
+  }
+
+  // region: Private methods
+
+  /**
+   * Region decode the given rectangle in bands of the given sampled rows and draw each band
+   * rotated, flipped and scaled into the output bitmap.<br>
+   * Bands are decoded with a sampled row of overlap and clipped to their area so the filtering
+   * doesn't leave seams between bands.
+   */
+  private static void drawBands(
+      RegionDecoderSession session,
+      Rect rect,
+      int sampleSize,
+      int bandRows,
+      int degreesRotated,
+      boolean flipHorizontally,
+      boolean flipVertically,
+      Bitmap output,
+      CancellationToken token)
+      throws Exception {
+
+    // the transformation of the rectangle local coordinates to the output bitmap
+    boolean swap = degreesRotated % 180 != 0;
+    float scaleX = output.getWidth() / (float) (swap ? rect.height() : rect.width());
+    float scaleY = output.getHeight() / (float) (swap ? rect.width() : rect.height());
+    Matrix matrix = new Matrix();
+    matrix.setRotate(degreesRotated);
+    matrix.postScale(flipHorizontally ? -scaleX : scaleX, flipVertically ? -scaleY : scaleY);
+    RectF bounds = new RectF(0, 0, rect.width(), rect.height());
+    matrix.mapRect(bounds);
+    matrix.postTranslate(-bounds.left, -bounds.top);
+
+    Canvas canvas = new Canvas(output);
+    Paint paint = new Paint();
+    paint.setFilterBitmap(true);
+    Matrix bandMatrix = new Matrix();
+    RectF bandBounds = new RectF();
+    Rect decodeRect = new Rect();
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    int bandHeight = bandRows * sampleSize;
+    for (int top = rect.top; top < rect.bottom; top += bandHeight) {
+      CancellationToken.check(token, "band decode");
+      int bottom = Math.min(rect.bottom, top + bandHeight);
+      decodeRect.set(
+          rect.left,
+          Math.max(rect.top, top - sampleSize),
+          rect.right,
+          Math.min(rect.bottom, bottom + sampleSize));
+
+      options.inBitmap = null;
+      options.inSampleSize = sampleSize;
+      BitmapUtils.setPooledInBitmap(options, decodeRect.width(), decodeRect.height());
+      Bitmap band;
+      long decodeBytes =
+          CropScheduler.beginDecode(
+              BitmapUtils.getDecodeBytes(decodeRect.width(), decodeRect.height(), options));
+      try {
+        band = session.decodeRegion(decodeRect, options);
+      } catch (Exception | OutOfMemoryError e) {
+        BitmapPool.getInstance().put(options.inBitmap);
+        throw e;
+      } finally {
+        CropScheduler.endDecode(decodeBytes);
+      }
+      if (band == null) {
+        BitmapPool.getInstance().put(options.inBitmap);
+        throw new RuntimeException("Failed to decode band " + decodeRect + ": " + session);
+      }
+      try {
+        bandMatrix.setScale(
+            decodeRect.width() / (float) band.getWidth(),
+            decodeRect.height() / (float) band.getHeight());
+        bandMatrix.postTranslate(0, decodeRect.top - rect.top);
+        bandMatrix.postConcat(matrix);
+        bandBounds.set(0, top - rect.top, rect.width(), bottom - rect.top);
+        matrix.mapRect(bandBounds);
+
+        canvas.save();
+        canvas.clipRect(bandBounds);
+        canvas.drawBitmap(band, bandMatrix, paint);
+        canvas.restore();
+      } finally {
+        BitmapPool.getInstance().put(band);
+      }
+    }
+  }
+
+  /**
+   * The size of the output bitmap, the region sampled and rotated then resized by the request
+   * option the same as {@link BitmapUtils#resizeBitmap}.
+   */
+  private static int[] getOutputSize(
+      Rect rect,
+      int sampleSize,
+      int degreesRotated,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options) {
+    boolean swap = degreesRotated % 180 != 0;
+    int width = (rect.width() + sampleSize - 1) / sampleSize;
+    int height = (rect.height() + sampleSize - 1) / sampleSize;
+    return BitmapUtils.getResizedSize(
+        swap ? height : width, swap ? width : height, reqWidth, reqHeight, options);
+  }
+  // endregion
+}
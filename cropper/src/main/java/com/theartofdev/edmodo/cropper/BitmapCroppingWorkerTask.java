@@ -18,6 +18,7 @@ import android.net.Uri;
 import android.os.AsyncTask;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 /** Task to crop bitmap asynchronously from the UI thread. */
 final class BitmapCroppingWorkerTask
@@ -28,142 +29,47 @@ final class BitmapCroppingWorkerTask
   /** Use a WeakReference to ensure the ImageView can be garbage collected */
   private final WeakReference<CropImageView> mCropImageViewReference;
 
-  /** the bitmap to crop */
-  private final Bitmap mBitmap;
-
-  /** The Android URI of the image to load */
-  private final Uri mUri;
-
   /** The context of the crop image view widget used for loading of bitmap by Android URI */
   private final Context mContext;
 
-  /** Required cropping 4 points (x0,y0,x1,y1,x2,y2,x3,y3) */
-  private final float[] mCropPoints;
-
-  /** Degrees the image was rotated after loading */
-  private final int mDegreesRotated;
-
-  /** the original width of the image to be cropped (for image loaded from URI) */
-  private final int mOrgWidth;
-
-  /** the original height of the image to be cropped (for image loaded from URI) */
-  private final int mOrgHeight;
-
-  /** is there is fixed aspect ratio for the crop rectangle */
-  private final boolean mFixAspectRatio;
-
-  /** the X aspect ration of the crop rectangle */
-  private final int mAspectRatioX;
-
-  /** the Y aspect ration of the crop rectangle */
-  private final int mAspectRatioY;
-
-  /** required width of the cropping image */
-  private final int mReqWidth;
-
-  /** required height of the cropping image */
-  private final int mReqHeight;
-
-  /** is the image flipped horizontally */
-  private final boolean mFlipHorizontally;
-
-  /** is the image flipped vertically */
-  private final boolean mFlipVertically;
-
-  /** The option to handle requested width/height */
-  private final CropImageView.RequestSizeOptions mReqSizeOptions;
+  /** The crop request, of resolved image size and crop points */
+  private final CropEngine.Request mRequest;
 
-  /** the Android Uri to save the cropped image to */
-  private final Uri mSaveUri;
+  /**
+   * The acquired region decoder session of the image to crop from URI, released once when the
+   * task is done or cancelled
+   */
+  private RegionDecoderSession mSession;
 
-  /** the compression format to use when writing the image */
-  private final Bitmap.CompressFormat mSaveCompressFormat;
+  /**
+   * The bitmap to crop held in the bitmap pool so clearing the view doesn't reuse it under the
+   * crop, released once when the task is done or cancelled
+   */
+  private Bitmap mHeldBitmap;
 
-  /** the quality (if applicable) to use when writing the image (0 - 100) */
-  private final int mSaveCompressQuality;
+  /** Stops the crop between its stages when the task is cancelled */
+  private final CancellationToken mCancellationToken = new CancellationToken();
   // endregion
 
   BitmapCroppingWorkerTask(
-      CropImageView cropImageView,
-      Bitmap bitmap,
-      float[] cropPoints,
-      int degreesRotated,
-      boolean fixAspectRatio,
-      int aspectRatioX,
-      int aspectRatioY,
-      int reqWidth,
-      int reqHeight,
-      boolean flipHorizontally,
-      boolean flipVertically,
-      CropImageView.RequestSizeOptions options,
-      Uri saveUri,
-      Bitmap.CompressFormat saveCompressFormat,
-      int saveCompressQuality) {
-
+      CropImageView cropImageView, CropEngine.Request request, RegionDecoderSession session) {
     mCropImageViewReference = new WeakReference<>(cropImageView);
     mContext = cropImageView.getContext();
-    mBitmap = bitmap;
-    mCropPoints = cropPoints;
-    mUri = null;
-    mDegreesRotated = degreesRotated;
-    mFixAspectRatio = fixAspectRatio;
-    mAspectRatioX = aspectRatioX;
-    mAspectRatioY = aspectRatioY;
-    mReqWidth = reqWidth;
-    mReqHeight = reqHeight;
-    mFlipHorizontally = flipHorizontally;
-    mFlipVertically = flipVertically;
-    mReqSizeOptions = options;
-    mSaveUri = saveUri;
-    mSaveCompressFormat = saveCompressFormat;
-    mSaveCompressQuality = saveCompressQuality;
-    mOrgWidth = 0;
-    mOrgHeight = 0;
-  }
-
-  BitmapCroppingWorkerTask(
-      CropImageView cropImageView,
-      Uri uri,
-      float[] cropPoints,
-      int degreesRotated,
-      int orgWidth,
-      int orgHeight,
-      boolean fixAspectRatio,
-      int aspectRatioX,
-      int aspectRatioY,
-      int reqWidth,
-      int reqHeight,
-      boolean flipHorizontally,
-      boolean flipVertically,
-      CropImageView.RequestSizeOptions options,
-      Uri saveUri,
-      Bitmap.CompressFormat saveCompressFormat,
-      int saveCompressQuality) {
-
-    mCropImageViewReference = new WeakReference<>(cropImageView);
-    mContext = cropImageView.getContext();
-    mUri = uri;
-    mCropPoints = cropPoints;
-    mDegreesRotated = degreesRotated;
-    mFixAspectRatio = fixAspectRatio;
-    mAspectRatioX = aspectRatioX;
-    mAspectRatioY = aspectRatioY;
-    mOrgWidth = orgWidth;
-    mOrgHeight = orgHeight;
-    mReqWidth = reqWidth;
-    mReqHeight = reqHeight;
-    mFlipHorizontally = flipHorizontally;
-    mFlipVertically = flipVertically;
-    mReqSizeOptions = options;
-    mSaveUri = saveUri;
-    mSaveCompressFormat = saveCompressFormat;
-    mSaveCompressQuality = saveCompressQuality;
-    mBitmap = null;
+    mRequest = request;
+    mSession = session;
+    mHeldBitmap = request.bitmap;
+    BitmapPool.getInstance().acquire(mHeldBitmap);
   }
 
   /** The Android URI that this task is currently loading. */
   public Uri getUri() {
-    return mUri;
+    return mRequest.uri;
+  }
+
+  /** Cancel the task and stop the crop in progress instead of only discarding its result. */
+  void cancelWork() {
+    mCancellationToken.cancel();
+    cancel(true);
   }
 
   /**
@@ -176,56 +82,11 @@ final class BitmapCroppingWorkerTask
   protected BitmapCroppingWorkerTask.Result doInBackground(Void... params) {
     try {
       if (!isCancelled()) {
-
-        BitmapUtils.BitmapSampled bitmapSampled;
-        if (mUri != null) {
-          bitmapSampled =
-              BitmapUtils.cropBitmap(
-                  mContext,
-                  mUri,
-                  mCropPoints,
-                  mDegreesRotated,
-                  mOrgWidth,
-                  mOrgHeight,
-                  mFixAspectRatio,
-                  mAspectRatioX,
-                  mAspectRatioY,
-                  mReqWidth,
-                  mReqHeight,
-                  mFlipHorizontally,
-                  mFlipVertically);
-        } else if (mBitmap != null) {
-          bitmapSampled =
-              BitmapUtils.cropBitmapObjectHandleOOM(
-                  mBitmap,
-                  mCropPoints,
-                  mDegreesRotated,
-                  mFixAspectRatio,
-                  mAspectRatioX,
-                  mAspectRatioY,
-                  mFlipHorizontally,
-                  mFlipVertically);
-        } else {
-          return new Result((Bitmap) null, 1);
-        }
-
-        Bitmap bitmap =
-            BitmapUtils.resizeBitmap(bitmapSampled.bitmap, mReqWidth, mReqHeight, mReqSizeOptions);
-
-        if (mSaveUri == null) {
-          return new Result(bitmap, bitmapSampled.sampleSize);
-        } else {
-          BitmapUtils.writeBitmapToUri(
-              mContext, bitmap, mSaveUri, mSaveCompressFormat, mSaveCompressQuality);
-          if (bitmap != null) {
-            bitmap.recycle();
-          }
-          return new Result(mSaveUri, bitmapSampled.sampleSize);
-        }
+        return CropEngine.run(mContext, mRequest, mSession, mCancellationToken);
       }
       return null;
-    } catch (Exception e) {
-      return new Result(e, mSaveUri != null);
+    } finally {
+      releaseSource();
     }
   }
 
@@ -245,13 +106,44 @@ final class BitmapCroppingWorkerTask
           cropImageView.onImageCroppingAsyncComplete(result);
         }
       }
-      if (!completeCalled && result.bitmap != null) {
+      if (!completeCalled) {
         // fast release of unused bitmap
-        result.bitmap.recycle();
+        releaseBitmaps(result);
+      }
+    }
+  }
+
+  @Override
+  protected void onCancelled(Result result) {
+    // the task may be cancelled before background execution started
+    releaseSource();
+    if (result != null) {
+      releaseBitmaps(result);
+    }
+  }
+
+  /** Return the bitmaps of the given result not delivered to the pool. */
+  static void releaseBitmaps(Result result) {
+    BitmapPool.getInstance().put(result.bitmap);
+    if (result.renditions != null) {
+      for (CropImageView.CropRendition rendition : result.renditions) {
+        BitmapPool.getInstance().put(rendition.getBitmap());
       }
     }
   }
 
+  /** Release the region decoder session and the held bitmap of the task, once. */
+  private synchronized void releaseSource() {
+    if (mSession != null) {
+      mSession.release();
+      mSession = null;
+    }
+    if (mHeldBitmap != null) {
+      BitmapPool.getInstance().release(mHeldBitmap);
+      mHeldBitmap = null;
+    }
+  }
+
   // region: Inner class: Result
 
   /** The result of BitmapCroppingWorkerTask async loading. */
@@ -272,9 +164,13 @@ final class BitmapCroppingWorkerTask
     /** sample size used creating the crop bitmap to lower its size */
     final int sampleSize;
 
+    /** The renditions of the output specs, null for single output */
+    final List<CropImageView.CropRendition> renditions;
+
     Result(Bitmap bitmap, int sampleSize) {
       this.bitmap = bitmap;
       this.uri = null;
+      this.renditions = null;
       this.error = null;
       this.isSave = false;
       this.sampleSize = sampleSize;
@@ -283,14 +179,25 @@ final class BitmapCroppingWorkerTask
     Result(Uri uri, int sampleSize) {
       this.bitmap = null;
       this.uri = uri;
+      this.renditions = null;
       this.error = null;
       this.isSave = true;
       this.sampleSize = sampleSize;
     }
 
+    Result(List<CropImageView.CropRendition> renditions, int sampleSize) {
+      this.bitmap = null;
+      this.uri = null;
+      this.renditions = renditions;
+      this.error = null;
+      this.isSave = false;
+      this.sampleSize = sampleSize;
+    }
+
     Result(Exception error, boolean isSave) {
       this.bitmap = null;
       this.uri = null;
+      this.renditions = null;
       this.error = error;
       this.isSave = isSave;
       this.sampleSize = 1;
@@ -0,0 +1,315 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Byte bounded LRU disk cache of downsampled preview bitmaps under the app cache dir, so re-opening
+ * a large camera image reads a small file instead of decoding the original.<br>
+ * Each file has a small header (magic, format version, sample size, EXIF rotation) followed by the
+ * bitmap compressed as JPEG 95% (PNG if it has alpha). Files are written to a temp file and renamed
+ * so a partial write is never read. The last modified time of the file is used for LRU order.<br>
+ * Files are written on the IO lane after the loading task returns the preview, so a cache miss
+ * doesn't pay the compress time before the preview is shown.
+ */
+final class BitmapDiskCache {
+
+  // region: Fields and Consts
+
+  /** The name of the cache directory under the app cache dir */
+  private static final String DIR_NAME = "image_cropper_previews";
+
+  /** The magic int at the start of every cache file ("AICP") */
+  private static final int MAGIC = 0x41494350;
+
+  /** The version of the cache file format, files of other versions are ignored */
+  private static final int FORMAT_VERSION = 1;
+
+  /** The single cache instance used by all crop image views */
+  private static BitmapDiskCache mInstance;
+
+  /** The max disk size set before the cache was created */
+  private static long mPendingMaxSize = 50 * 1024 * 1024;
+
+  /** The directory of the cache files */
+  private final File mDir;
+
+  /** The max total size in bytes of the cache files */
+  private long mMaxSize;
+
+  private int mHitCount;
+
+  private int mMissCount;
+
+  /** The total time of reading the cached previews */
+  private long mHitTotalNanos;
+
+  /** The total time of decoding the previews that were not cached */
+  private long mMissTotalNanos;
+  // endregion
+
+  private BitmapDiskCache(File dir, long maxSize) {
+    mDir = dir;
+    mMaxSize = maxSize;
+  }
+
+  /** Get the single cache instance in the app cache dir of the given context. */
+  static synchronized BitmapDiskCache getInstance(Context context) {
+    if (mInstance == null) {
+      File dir = new File(context.getApplicationContext().getCacheDir(), DIR_NAME);
+      mInstance = new BitmapDiskCache(dir, mPendingMaxSize);
+    }
+    return mInstance;
+  }
+
+  /**
+   * Set the max total size in bytes of the cache files, deleting files if the current size is
+   * larger.<br>
+   * Use 0 to disable the cache.
+   */
+  static synchronized void setMaxSize(long maxSize) {
+    mPendingMaxSize = Math.max(0, maxSize);
+    if (mInstance != null) {
+      synchronized (mInstance) {
+        mInstance.mMaxSize = mPendingMaxSize;
+        mInstance.trimToSize();
+      }
+    }
+  }
+
+  /**
+   * Read the cached preview bitmap for the given key in the pixel config of the key, null if not in
+   * the cache.<br>
+   * The read time is recorded as hit latency.
+   */
+  Bitmap get(BitmapMemoryCache.Key key) {
+    if (mMaxSize < 1) {
+      return null;
+    }
+    long start = System.nanoTime();
+    File file = getFile(key);
+    if (file.exists()) {
+      DataInputStream stream = null;
+      try {
+        stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (stream.readInt() == MAGIC
+            && stream.readInt() == FORMAT_VERSION
+            && stream.readInt() == key.sampleSize
+            && stream.readInt() == key.degreesRotated) {
+          BitmapFactory.Options options = new BitmapFactory.Options();
+          options.inPreferredConfig = key.config;
+          Bitmap bitmap = BitmapFactory.decodeStream(stream, null, options);
+          if (bitmap != null) {
+            // touch the file for LRU order
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+              mHitCount++;
+              mHitTotalNanos += System.nanoTime() - start;
+            }
+            return bitmap;
+          }
+        }
+      } catch (Exception e) {
+        Log.w("AIC", "Failed to read cached preview bitmap", e);
+      } finally {
+        BitmapUtils.closeSafe(stream);
+      }
+      // corrupted or stale format
+      file.delete();
+    }
+    return null;
+  }
+
+  /**
+   * Write the given preview bitmap to the cache in the background and evict the least recently
+   * used files if the cache is too large.<br>
+   * The bitmap is held in the bitmap pool until written. The given decode time of the bitmap is
+   * recorded as miss latency.
+   */
+  void put(final BitmapMemoryCache.Key key, final Bitmap bitmap, long decodeNanos) {
+    synchronized (this) {
+      mMissCount++;
+      mMissTotalNanos += decodeNanos;
+    }
+    if (mMaxSize < 1) {
+      return;
+    }
+    BitmapPool.getInstance().acquire(bitmap);
+    try {
+      CropScheduler.getExecutor(CropScheduler.Lane.IO, CropScheduler.PRIORITY_CACHE_WRITE)
+          .execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    write(key, bitmap);
+                  } finally {
+                    BitmapPool.getInstance().release(bitmap);
+                  }
+                }
+              });
+    } catch (RuntimeException e) {
+      BitmapPool.getInstance().release(bitmap);
+      Log.w("AIC", "Failed to schedule preview bitmap write to disk cache", e);
+    }
+  }
+
+  /** The number of previews read from the cache. */
+  synchronized int hitCount() {
+    return mHitCount;
+  }
+
+  /** The number of previews decoded because they were not in the cache. */
+  synchronized int missCount() {
+    return mMissCount;
+  }
+
+  /** The average time in milliseconds to read a cached preview. */
+  synchronized float averageHitMillis() {
+    return mHitCount > 0 ? mHitTotalNanos / (mHitCount * 1000000f) : 0;
+  }
+
+  /** The average time in milliseconds to decode a preview that was not in the cache. */
+  synchronized float averageMissMillis() {
+    return mMissCount > 0 ? mMissTotalNanos / (mMissCount * 1000000f) : 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BitmapDiskCache{maxSize="
+        + mMaxSize
+        + ", hits="
+        + mHitCount
+        + ", misses="
+        + mMissCount
+        + ", avgHitMs="
+        + averageHitMillis()
+        + ", avgMissMs="
+        + averageMissMillis()
+        + "}";
+  }
+
+  // region: Private methods
+
+  /**
+   * Write the given preview bitmap to the cache file of the given key and evict the least recently
+   * used files if the cache is too large.
+   */
+  private void write(BitmapMemoryCache.Key key, Bitmap bitmap) {
+    if (mMaxSize < 1 || bitmap.isRecycled() || (!mDir.exists() && !mDir.mkdirs())) {
+      return;
+    }
+    File file = getFile(key);
+    File tmpFile = new File(mDir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    DataOutputStream stream = null;
+    boolean written = false;
+    try {
+      stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      stream.writeInt(MAGIC);
+      stream.writeInt(FORMAT_VERSION);
+      stream.writeInt(key.sampleSize);
+      stream.writeInt(key.degreesRotated);
+      written =
+          bitmap.hasAlpha()
+              ? bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream)
+              : bitmap.compress(Bitmap.CompressFormat.JPEG, 95, stream);
+      stream.close();
+      stream = null;
+    } catch (Exception e) {
+      Log.w("AIC", "Failed to write preview bitmap to disk cache", e);
+      written = false;
+    } finally {
+      BitmapUtils.closeSafe(stream);
+    }
+    synchronized (this) {
+      if (!written || !tmpFile.renameTo(file)) {
+        tmpFile.delete();
+        return;
+      }
+      trimToSize();
+    }
+  }
+
+  /** Get the cache file of the given key by the MD5 hash of the key. */
+  private File getFile(BitmapMemoryCache.Key key) {
+    String name;
+    try {
+      byte[] hash = MessageDigest.getInstance("MD5").digest(key.toString().getBytes("UTF-8"));
+      StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      name = sb.toString();
+    } catch (Exception e) {
+      name = Integer.toHexString(key.toString().hashCode());
+    }
+    return new File(mDir, name);
+  }
+
+  /** Delete the least recently used files until the total size is not larger than the max. */
+  private void trimToSize() {
+    File[] files = mDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+    if (size <= mMaxSize) {
+      return;
+    }
+    // read the times once, get() touches files while sorting so they may change between compares
+    final long[] modified = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      modified[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer i1, Integer i2) {
+            long m1 = modified[i1];
+            long m2 = modified[i2];
+            return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+          }
+        });
+    for (int i = 0; i < order.length && size > mMaxSize; i++) {
+      File file = files[order[i]];
+      if (!file.getName().endsWith(".tmp")) {
+        long length = file.length();
+        if (file.delete()) {
+          size -= length;
+        }
+      }
+    }
+  }
+  // endregion
+}
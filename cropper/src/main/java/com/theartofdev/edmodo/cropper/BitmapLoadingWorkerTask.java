@@ -14,14 +14,18 @@ package com.theartofdev.edmodo.cropper;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.DisplayMetrics;
+import android.view.View;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
 
 /** Task to load bitmap asynchronously from the UI thread. */
-final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingWorkerTask.Result> {
+final class BitmapLoadingWorkerTask
+    extends AsyncTask<Void, BitmapLoadingWorkerTask.Result, BitmapLoadingWorkerTask.Result> {
 
   // region: Fields and Consts
 
@@ -39,6 +43,18 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
 
   /** required height of the cropping image after density adjustment */
   private final int mHeight;
+
+  /** if to publish small preview of large image before decoding the full image */
+  private final boolean mProgressive;
+
+  /**
+   * if the view is hardware accelerated and not drawn in a software layer so the image can be
+   * decoded to hardware bitmap
+   */
+  private final boolean mHardwareAccelerated;
+
+  /** Stops the decode in progress when the task is cancelled */
+  private final CancellationToken mCancellationToken = new CancellationToken();
   // endregion
 
   public BitmapLoadingWorkerTask(CropImageView cropImageView, Uri uri) {
@@ -46,11 +62,22 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
     mCropImageViewReference = new WeakReference<>(cropImageView);
 
     mContext = cropImageView.getContext();
+    mProgressive = cropImageView.isProgressiveLoadingEnabled();
+    mHardwareAccelerated =
+        cropImageView.isHardwareAccelerated()
+            && cropImageView.getLayerType() != View.LAYER_TYPE_SOFTWARE;
+
+    int[] size = getLoadSize(cropImageView.getResources().getDisplayMetrics());
+    mWidth = size[0];
+    mHeight = size[1];
+  }
 
-    DisplayMetrics metrics = cropImageView.getResources().getDisplayMetrics();
+  /** The required width and height of the loaded image by the display size after density. */
+  static int[] getLoadSize(DisplayMetrics metrics) {
     double densityAdj = metrics.density > 1 ? 1 / metrics.density : 1;
-    mWidth = (int) (metrics.widthPixels * densityAdj);
-    mHeight = (int) (metrics.heightPixels * densityAdj);
+    return new int[] {
+      (int) (metrics.widthPixels * densityAdj), (int) (metrics.heightPixels * densityAdj)
+    };
   }
 
   /** The Android URI that this task is currently loading. */
@@ -58,6 +85,12 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
     return mUri;
   }
 
+  /** Cancel the task and stop the decode in progress instead of only discarding its result. */
+  void cancelWork() {
+    mCancellationToken.cancel();
+    cancel(true);
+  }
+
   /**
    * Decode image in background.
    *
@@ -66,24 +99,120 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
    */
   @Override
   protected Result doInBackground(Void... params) {
+    ImageSource source = null;
+    CountDownLatch inFlight = null;
     try {
       if (!isCancelled()) {
 
-        BitmapUtils.BitmapSampled decodeResult =
-            BitmapUtils.decodeSampledBitmap(mContext, mUri, mWidth, mHeight);
+        // the image may be prefetched or loaded by another view, use its result from the cache
+        inFlight = CropScheduler.enter(mUri);
+
+        // bounds and EXIF of image content seen before are cached, no need to open the URI
+        ImageSource.Version version = ImageSource.getVersion(mContext, mUri);
+        ImageMetadataCache metadataCache = ImageMetadataCache.getInstance(mContext);
+        ImageMetadataCache.Entry metadata = metadataCache.get(mUri, version);
+        if (metadata == null) {
+          // open the URI once, bounds, EXIF and the decode are all served from the same stream
+          source = ImageSource.open(mContext, mUri);
+          metadata = BitmapUtils.probeMetadata(source);
+          metadataCache.put(mUri, version, metadata);
+        }
+
+        BitmapFactory.Options options =
+            BitmapUtils.decodeSampledOptions(metadata, mWidth, mHeight);
+        int degrees = metadata.degreesRotated;
+
+        // the bitmap is only displayed if sampled, use smaller pixel config
+        options.inPreferredConfig =
+            BitmapUtils.getPreviewConfig(
+                metadata.opaque, options.inSampleSize, mHardwareAccelerated);
+
+        // use the cached preview if the same image content was already decoded at this sample size
+        BitmapMemoryCache cache = BitmapMemoryCache.getInstance();
+        BitmapMemoryCache.Key key =
+            BitmapMemoryCache.Key.create(
+                mUri, version, options.inSampleSize, degrees, options.inPreferredConfig);
+        Bitmap bitmap = key != null ? cache.get(key) : null;
+        int sampleSize = options.inSampleSize;
+
+        // downsampled preview of large image is much faster to read from disk than to decode
+        BitmapDiskCache diskCache =
+            key != null && sampleSize > 1 ? BitmapDiskCache.getInstance(mContext) : null;
+        if (bitmap == null && diskCache != null) {
+          bitmap = diskCache.get(key);
+          if (bitmap != null) {
+            cache.put(key, bitmap);
+          }
+        }
 
-        if (!isCancelled()) {
+        // show preview of large image while the full image is decoded
+        if (bitmap == null && source == null && !isCancelled()) {
+          source = ImageSource.open(mContext, mUri);
+        }
+        if (bitmap == null && mProgressive && sampleSize > 1 && !isCancelled()) {
+          BitmapUtils.BitmapSampled preview =
+              BitmapUtils.decodePreviewBitmap(source, options, mCancellationToken);
+          if (preview != null) {
+            publishProgress(
+                new Result(
+                    mUri,
+                    preview.bitmap,
+                    preview.sampleSize,
+                    degrees,
+                    source.getOpenCount(),
+                    source.getBytesRead()));
+          }
+        }
 
-          BitmapUtils.RotateBitmapResult rotateResult =
-              BitmapUtils.rotateBitmapByExif(decodeResult.bitmap, mContext, mUri);
+        if (bitmap == null && !isCancelled()) {
+          long start = System.nanoTime();
+          BitmapUtils.BitmapSampled decodeResult =
+              BitmapUtils.decodeSampledBitmap(source, options, mCancellationToken);
+          bitmap = decodeResult.bitmap;
+          // don't cache under the requested sample size if OOM forced a larger one
+          if (key != null && decodeResult.sampleSize == sampleSize) {
+            cache.put(key, bitmap);
+            if (diskCache != null) {
+              diskCache.put(key, bitmap, System.nanoTime() - start);
+            }
+          }
+          sampleSize = decodeResult.sampleSize;
+        }
 
+        if (bitmap != null) {
           return new Result(
-              mUri, rotateResult.bitmap, decodeResult.sampleSize, rotateResult.degrees);
+              mUri,
+              bitmap,
+              sampleSize,
+              degrees,
+              source != null ? source.getOpenCount() : 0,
+              source != null ? source.getBytesRead() : 0);
         }
       }
       return null;
     } catch (Exception e) {
       return new Result(mUri, e);
+    } finally {
+      BitmapUtils.closeSafe(source);
+      if (inFlight != null) {
+        CropScheduler.exit(mUri, inFlight);
+      }
+    }
+  }
+
+  /**
+   * Progressive loading preview is ready, see if ImageView is still around and set the preview.
+   *
+   * @param values the preview bitmap data
+   */
+  @Override
+  protected void onProgressUpdate(Result... values) {
+    Result preview = values[0];
+    CropImageView cropImageView = mCropImageViewReference.get();
+    if (!isCancelled() && cropImageView != null) {
+      cropImageView.onSetImageUriAsyncPreview(preview);
+    } else {
+      BitmapPool.getInstance().put(preview.bitmap);
     }
   }
 
@@ -104,8 +233,10 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
         }
       }
       if (!completeCalled && result.bitmap != null) {
-        // fast release of unused bitmap
-        result.bitmap.recycle();
+        // fast release of unused bitmap, cached bitmap is released by the cache when evicted
+        if (!BitmapMemoryCache.getInstance().release(result.bitmap)) {
+          BitmapPool.getInstance().put(result.bitmap);
+        }
       }
     }
   }
@@ -127,14 +258,28 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
     /** The degrees the image was rotated */
     public final int degreesRotated;
 
+    /** The number of times the image URI was opened to load the bitmap */
+    public final int sourceOpenCount;
+
+    /** The number of bytes read from the image URI to load the bitmap */
+    public final long sourceBytesRead;
+
     /** The error that occurred during async bitmap loading. */
     public final Exception error;
 
-    Result(Uri uri, Bitmap bitmap, int loadSampleSize, int degreesRotated) {
+    Result(
+        Uri uri,
+        Bitmap bitmap,
+        int loadSampleSize,
+        int degreesRotated,
+        int sourceOpenCount,
+        long sourceBytesRead) {
       this.uri = uri;
       this.bitmap = bitmap;
       this.loadSampleSize = loadSampleSize;
       this.degreesRotated = degreesRotated;
+      this.sourceOpenCount = sourceOpenCount;
+      this.sourceBytesRead = sourceBytesRead;
       this.error = null;
     }
 
@@ -143,6 +288,8 @@ final class BitmapLoadingWorkerTask extends AsyncTask<Void, Void, BitmapLoadingW
       this.bitmap = null;
       this.loadSampleSize = 0;
       this.degreesRotated = 0;
+      this.sourceOpenCount = 0;
+      this.sourceBytesRead = 0;
       this.error = error;
     }
   }
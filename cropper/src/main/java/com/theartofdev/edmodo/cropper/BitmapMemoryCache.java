@@ -0,0 +1,307 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Byte bounded LRU cache of decoded preview bitmaps loaded from URI, so going back and forth
+ * between images or recreating the activity doesn't decode the image from scratch.<br>
+ * Cached bitmaps are shared, so every user must acquire the bitmap (done by {@link #get(Key)} and
+ * {@link #put(Key, Bitmap)}) and {@link #release(Bitmap)} it instead of recycling.<br>
+ * An evicted bitmap is returned to the {@link BitmapPool} only when it is no longer used.
+ */
+final class BitmapMemoryCache {
+
+  // region: Fields and Consts
+
+  /** The single cache instance used by all crop image views */
+  private static BitmapMemoryCache mInstance;
+
+  /** The cached bitmaps in access order (LRU first) */
+  private final LinkedHashMap<Key, Bitmap> mCache = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The users count of cached and evicted-but-used bitmaps.<br>
+   * Weak keys so bitmaps of views that were not cleared (state restore) are not leaked.
+   */
+  private final WeakHashMap<Bitmap, int[]> mRefCounts = new WeakHashMap<>();
+
+  /** The max total size in bytes of the cached bitmaps */
+  private int mMaxSize;
+
+  /** The current total size in bytes of the cached bitmaps */
+  private int mSize;
+
+  private int mHitCount;
+
+  private int mMissCount;
+
+  private int mPutCount;
+
+  private int mEvictionCount;
+  // endregion
+
+  private BitmapMemoryCache(int maxSize) {
+    mMaxSize = maxSize;
+  }
+
+  /** Get the single cache instance, created with 1/8 of the max heap size by default. */
+  static synchronized BitmapMemoryCache getInstance() {
+    if (mInstance == null) {
+      long maxMemory = Runtime.getRuntime().maxMemory();
+      mInstance = new BitmapMemoryCache((int) Math.min(maxMemory / 8, Integer.MAX_VALUE));
+    }
+    return mInstance;
+  }
+
+  /**
+   * Set the max total size in bytes of the cached bitmaps, evicting bitmaps if the current size is
+   * larger.<br>
+   * Use 0 to disable the cache.
+   */
+  synchronized void setMaxSize(int maxSize) {
+    mMaxSize = Math.max(0, maxSize);
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Get the cached bitmap for the given key, null if not in the cache.<br>
+   * The returned bitmap is acquired for the caller and must be released by {@link
+   * #release(Bitmap)}.
+   */
+  synchronized Bitmap get(Key key) {
+    Bitmap bitmap = mCache.get(key);
+    if (bitmap != null && !bitmap.isRecycled()) {
+      mHitCount++;
+      mRefCounts.get(bitmap)[0]++;
+      return bitmap;
+    }
+    mMissCount++;
+    return null;
+  }
+
+  /**
+   * Add the given bitmap to the cache, the bitmap is acquired for the caller and must be released
+   * by {@link #release(Bitmap)}.<br>
+   * If the cache is disabled or the bitmap is larger than the cache the bitmap is not cached and
+   * remains owned by the caller.
+   */
+  synchronized void put(Key key, Bitmap bitmap) {
+    int size = getSize(bitmap);
+    if (size > mMaxSize || mRefCounts.containsKey(bitmap)) {
+      return;
+    }
+    Bitmap previous = mCache.put(key, bitmap);
+    if (previous != null) {
+      mSize -= getSize(previous);
+      releaseIfUnused(previous);
+    }
+    mPutCount++;
+    mSize += size;
+    mRefCounts.put(bitmap, new int[] {1});
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Release a use of the given bitmap.<br>
+   * If the bitmap was evicted and has no more users it is returned to the bitmap pool.
+   *
+   * @return true - the bitmap is managed by the cache, false - the caller owns the bitmap
+   */
+  synchronized boolean release(Bitmap bitmap) {
+    int[] refCount = mRefCounts.get(bitmap);
+    if (refCount == null) {
+      return false;
+    }
+    refCount[0] = Math.max(0, refCount[0] - 1);
+    if (!mCache.containsValue(bitmap)) {
+      releaseIfUnused(bitmap);
+    }
+    return true;
+  }
+
+  /** The number of times {@link #get(Key)} returned a cached bitmap. */
+  synchronized int hitCount() {
+    return mHitCount;
+  }
+
+  /** The number of times {@link #get(Key)} returned null. */
+  synchronized int missCount() {
+    return mMissCount;
+  }
+
+  /** The number of bitmaps added to the cache. */
+  synchronized int putCount() {
+    return mPutCount;
+  }
+
+  /** The number of bitmaps evicted from the cache. */
+  synchronized int evictionCount() {
+    return mEvictionCount;
+  }
+
+  /** The current total size in bytes of the cached bitmaps. */
+  synchronized int size() {
+    return mSize;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BitmapMemoryCache{size="
+        + mSize
+        + ", maxSize="
+        + mMaxSize
+        + ", hits="
+        + mHitCount
+        + ", misses="
+        + mMissCount
+        + ", puts="
+        + mPutCount
+        + ", evictions="
+        + mEvictionCount
+        + "}";
+  }
+
+  // region: Private methods
+
+  /** Evict the least recently used bitmaps until the total size is not larger than given. */
+  private void trimToSize(int maxSize) {
+    Iterator<Map.Entry<Key, Bitmap>> iterator = mCache.entrySet().iterator();
+    while (mSize > maxSize && iterator.hasNext()) {
+      Bitmap bitmap = iterator.next().getValue();
+      iterator.remove();
+      mSize -= getSize(bitmap);
+      mEvictionCount++;
+      releaseIfUnused(bitmap);
+    }
+  }
+
+  /** Return the given bitmap that is no longer cached to the bitmap pool if it has no users. */
+  private void releaseIfUnused(Bitmap bitmap) {
+    int[] refCount = mRefCounts.get(bitmap);
+    if (refCount == null || refCount[0] < 1) {
+      mRefCounts.remove(bitmap);
+      BitmapPool.getInstance().put(bitmap);
+    }
+  }
+
+  /** The size in bytes the given bitmap takes in memory. */
+  private static int getSize(Bitmap bitmap) {
+    return bitmap.getRowBytes() * bitmap.getHeight();
+  }
+  // endregion
+
+  // region: Inner class: Key
+
+  /** The key of a cached preview bitmap. */
+  static final class Key {
+
+    /** The Android URI the bitmap was loaded from */
+    final Uri uri;
+
+    /** The version of the URI content the bitmap was loaded from */
+    final ImageSource.Version version;
+
+    /** The sample size the bitmap was decoded with */
+    final int sampleSize;
+
+    /** The EXIF rotation of the bitmap */
+    final int degreesRotated;
+
+    /**
+     * The pixel config the bitmap was decoded with, HARDWARE bitmap must not be served to a view
+     * that draws in software
+     */
+    final Bitmap.Config config;
+
+    private Key(
+        Uri uri,
+        ImageSource.Version version,
+        int sampleSize,
+        int degreesRotated,
+        Bitmap.Config config) {
+      this.uri = uri;
+      this.version = version;
+      this.sampleSize = sampleSize;
+      this.degreesRotated = degreesRotated;
+      this.config = config;
+    }
+
+    /**
+     * Create key for preview bitmap of the given URI.
+     *
+     * @return the key or null if the URI content version is unknown and must not be cached
+     */
+    static Key create(
+        Context context, Uri uri, int sampleSize, int degreesRotated, Bitmap.Config config) {
+      return create(
+          uri, ImageSource.getVersion(context, uri), sampleSize, degreesRotated, config);
+    }
+
+    /**
+     * Create key for preview bitmap of the given URI content version.
+     *
+     * @return the key or null if the version is unknown and must not be cached
+     */
+    static Key create(
+        Uri uri,
+        ImageSource.Version version,
+        int sampleSize,
+        int degreesRotated,
+        Bitmap.Config config) {
+      return version != null
+          ? new Key(uri, version, sampleSize, degreesRotated, config)
+          : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return sampleSize == key.sampleSize
+          && degreesRotated == key.degreesRotated
+          && config == key.config
+          && uri.equals(key.uri)
+          && version.equals(key.version);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = uri.hashCode();
+      result = 31 * result + version.hashCode();
+      result = 31 * result + sampleSize;
+      result = 31 * result + degreesRotated;
+      result = 31 * result + (config != null ? config.hashCode() : 0);
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return uri + "_" + version + "_" + sampleSize + "_" + degreesRotated + "_" + config;
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,330 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps reused by decodes ("inBitmap") and by the intermediate bitmaps of
+ * rotate, crop and resize instead of allocating a new multi-megabyte bitmap for each.<br>
+ * Bitmaps are grouped in size classes by their allocation byte count, a request is served from the
+ * smallest size class that fits and is no more than twice the required size.<br>
+ * Reusing bitmap of different dimensions requires {@link Bitmap#reconfigure} so the pool is active
+ * only on API 19+, on older devices bitmaps put in the pool are recycled.<br>
+ * A bitmap still read by background work (crop of the bitmap object) is held by {@link
+ * #acquire(Bitmap)}, putting it in the pool is deferred until the last holder releases it so it is
+ * not reused or recycled under the reader.
+ */
+final class BitmapPool {
+
+  // region: Fields and Consts
+
+  /** The single pool instance used by all crop image views */
+  private static BitmapPool mInstance;
+
+  /** The pooled bitmaps by size class (allocation byte count) */
+  private final TreeMap<Integer, LinkedList<Bitmap>> mSizeClasses = new TreeMap<>();
+
+  /** All the pooled bitmaps in the order they were added to evict the oldest first */
+  private final LinkedHashMap<Bitmap, Integer> mLru = new LinkedHashMap<>();
+
+  /** The holders count of bitmaps held by background work, see {@link #acquire(Bitmap)} */
+  private final Map<Bitmap, int[]> mHeld = new HashMap<>();
+
+  /** The held bitmaps put to the pool, pooled when the last holder releases them */
+  private final Set<Bitmap> mDeferred = new HashSet<>();
+
+  /** The max total size in bytes of the pooled bitmaps */
+  private int mMaxSize;
+
+  /** The current total size in bytes of the pooled bitmaps */
+  private int mSize;
+
+  /** if the low memory callbacks were registered on the application context */
+  private boolean mCallbacksRegistered;
+
+  private int mHitCount;
+
+  private int mMissCount;
+
+  private int mPutCount;
+
+  private int mEvictionCount;
+  // endregion
+
+  private BitmapPool(int maxSize) {
+    mMaxSize = maxSize;
+  }
+
+  /** Get the single pool instance, created with 1/16 of the max heap size by default. */
+  static synchronized BitmapPool getInstance() {
+    if (mInstance == null) {
+      long maxMemory = Runtime.getRuntime().maxMemory();
+      mInstance = new BitmapPool((int) Math.min(maxMemory / 16, Integer.MAX_VALUE));
+    }
+    return mInstance;
+  }
+
+  /** Register to trim the pool on low memory signals of the application, once. */
+  synchronized void registerTrimCallbacks(Context context) {
+    if (!mCallbacksRegistered) {
+      mCallbacksRegistered = true;
+      context
+          .getApplicationContext()
+          .registerComponentCallbacks(
+              new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                  trimMemory(level);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {}
+
+                @Override
+                public void onLowMemory() {
+                  clear();
+                }
+              });
+    }
+  }
+
+  /**
+   * Set the max total size in bytes of the pooled bitmaps, evicting bitmaps if the current size is
+   * larger.<br>
+   * Use 0 to disable the pool.
+   */
+  synchronized void setMaxSize(int maxSize) {
+    mMaxSize = Math.max(0, maxSize);
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Get pooled bitmap reconfigured to the given size and config with all pixels transparent.
+   *
+   * @return the pooled bitmap or null if there is no pooled bitmap that fits
+   */
+  Bitmap get(int width, int height, Bitmap.Config config) {
+    Bitmap bitmap = getDirty(width, height, config);
+    if (bitmap != null) {
+      bitmap.eraseColor(Color.TRANSPARENT);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Get pooled bitmap reconfigured to the given size and config, or create new bitmap if there is
+   * no pooled bitmap that fits.
+   */
+  Bitmap getOrCreate(int width, int height, Bitmap.Config config) {
+    Bitmap bitmap = get(width, height, config);
+    return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Get pooled bitmap reconfigured to the given size and config without clearing its pixels, for
+   * decoding into with "inBitmap".
+   *
+   * @return the pooled bitmap or null if there is no pooled bitmap that fits
+   */
+  synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || width < 1 || height < 1) {
+      return null;
+    }
+    int required = width * height * getBytesPerPixel(config);
+    Integer sizeClass = mSizeClasses.ceilingKey(required);
+    if (sizeClass != null && sizeClass <= required * 2) {
+      Bitmap bitmap = remove(sizeClass);
+      try {
+        bitmap.reconfigure(width, height, config);
+        mHitCount++;
+        return bitmap;
+      } catch (Exception e) {
+        bitmap.recycle();
+      }
+    }
+    mMissCount++;
+    return null;
+  }
+
+  /**
+   * Return the given bitmap to the pool, the bitmap must not be used by the caller after.<br>
+   * Bitmaps that cannot be reused (immutable, too large or pool not supported) are recycled.
+   */
+  synchronized void put(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled() || mLru.containsKey(bitmap)) {
+      return;
+    }
+    if (mHeld.containsKey(bitmap)) {
+      mDeferred.add(bitmap);
+      return;
+    }
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+        || !bitmap.isMutable()
+        || bitmap.getAllocationByteCount() > mMaxSize) {
+      bitmap.recycle();
+      return;
+    }
+    int size = bitmap.getAllocationByteCount();
+    LinkedList<Bitmap> sizeClass = mSizeClasses.get(size);
+    if (sizeClass == null) {
+      sizeClass = new LinkedList<>();
+      mSizeClasses.put(size, sizeClass);
+    }
+    sizeClass.addLast(bitmap);
+    mLru.put(bitmap, size);
+    mSize += size;
+    mPutCount++;
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Hold the given bitmap while background work reads it, {@link #put(Bitmap)} of the bitmap is
+   * deferred until it is released by {@link #release(Bitmap)}.
+   */
+  synchronized void acquire(Bitmap bitmap) {
+    if (bitmap != null) {
+      int[] holders = mHeld.get(bitmap);
+      if (holders == null) {
+        mHeld.put(bitmap, new int[] {1});
+      } else {
+        holders[0]++;
+      }
+    }
+  }
+
+  /** Release hold of the given bitmap, put it in the pool if it was put while held. */
+  synchronized void release(Bitmap bitmap) {
+    int[] holders = bitmap != null ? mHeld.get(bitmap) : null;
+    if (holders != null && --holders[0] < 1) {
+      mHeld.remove(bitmap);
+      if (mDeferred.remove(bitmap)) {
+        put(bitmap);
+      }
+    }
+  }
+
+  /** Recycle all the pooled bitmaps. */
+  synchronized void clear() {
+    trimToSize(0);
+  }
+
+  /** Trim the pool by the given {@link ComponentCallbacks2} memory trim level. */
+  synchronized void trimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      trimToSize(0);
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      trimToSize(mMaxSize / 2);
+    }
+  }
+
+  /** The number of requests served by a pooled bitmap. */
+  synchronized int hitCount() {
+    return mHitCount;
+  }
+
+  /** The number of requests that had no pooled bitmap that fits. */
+  synchronized int missCount() {
+    return mMissCount;
+  }
+
+  /** The number of bitmaps added to the pool. */
+  synchronized int putCount() {
+    return mPutCount;
+  }
+
+  /** The number of pooled bitmaps recycled to keep the pool size. */
+  synchronized int evictionCount() {
+    return mEvictionCount;
+  }
+
+  /** The current total size in bytes of the pooled bitmaps. */
+  synchronized int size() {
+    return mSize;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BitmapPool{size="
+        + mSize
+        + ", maxSize="
+        + mMaxSize
+        + ", hits="
+        + mHitCount
+        + ", misses="
+        + mMissCount
+        + ", puts="
+        + mPutCount
+        + ", evictions="
+        + mEvictionCount
+        + "}";
+  }
+
+  // region: Private methods
+
+  /** Remove the oldest bitmap of the given size class from the pool. */
+  private Bitmap remove(int sizeClass) {
+    LinkedList<Bitmap> bitmaps = mSizeClasses.get(sizeClass);
+    Bitmap bitmap = bitmaps.removeFirst();
+    if (bitmaps.isEmpty()) {
+      mSizeClasses.remove(sizeClass);
+    }
+    mLru.remove(bitmap);
+    mSize -= sizeClass;
+    return bitmap;
+  }
+
+  /** Recycle the oldest pooled bitmaps until the total size is not larger than given. */
+  private void trimToSize(int maxSize) {
+    Iterator<Map.Entry<Bitmap, Integer>> iterator = mLru.entrySet().iterator();
+    while (mSize > maxSize && iterator.hasNext()) {
+      Map.Entry<Bitmap, Integer> entry = iterator.next();
+      iterator.remove();
+      LinkedList<Bitmap> bitmaps = mSizeClasses.get(entry.getValue());
+      bitmaps.remove(entry.getKey());
+      if (bitmaps.isEmpty()) {
+        mSizeClasses.remove(entry.getValue());
+      }
+      mSize -= entry.getValue();
+      mEvictionCount++;
+      entry.getKey().recycle();
+    }
+  }
+
+  /** The number of bytes a pixel of the given config takes in memory. */
+  private static int getBytesPerPixel(Bitmap.Config config) {
+    if (config == Bitmap.Config.ALPHA_8) {
+      return 1;
+    } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+      return 2;
+    }
+    return 4;
+  }
+  // endregion
+}
@@ -12,15 +12,17 @@
 
 package com.theartofdev.edmodo.cropper;
 
-import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.net.Uri;
+import android.os.Build;
 import android.util.Log;
 import android.util.Pair;
 
@@ -28,14 +30,10 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
-
-import javax.microedition.khronos.egl.EGL10;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLContext;
-import javax.microedition.khronos.egl.EGLDisplay;
+import java.util.concurrent.CancellationException;
 
 import androidx.exifinterface.media.ExifInterface;
 
@@ -49,45 +47,35 @@ final class BitmapUtils {
   /** Reusable rectangle for general internal usage */
   static final RectF RECT = new RectF();
 
+  /** The "inDensity" used to scale decode by "inTargetDensity" with enough precision */
+  private static final int DENSITY_SCALE_PRECISION = 1 << 16;
+
   /** Reusable point for general internal usage */
   static final float[] POINTS = new float[6];
 
   /** Reusable point for general internal usage */
   static final float[] POINTS2 = new float[6];
 
-  /** Used to know the max texture size allowed to be rendered */
-  private static int mMaxTextureSize;
+  /** The decoder backend used to decode images, the Android backend by default */
+  private static volatile ImageDecoderSpi<Bitmap> mImageDecoder = AndroidImageDecoder.INSTANCE;
 
   /** used to save bitmaps during state save and restore so not to reload them. */
   static Pair<String, WeakReference<Bitmap>> mStateBitmap;
 
-  /**
-   * Rotate the given image by reading the Exif value of the image (uri).<br>
-   * If no rotation is required the image will not be rotated.<br>
-   * New bitmap is created and the old one is recycled.
-   */
-  static RotateBitmapResult rotateBitmapByExif(Bitmap bitmap, Context context, Uri uri) {
-    ExifInterface ei = null;
-    try {
-      InputStream is = context.getContentResolver().openInputStream(uri);
-      if (is != null) {
-        ei = new ExifInterface(is);
-        is.close();
-      }
-    } catch (Exception ignored) {
-    }
-    return ei != null ? rotateBitmapByExif(bitmap, ei) : new RotateBitmapResult(bitmap, 0);
-  }
-
   /**
    * Rotate the given image by given Exif value.<br>
    * If no rotation is required the image will not be rotated.<br>
    * New bitmap is created and the old one is recycled.
    */
   static RotateBitmapResult rotateBitmapByExif(Bitmap bitmap, ExifInterface exif) {
-    int degrees;
     int orientation =
         exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    return new RotateBitmapResult(bitmap, getExifOrientationDegrees(orientation));
+  }
+
+  /** Get the clockwise rotation degrees for the given Exif orientation value. */
+  static int getExifOrientationDegrees(int orientation) {
+    int degrees;
     switch (orientation) {
       case ExifInterface.ORIENTATION_ROTATE_90:
         degrees = 90;
@@ -102,46 +90,237 @@ final class BitmapUtils {
         degrees = 0;
         break;
     }
-    return new RotateBitmapResult(bitmap, degrees);
+    return degrees;
   }
 
-  /** Decode bitmap from stream using sampling to get bitmap with the requested limit. */
-  static BitmapSampled decodeSampledBitmap(Context context, Uri uri, int reqWidth, int reqHeight) {
+  /**
+   * Get the clockwise rotation degrees of the image source by its Exif value.<br>
+   * The orientation parsed by {@link ImageHeaderParser} is used if available, otherwise falls back
+   * to {@link ExifInterface}.
+   */
+  static int getExifDegrees(ImageSource source) {
+    ImageDecoderSpi<Bitmap> decoder = mImageDecoder;
+    if (decoder != AndroidImageDecoder.INSTANCE) {
+      try {
+        return decoder.decodeOrientation(source.openHeaderStream());
+      } catch (Exception e) {
+        return 0;
+      }
+    }
+    ImageHeaderParser.Header header = source.getHeader();
+    if (header != null && header.orientation != ImageHeaderParser.ORIENTATION_UNDEFINED) {
+      return getExifOrientationDegrees(header.orientation);
+    }
+    ExifInterface ei = source.getExif();
+    return ei != null
+        ? getExifOrientationDegrees(
+            ei.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL))
+        : 0;
+  }
+
+  /**
+   * Decode bitmap from image source using sampling to get bitmap with the requested limit.<br>
+   * The bounds are parsed from the source buffered header so the URI is opened only once.
+   */
+  static BitmapSampled decodeSampledBitmap(ImageSource source, int reqWidth, int reqHeight) {
+    return decodeSampledBitmap(source, decodeSampledOptions(source, reqWidth, reqHeight), null);
+  }
+
+  /**
+   * Get the decode options of the image source with the dimensions and the "inSampleSize" to get
+   * bitmap with the requested limit, without decoding the image.<br>
+   * Allows checking the cache for bitmap of the same sample size before decoding.
+   */
+  static BitmapFactory.Options decodeSampledOptions(
+      ImageSource source, int reqWidth, int reqHeight) {
+    return decodeSampledOptions(probeMetadata(source), reqWidth, reqHeight);
+  }
+
+  /**
+   * Get the decode options of image of the given metadata with the dimensions and the
+   * "inSampleSize" to get bitmap with the requested limit, without reading the image.
+   */
+  static BitmapFactory.Options decodeSampledOptions(
+      ImageMetadataCache.Entry metadata, int reqWidth, int reqHeight) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.outWidth = metadata.width;
+    options.outHeight = metadata.height;
+    options.outMimeType = metadata.mimeType;
+
+    // Calculate inSampleSize
+    options.inSampleSize =
+        Math.max(
+            calculateInSampleSizeByReqestedSize(
+                options.outWidth, options.outHeight, reqWidth, reqHeight),
+            calculateInSampleSizeByMaxTextureSize(options.outWidth, options.outHeight));
+    return options;
+  }
 
+  /**
+   * Get the bytes of the bitmap the given decode options decode from image of the given size, by
+   * sampling, density scale and config.
+   */
+  static long getDecodeBytes(int width, int height, BitmapFactory.Options options) {
+    int sampleSize = Math.max(1, options.inSampleSize);
+    float scale = getDensityScale(options);
+    int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+    return (long) (width / sampleSize * scale)
+        * (long) (height / sampleSize * scale)
+        * bytesPerPixel;
+  }
+
+  /**
+   * Wait until decode of image of the given size by the given options can start, see {@link
+   * CropScheduler#beginDecode(long)}.
+   *
+   * @return the bytes to give to {@link CropScheduler#endDecode(long)} when the decode is done
+   */
+  static long beginDecode(int width, int height, BitmapFactory.Options options)
+      throws InterruptedIOException {
     try {
-      ContentResolver resolver = context.getContentResolver();
+      return CropScheduler.beginDecode(getDecodeBytes(width, height, options));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to start large decode");
+    }
+  }
 
-      // First decode with inJustDecodeBounds=true to check dimensions
-      BitmapFactory.Options options = decodeImageForOption(resolver, uri);
+  /**
+   * Probe the metadata of the image source: dimensions, EXIF rotation and what the header tells of
+   * the format, to cache in {@link ImageMetadataCache}.<br>
+   * The dimensions are from the parsed header, fallback to decode with inJustDecodeBounds=true for
+   * formats the parser doesn't support.
+   */
+  static ImageMetadataCache.Entry probeMetadata(ImageSource source) {
+    try {
+      int width;
+      int height;
+      String mimeType = null;
+      ImageHeaderParser.Header header = source.getHeader();
+      if (header != null) {
+        width = header.width;
+        height = header.height;
+        mimeType = header.mimeType;
+      } else if (mImageDecoder == AndroidImageDecoder.INSTANCE) {
+        BitmapFactory.Options options = source.decodeBounds();
+        width = options.outWidth;
+        height = options.outHeight;
+        mimeType = options.outMimeType;
+      } else {
+        int[] bounds = mImageDecoder.decodeBounds(source.openDecodeStream());
+        width = bounds != null ? bounds[0] : -1;
+        height = bounds != null ? bounds[1] : -1;
+      }
 
-      if(options.outWidth  == -1 && options.outHeight == -1)
-        throw new RuntimeException("File is not a picture");
+      if (width == -1 && height == -1) throw new RuntimeException("File is not a picture");
 
-      // Calculate inSampleSize
-      options.inSampleSize =
-          Math.max(
-              calculateInSampleSizeByReqestedSize(
-                  options.outWidth, options.outHeight, reqWidth, reqHeight),
-              calculateInSampleSizeByMaxTextureSize(options.outWidth, options.outHeight));
+      return new ImageMetadataCache.Entry(
+          width,
+          height,
+          getExifDegrees(source),
+          mimeType,
+          header != null && header.opaque,
+          header != null && header.progressive,
+          true);
 
+    } catch (Exception e) {
+      throw new RuntimeException(
+          "Failed to load sampled bitmap: " + source.getUri() + "\r\n" + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Decode bitmap from image source using the given options from {@link
+   * #decodeSampledOptions(ImageSource, int, int)}.<br>
+   * The sample size of the result may be larger than requested if decode failed due to OOM.
+   *
+   * @param token aborts the decode when cancelled, null if not cancellable
+   */
+  static BitmapSampled decodeSampledBitmap(
+      ImageSource source, BitmapFactory.Options options, CancellationToken token) {
+    try {
       // Decode bitmap with inSampleSize set
-      Bitmap bitmap = decodeImage(resolver, uri, options);
+      Bitmap bitmap = decodeImage(source, options, token);
 
       return new BitmapSampled(bitmap, options.inSampleSize);
 
+    } catch (CancellationException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(
-          "Failed to load sampled bitmap: " + uri + "\r\n" + e.getMessage(), e);
+          "Failed to load sampled bitmap: " + source.getUri() + "\r\n" + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Get the pixel config to decode the image shown for cropping by, with the smallest footprint
+   * that doesn't lose crop quality:<br>
+   * ARGB_8888 if not sampled as the crop is done from the bitmap pixels, otherwise the crop is
+   * decoded from the URI and the bitmap is only displayed: HARDWARE on API 26+ if the view is
+   * hardware accelerated, RGB_565 if the image is known to be opaque, ARGB_8888 otherwise.
+   */
+  static Bitmap.Config getPreviewConfig(
+      boolean opaque, int sampleSize, boolean hardwareAccelerated) {
+    if (sampleSize <= 1) {
+      return Bitmap.Config.ARGB_8888;
+    } else if (hardwareAccelerated && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      return Bitmap.Config.HARDWARE;
+    } else if (opaque) {
+      return Bitmap.Config.RGB_565;
+    }
+    return Bitmap.Config.ARGB_8888;
+  }
+
+  /**
+   * Decode small preview of the image source for progressive loading.<br>
+   * Uses the EXIF thumbnail if it has the same aspect ratio as the image, otherwise decodes the
+   * image with 8 times the sample size of the full decode.
+   *
+   * @param options the full decode options from {@link #decodeSampledOptions(ImageSource, int,
+   *     int)}
+   * @return the preview bitmap and its sample size relative to the image, null if failed
+   */
+  static BitmapSampled decodePreviewBitmap(
+      ImageSource source, BitmapFactory.Options options, CancellationToken token) {
+    try {
+      ExifInterface exif = source.getExif();
+      if (exif != null && exif.hasThumbnail()) {
+        Bitmap thumbnail = exif.getThumbnailBitmap();
+        if (thumbnail != null) {
+          float imageRatio = options.outWidth / (float) options.outHeight;
+          float thumbnailRatio = thumbnail.getWidth() / (float) thumbnail.getHeight();
+          if (Math.abs(imageRatio - thumbnailRatio) < imageRatio * 0.02f) {
+            int sampleSize = Math.round(options.outWidth / (float) thumbnail.getWidth());
+            return new BitmapSampled(thumbnail, Math.max(1, sampleSize));
+          }
+          // letterboxed or cropped thumbnail would move the crop window when replaced
+          thumbnail.recycle();
+        }
+      }
+
+      BitmapFactory.Options previewOptions = new BitmapFactory.Options();
+      previewOptions.outWidth = options.outWidth;
+      previewOptions.outHeight = options.outHeight;
+      previewOptions.inSampleSize = options.inSampleSize * 8;
+      previewOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+      Bitmap bitmap = decodeImage(source, previewOptions, token);
+      return bitmap != null ? new BitmapSampled(bitmap, previewOptions.inSampleSize) : null;
+    } catch (CancellationException e) {
+      throw e;
+    } catch (Exception e) {
+      Log.w("AIC", "Failed to decode preview bitmap for progressive loading", e);
+      return null;
     }
   }
 
   /**
    * Crop image bitmap from given bitmap using the given points in the original bitmap and the given
    * rotation.<br>
-   * if the rotation is not 0,90,180 or 270 degrees then we must first crop a larger area of the
-   * image that contains the requires rectangle, rotate and then crop again a sub rectangle.<br>
-   * If crop fails due to OOM we scale the cropping image by 0.5 every time it fails until it is
-   * small enough.
+   * The crop, rotation, flip and resize to the requested size are done in a single draw into a
+   * bitmap of the final size, so the peak memory is the source and the result.<br>
+   * The scale is planned by the memory the result requires, if crop still fails due to OOM we
+   * scale the cropping image by 0.5 every time it fails until it is small enough.<br>
+   * Hardware bitmap is copied to ARGB_8888 first as its pixels cannot be drawn by software canvas.
    */
   static BitmapSampled cropBitmapObjectHandleOOM(
       Bitmap bitmap,
@@ -151,8 +330,50 @@ final class BitmapUtils {
       int aspectRatioX,
       int aspectRatioY,
       boolean flipHorizontally,
-      boolean flipVertically) {
-    int scale = 1;
+      boolean flipVertically,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      CancellationToken token) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+        && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+      Bitmap copy = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+      try {
+        return cropBitmapObjectHandleOOM(
+            copy,
+            points,
+            degreesRotated,
+            fixAspectRatio,
+            aspectRatioX,
+            aspectRatioY,
+            flipHorizontally,
+            flipVertically,
+            reqWidth,
+            reqHeight,
+            options,
+            token);
+      } finally {
+        BitmapPool.getInstance().put(copy);
+      }
+    }
+    Rect rect =
+        getTransformedCropRect(
+            bitmap,
+            points,
+            degreesRotated,
+            fixAspectRatio,
+            aspectRatioX,
+            aspectRatioY,
+            flipHorizontally,
+            flipVertically,
+            new Matrix());
+    int[] size = getResizedSize(rect.width(), rect.height(), reqWidth, reqHeight, options);
+    int scale =
+        Math.min(
+            8,
+            CropMemoryPlanner.planDecode(size[0], size[1], 1, 1, Bitmap.Config.ARGB_8888)
+                .sampleSize);
+    CancellationToken.check(token, "crop");
     while (true) {
       try {
         Bitmap cropBitmap =
@@ -165,7 +386,10 @@ final class BitmapUtils {
                 aspectRatioY,
                 1 / (float) scale,
                 flipHorizontally,
-                flipVertically);
+                flipVertically,
+                reqWidth,
+                reqHeight,
+                options);
         return new BitmapSampled(cropBitmap, scale);
       } catch (OutOfMemoryError e) {
         scale *= 2;
@@ -179,11 +403,12 @@ final class BitmapUtils {
   /**
    * Crop image bitmap from given bitmap using the given points in the original bitmap and the given
    * rotation.<br>
-   * if the rotation is not 0,90,180 or 270 degrees then we must first crop a larger area of the
-   * image that contains the requires rectangle, rotate and then crop again a sub rectangle.
+   * The bitmap is drawn once into the result through the combined matrix of rotation, flip, crop
+   * origin and output scale, for any rotation angle.
    *
    * @param scale how much to scale the cropped image part, use 0.5 to lower the image by half (OOM
    *     handling)
+   * @param options the resize option of the requested size, resize is done in the same draw
    */
   private static Bitmap cropBitmapObjectWithScale(
       Bitmap bitmap,
@@ -194,52 +419,174 @@ final class BitmapUtils {
       int aspectRatioY,
       float scale,
       boolean flipHorizontally,
-      boolean flipVertically) {
+      boolean flipVertically,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options) {
 
-    // get the rectangle in original image that contains the required cropped area (larger for non
-    // rectangular crop)
+    // the crop rectangle in the rotated and flipped image coordinates
+    Matrix matrix = new Matrix();
     Rect rect =
-        getRectFromPoints(
+        getTransformedCropRect(
+            bitmap,
             points,
-            bitmap.getWidth(),
-            bitmap.getHeight(),
+            degreesRotated,
             fixAspectRatio,
             aspectRatioX,
-            aspectRatioY);
-
-    // crop and rotate the cropped image in one operation
-    Matrix matrix = new Matrix();
-    matrix.setRotate(degreesRotated, bitmap.getWidth() / 2, bitmap.getHeight() / 2);
-    matrix.postScale(flipHorizontally ? -scale : scale, flipVertically ? -scale : scale);
-    Bitmap result =
-        Bitmap.createBitmap(bitmap, rect.left, rect.top, rect.width(), rect.height(), matrix, true);
+            aspectRatioY,
+            flipHorizontally,
+            flipVertically,
+            matrix);
 
-    if (result == bitmap) {
-      // corner case when all bitmap is selected, no worth optimizing for it
-      result = bitmap.copy(bitmap.getConfig(), false);
+    // the result size, scaled and resized the same as resizeBitmap would
+    int[] size =
+        getResizedSize(
+            Math.max(1, Math.round(rect.width() * scale)),
+            Math.max(1, Math.round(rect.height() * scale)),
+            reqWidth,
+            reqHeight,
+            options);
+    // rotation by 90 or 270 degrees of the crop without resize is a transpose of its pixels
+    if (size[0] == rect.width()
+        && size[1] == rect.height()
+        && degreesRotated % 90 == 0
+        && degreesRotated % 180 != 0) {
+      Matrix inverse = new Matrix();
+      matrix.invert(inverse);
+      RectF sourceRectF = new RectF(rect);
+      inverse.mapRect(sourceRectF);
+      Rect sourceRect = new Rect();
+      sourceRectF.round(sourceRect);
+      if (sourceRect.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())
+          && sourceRect.width() == rect.height()
+          && sourceRect.height() == rect.width()) {
+        Bitmap transposed =
+            TransposeKernel.rotate(
+                bitmap, sourceRect, degreesRotated, flipHorizontally, flipVertically);
+        if (transposed != null) {
+          return transposed;
+        }
+      }
     }
 
-    // rotating by 0, 90, 180 or 270 degrees doesn't require extra cropping
-    if (degreesRotated % 90 != 0) {
+    matrix.postTranslate(-rect.left, -rect.top);
+    matrix.postScale(size[0] / (float) rect.width(), size[1] / (float) rect.height());
+
+    // straight angle keeps the source config and doesn't need filtering if not scaled
+    boolean straight = degreesRotated % 90 == 0;
+    Bitmap.Config config =
+        straight && bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+    Paint paint = new Paint();
+    paint.setFilterBitmap(!straight || size[0] != rect.width() || size[1] != rect.height());
+    paint.setAntiAlias(!straight);
+
+    Bitmap result = BitmapPool.getInstance().getOrCreate(size[0], size[1], config);
+    result.setDensity(bitmap.getDensity());
+    result.setHasAlpha(!straight || bitmap.hasAlpha());
+    new Canvas(result).drawBitmap(bitmap, matrix, paint);
+    return result;
+  }
 
-      // extra crop because non rectangular crop cannot be done directly on the image without
-      // rotating first
-      result =
-          cropForRotatedImage(
-              result, points, rect, degreesRotated, fixAspectRatio, aspectRatioX, aspectRatioY);
-    }
+  /**
+   * Get the crop rectangle of the given points in the coordinates of the bitmap rotated and
+   * flipped so the rectangle is axis aligned, limited to the transformed bitmap bounds.
+   *
+   * @param matrix set to the rotation and flip of the bitmap to the returned rectangle coordinates
+   */
+  static Rect getTransformedCropRect(
+      Bitmap bitmap,
+      float[] points,
+      int degreesRotated,
+      boolean fixAspectRatio,
+      int aspectRatioX,
+      int aspectRatioY,
+      boolean flipHorizontally,
+      boolean flipVertically,
+      Matrix matrix) {
+    matrix.setRotate(degreesRotated);
+    matrix.postScale(flipHorizontally ? -1 : 1, flipVertically ? -1 : 1);
+    float[] mapped = new float[8];
+    matrix.mapPoints(mapped, 0, points, 0, 4);
+    RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+    matrix.mapRect(bounds);
 
-    return result;
+    Rect rect =
+        new Rect(
+            Math.round(Math.max(bounds.left, getRectLeft(mapped))),
+            Math.round(Math.max(bounds.top, getRectTop(mapped))),
+            Math.round(Math.min(bounds.right, getRectRight(mapped))),
+            Math.round(Math.min(bounds.bottom, getRectBottom(mapped))));
+    rect.right = Math.max(rect.right, rect.left + 1);
+    rect.bottom = Math.max(rect.bottom, rect.top + 1);
+    if (fixAspectRatio) {
+      fixRectForAspectRatio(rect, aspectRatioX, aspectRatioY);
+    }
+    return rect;
   }
 
   /**
    * Crop image bitmap from URI by decoding it with specific width and height to down-sample if
    * required.<br>
-   * Additionally if OOM is thrown try to increase the sampling (2,4,8).
+   * Additionally if OOM is thrown try to increase the sampling (2,4,8).<br>
+   * All the attempts decode by the same region decoder session, the given one or a temporary one
+   * closed at the end if null is given.<br>
+   * For resize request options the crop is scaled to the resized size in the decode or the rotate
+   * pass so the following {@link #resizeBitmap} is a no-op or a small adjustment.
+   *
+   * @param token stops the crop between its stages when cancelled, null if not cancellable
    */
   static BitmapSampled cropBitmap(
       Context context,
       Uri loadedImageUri,
+      RegionDecoderSession session,
+      float[] points,
+      int degreesRotated,
+      int orgWidth,
+      int orgHeight,
+      boolean fixAspectRatio,
+      int aspectRatioX,
+      int aspectRatioY,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      boolean flipHorizontally,
+      boolean flipVertically,
+      CancellationToken token) {
+    RegionDecoderSession regionSession =
+        session != null ? session : new RegionDecoderSession(context, loadedImageUri);
+    try {
+      return cropBitmapHandleOOM(
+          context,
+          loadedImageUri,
+          regionSession,
+          points,
+          degreesRotated,
+          orgWidth,
+          orgHeight,
+          fixAspectRatio,
+          aspectRatioX,
+          aspectRatioY,
+          reqWidth,
+          reqHeight,
+          options,
+          flipHorizontally,
+          flipVertically,
+          token);
+    } finally {
+      if (session == null) {
+        regionSession.release();
+      }
+    }
+  }
+
+  /**
+   * Crop image bitmap from URI by the given region decoder session with sampling planned by the
+   * memory the crop requires, if OOM is still thrown try to increase the sampling (2,4,8).
+   */
+  private static BitmapSampled cropBitmapHandleOOM(
+      Context context,
+      Uri loadedImageUri,
+      RegionDecoderSession session,
       float[] points,
       int degreesRotated,
       int orgWidth,
@@ -249,15 +596,39 @@ final class BitmapUtils {
       int aspectRatioY,
       int reqWidth,
       int reqHeight,
+      CropImageView.RequestSizeOptions options,
       boolean flipHorizontally,
-      boolean flipVertically) {
-    int sampleMulti = 1;
+      boolean flipVertically,
+      CancellationToken token) {
+    // plan the sampling of the region by the memory the crop requires
+    Rect rect =
+        getRectFromPoints(points, orgWidth, orgHeight, fixAspectRatio, aspectRatioX, aspectRatioY);
+    int sampleSize =
+        calculateInSampleSizeByReqestedSize(
+            rect.width(),
+            rect.height(),
+            reqWidth > 0 ? reqWidth : rect.width(),
+            reqHeight > 0 ? reqHeight : rect.height());
+    CropMemoryPlanner.Plan plan =
+        CropMemoryPlanner.planCrop(
+            rect.width(),
+            rect.height(),
+            degreesRotated,
+            true,
+            true,
+            reqWidth,
+            reqHeight,
+            options,
+            sampleSize,
+            sampleSize * 16);
+    int sampleMulti = plan.sampleSize / sampleSize;
     while (true) {
       try {
         // if successful, just return the resulting bitmap
         return cropBitmap(
             context,
             loadedImageUri,
+            session,
             points,
             degreesRotated,
             orgWidth,
@@ -267,9 +638,11 @@ final class BitmapUtils {
             aspectRatioY,
             reqWidth,
             reqHeight,
+            options,
             flipHorizontally,
             flipVertically,
-            sampleMulti);
+            sampleMulti,
+            token);
       } catch (OutOfMemoryError e) {
         // if OOM try to increase the sampling to lower the memory usage
         sampleMulti *= 2;
@@ -287,6 +660,16 @@ final class BitmapUtils {
     }
   }
 
+  /** Get the decoder backend used to decode images. */
+  static ImageDecoderSpi<Bitmap> getImageDecoder() {
+    return mImageDecoder;
+  }
+
+  /** Set the decoder backend used to decode images, null for the default Android backend. */
+  static void setImageDecoder(ImageDecoderSpi<Bitmap> decoder) {
+    mImageDecoder = decoder != null ? decoder : AndroidImageDecoder.INSTANCE;
+  }
+
   /** Get left value of the bounding rectangle of the given points. */
   static float getRectLeft(float[] points) {
     return Math.min(Math.min(Math.min(points[0], points[2]), points[4]), points[6]);
@@ -422,20 +805,18 @@ final class BitmapUtils {
 
         Bitmap resized = null;
         if (options == CropImageView.RequestSizeOptions.RESIZE_EXACT) {
-          resized = Bitmap.createScaledBitmap(bitmap, reqWidth, reqHeight, false);
+          resized = createScaledBitmap(bitmap, reqWidth, reqHeight);
         } else {
           int width = bitmap.getWidth();
           int height = bitmap.getHeight();
           float scale = Math.max(width / (float) reqWidth, height / (float) reqHeight);
           if (scale > 1 || options == CropImageView.RequestSizeOptions.RESIZE_FIT) {
-            resized =
-                Bitmap.createScaledBitmap(
-                    bitmap, (int) (width / scale), (int) (height / scale), false);
+            resized = createScaledBitmap(bitmap, (int) (width / scale), (int) (height / scale));
           }
         }
         if (resized != null) {
           if (resized != bitmap) {
-            bitmap.recycle();
+            BitmapPool.getInstance().put(bitmap);
           }
           return resized;
         }
@@ -446,19 +827,71 @@ final class BitmapUtils {
     return bitmap;
   }
 
+  /**
+   * Scale the given bitmap to the given size into a new bitmap taken from the bitmap pool, the
+   * given bitmap is kept.<br>
+   * Downscale by more than half is done in steps of half so the filtering doesn't skip source
+   * pixels, the intermediate steps are returned to the pool.
+   */
+  static Bitmap cascadeScaleBitmap(Bitmap bitmap, int width, int height) {
+    Bitmap current = bitmap;
+    try {
+      while (current.getWidth() > width * 2 || current.getHeight() > height * 2) {
+        Bitmap half =
+            createTransformedBitmap(
+                current,
+                new Rect(0, 0, current.getWidth(), current.getHeight()),
+                getScaleMatrix(
+                    current,
+                    Math.max(width, current.getWidth() / 2),
+                    Math.max(height, current.getHeight() / 2)),
+                true);
+        if (current != bitmap) {
+          BitmapPool.getInstance().put(current);
+        }
+        current = half;
+      }
+      Bitmap result =
+          createTransformedBitmap(
+              current,
+              new Rect(0, 0, current.getWidth(), current.getHeight()),
+              getScaleMatrix(current, width, height),
+              true);
+      if (current != bitmap) {
+        BitmapPool.getInstance().put(current);
+      }
+      return result;
+    } catch (RuntimeException | OutOfMemoryError e) {
+      if (current != bitmap) {
+        BitmapPool.getInstance().put(current);
+      }
+      throw e;
+    }
+  }
+
   // region: Private methods
 
+  /** Get matrix scaling the given bitmap to the given size. */
+  private static Matrix getScaleMatrix(Bitmap bitmap, int width, int height) {
+    Matrix matrix = new Matrix();
+    matrix.setScale(width / (float) bitmap.getWidth(), height / (float) bitmap.getHeight());
+    return matrix;
+  }
+
   /**
    * Crop image bitmap from URI by decoding it with specific width and height to down-sample if
    * required.
    *
+   * @param session the region decoder session of the image to decode the crop region by
    * @param orgWidth used to get rectangle from points (handle edge cases to limit rectangle)
    * @param orgHeight used to get rectangle from points (handle edge cases to limit rectangle)
+   * @param options the resize option of the requested size, resize is done in the rotate pass
    * @param sampleMulti used to increase the sampling of the image to handle memory issues.
    */
   private static BitmapSampled cropBitmap(
       Context context,
       Uri loadedImageUri,
+      RegionDecoderSession session,
       float[] points,
       int degreesRotated,
       int orgWidth,
@@ -468,9 +901,11 @@ final class BitmapUtils {
       int aspectRatioY,
       int reqWidth,
       int reqHeight,
+      CropImageView.RequestSizeOptions options,
       boolean flipHorizontally,
       boolean flipVertically,
-      int sampleMulti) {
+      int sampleMulti,
+      CancellationToken token) {
 
     // get the rectangle in original image that contains the required cropped area (larger for non
     // rectangular crop)
@@ -482,23 +917,42 @@ final class BitmapUtils {
 
     Bitmap result = null;
     int sampleSize = 1;
+    CancellationToken.check(token, "decode");
     try {
       // decode only the required image from URI, optionally sub-sampling if reqWidth/reqHeight is
       // given.
       BitmapSampled bitmapSampled =
-          decodeSampledBitmapRegion(context, loadedImageUri, rect, width, height, sampleMulti);
+          decodeSampledBitmapRegion(session, rect, width, height, sampleMulti);
       result = bitmapSampled.bitmap;
       sampleSize = bitmapSampled.sampleSize;
     } catch (Exception ignored) {
     }
+    CancellationToken.check(token, "rotate", result);
 
     if (result != null) {
       try {
+        // region decoder ignores density scaling, scale to the requested size in the rotate pass,
+        // not for non straight angle as the extra crop is by the region coordinates
+        float scale = 1;
+        if (degreesRotated % 90 == 0) {
+          boolean swap = degreesRotated % 180 != 0;
+          scale =
+              calculateRequestedScale(
+                  swap ? result.getHeight() : result.getWidth(),
+                  swap ? result.getWidth() : result.getHeight(),
+                  reqWidth,
+                  reqHeight,
+                  options);
+        }
+
         // rotate the decoded region by the required amount
-        result = rotateAndFlipBitmapInt(result, degreesRotated, flipHorizontally, flipVertically);
+        result =
+            rotateAndFlipBitmapInt(
+                result, degreesRotated, scale, flipHorizontally, flipVertically);
 
         // rotating by 0, 90, 180 or 270 degrees doesn't require extra cropping
         if (degreesRotated % 90 != 0) {
+          CancellationToken.check(token, "crop", result);
 
           // extra crop because non rectangular crop cannot be done directly on the image without
           // rotating first
@@ -527,14 +981,17 @@ final class BitmapUtils {
           rect,
           width,
           height,
+          options,
           flipHorizontally,
-          flipVertically);
+          flipVertically,
+          token);
     }
   }
 
   /**
    * Crop bitmap by fully loading the original and then cropping it, fallback in case cropping
-   * region failed.
+   * region failed.<br>
+   * For resize request options the image is decoded scaled by density to the resized size.
    */
   private static BitmapSampled cropBitmap(
       Context context,
@@ -548,10 +1005,13 @@ final class BitmapUtils {
       Rect rect,
       int width,
       int height,
+      CropImageView.RequestSizeOptions reqSizeOptions,
       boolean flipHorizontally,
-      boolean flipVertically) {
+      boolean flipVertically,
+      CancellationToken token) {
     Bitmap result = null;
     int sampleSize;
+    ImageSource source = null;
     try {
       BitmapFactory.Options options = new BitmapFactory.Options();
       options.inSampleSize =
@@ -559,16 +1019,33 @@ final class BitmapUtils {
               sampleMulti
                   * calculateInSampleSizeByReqestedSize(rect.width(), rect.height(), width, height);
 
-      Bitmap fullBitmap = decodeImage(context.getContentResolver(), loadedImageUri, options);
+      // the rest of the requested scale not done by the power of 2 sampling
+      boolean swap = degreesRotated % 180 != 0;
+      setDensityScale(
+          options,
+          sampleSize
+              * calculateRequestedScale(
+                  swap ? rect.height() : rect.width(),
+                  swap ? rect.width() : rect.height(),
+                  width,
+                  height,
+                  reqSizeOptions));
+
+      source = ImageSource.open(context, loadedImageUri);
+      Bitmap fullBitmap = decodeImage(source, options, token);
+      // the memory plan or OOM retries may have raised the sampling of the decode
+      sampleSize = options.inSampleSize;
       if (fullBitmap != null) {
         try {
-          // adjust crop points by the sampling because the image is smaller
+          // adjust crop points by the sampling and scaling because the image is smaller
+          float pointsScale = getDensityScale(options) / options.inSampleSize;
           float[] points2 = new float[points.length];
           System.arraycopy(points, 0, points2, 0, points.length);
           for (int i = 0; i < points2.length; i++) {
-            points2[i] = points2[i] / options.inSampleSize;
+            points2[i] = points2[i] * pointsScale;
           }
 
+          CancellationToken.check(token, "crop");
           result =
               cropBitmapObjectWithScale(
                   fullBitmap,
@@ -579,10 +1056,13 @@ final class BitmapUtils {
                   aspectRatioY,
                   1,
                   flipHorizontally,
-                  flipVertically);
+                  flipVertically,
+                  0,
+                  0,
+                  CropImageView.RequestSizeOptions.NONE);
         } finally {
           if (result != fullBitmap) {
-            fullBitmap.recycle();
+            BitmapPool.getInstance().put(fullBitmap);
           }
         }
       }
@@ -591,60 +1071,97 @@ final class BitmapUtils {
         result.recycle();
       }
       throw e;
+    } catch (CancellationException e) {
+      throw e;
     } catch (Exception e) {
       throw new RuntimeException(
           "Failed to load sampled bitmap: " + loadedImageUri + "\r\n" + e.getMessage(), e);
-    }
-    return new BitmapSampled(result, sampleSize);
-  }
-
-  /** Decode image from uri using "inJustDecodeBounds" to get the image dimensions. */
-  private static BitmapFactory.Options decodeImageForOption(ContentResolver resolver, Uri uri)
-      throws FileNotFoundException {
-    InputStream stream = null;
-    try {
-      stream = resolver.openInputStream(uri);
-      BitmapFactory.Options options = new BitmapFactory.Options();
-      options.inJustDecodeBounds = true;
-      BitmapFactory.decodeStream(stream, EMPTY_RECT, options);
-      options.inJustDecodeBounds = false;
-      return options;
     } finally {
-      closeSafe(stream);
+      closeSafe(source);
     }
+    return new BitmapSampled(result, sampleSize);
   }
 
   /**
-   * Decode image from uri using given "inSampleSize", but if failed due to out-of-memory then raise
-   * the inSampleSize until success.
+   * Decode image from image source using given "inSampleSize" raised if required by the memory
+   * budget, but if failed due to out-of-memory then raise the inSampleSize until success.<br>
+   * The first attempt reuses the source open stream, retries re-open the URI.<br>
+   * Large decodes run under the cap of {@link CropScheduler#beginDecode(long)}.<br>
+   * The decode is aborted if the given token is cancelled, the decoded bitmap is not returned.
    */
   private static Bitmap decodeImage(
-      ContentResolver resolver, Uri uri, BitmapFactory.Options options)
-      throws FileNotFoundException {
+      ImageSource source, BitmapFactory.Options options, CancellationToken token)
+      throws IOException {
+    ImageHeaderParser.Header header = source.getHeader();
+    int width = options.outWidth > 0 ? options.outWidth : header != null ? header.width : 0;
+    int height = options.outHeight > 0 ? options.outHeight : header != null ? header.height : 0;
+    if (width > 0 && height > 0) {
+      // raise the sampling before decoding if the bitmap doesn't fit the memory budget
+      options.inSampleSize =
+          CropMemoryPlanner.planDecode(
+                  width,
+                  height,
+                  options.inSampleSize,
+                  getDensityScale(options),
+                  options.inPreferredConfig)
+              .sampleSize;
+    }
+    int imageWidth = width;
+    int imageHeight = height;
+    ImageDecoderSpi<Bitmap> decoder = mImageDecoder;
+    if (decoder != AndroidImageDecoder.INSTANCE) {
+      // other backends don't support pooled bitmaps and density scaling
+      options.inScaled = false;
+      width = height = 0;
+    }
     do {
-      InputStream stream = null;
+      CancellationToken.check(token, "decode");
+      long decodeBytes = beginDecode(imageWidth, imageHeight, options);
       try {
-        stream = resolver.openInputStream(uri);
-        return BitmapFactory.decodeStream(stream, EMPTY_RECT, options);
+        Bitmap bitmap;
+        CancellationToken.startDecode(token, options);
+        if (decoder == AndroidImageDecoder.INSTANCE) {
+          setPooledInBitmap(options, width, height);
+          bitmap = AndroidImageDecoder.INSTANCE.decode(source.openDecodeStream(), options);
+        } else {
+          bitmap = decoder.decode(source.openDecodeStream(), options.inSampleSize);
+        }
+        if (bitmap == null) {
+          BitmapPool.getInstance().put(options.inBitmap);
+        }
+        CancellationToken.endDecode(token, "decode", bitmap);
+        if (bitmap != null && getDensityScale(options) != 1) {
+          // scaled decode sets the target density on the bitmap, restore the default density
+          bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+      } catch (IllegalArgumentException e) {
+        if (options.inBitmap == null) {
+          throw e;
+        }
+        // pooled bitmap cannot be reused for this image, decode into new bitmap
+        BitmapPool.getInstance().put(options.inBitmap);
+        options.inBitmap = null;
+        width = height = 0;
       } catch (OutOfMemoryError e) {
+        BitmapPool.getInstance().put(options.inBitmap);
+        options.inBitmap = null;
         options.inSampleSize *= 2;
       } finally {
-        closeSafe(stream);
+        CropScheduler.endDecode(decodeBytes);
       }
     } while (options.inSampleSize <= 512);
-    throw new RuntimeException("Failed to decode image: " + uri);
+    throw new RuntimeException("Failed to decode image: " + source.getUri());
   }
 
   /**
-   * Decode specific rectangle bitmap from stream using sampling to get bitmap with the requested
-   * limit.
+   * Decode specific rectangle bitmap by the region decoder session using sampling to get bitmap
+   * with the requested limit.
    *
    * @param sampleMulti used to increase the sampling of the image to handle memory issues.
    */
   private static BitmapSampled decodeSampledBitmapRegion(
-      Context context, Uri uri, Rect rect, int reqWidth, int reqHeight, int sampleMulti) {
-    InputStream stream = null;
-    BitmapRegionDecoder decoder = null;
+      RegionDecoderSession session, Rect rect, int reqWidth, int reqHeight, int sampleMulti) {
     try {
       BitmapFactory.Options options = new BitmapFactory.Options();
       options.inSampleSize =
@@ -652,23 +1169,22 @@ final class BitmapUtils {
               * calculateInSampleSizeByReqestedSize(
                   rect.width(), rect.height(), reqWidth, reqHeight);
 
-      stream = context.getContentResolver().openInputStream(uri);
-      decoder = BitmapRegionDecoder.newInstance(stream, false);
       do {
+        long decodeBytes = beginDecode(rect.width(), rect.height(), options);
         try {
-          return new BitmapSampled(decoder.decodeRegion(rect, options), options.inSampleSize);
+          setPooledInBitmap(options, rect.width(), rect.height());
+          return new BitmapSampled(session.decodeRegion(rect, options), options.inSampleSize);
         } catch (OutOfMemoryError e) {
+          BitmapPool.getInstance().put(options.inBitmap);
+          options.inBitmap = null;
           options.inSampleSize *= 2;
+        } finally {
+          CropScheduler.endDecode(decodeBytes);
         }
       } while (options.inSampleSize <= 512);
     } catch (Exception e) {
       throw new RuntimeException(
-          "Failed to load sampled bitmap: " + uri + "\r\n" + e.getMessage(), e);
-    } finally {
-      closeSafe(stream);
-      if (decoder != null) {
-        decoder.recycle();
-      }
+          "Failed to load sampled bitmap: " + session.getUri() + "\r\n" + e.getMessage(), e);
     }
     return new BitmapSampled(null, 1);
   }
@@ -711,10 +1227,8 @@ final class BitmapUtils {
       }
 
       Bitmap bitmapTmp = bitmap;
-      bitmap = Bitmap.createBitmap(bitmap, rect.left, rect.top, rect.width(), rect.height());
-      if (bitmapTmp != bitmap) {
-        bitmapTmp.recycle();
-      }
+      bitmap = createTransformedBitmap(bitmap, rect, null, false);
+      BitmapPool.getInstance().put(bitmapTmp);
     }
     return bitmap;
   }
@@ -723,7 +1237,7 @@ final class BitmapUtils {
    * Calculate the largest inSampleSize value that is a power of 2 and keeps both height and width
    * larger than the requested height and width.
    */
-  private static int calculateInSampleSizeByReqestedSize(
+  static int calculateInSampleSizeByReqestedSize(
       int width, int height, int reqWidth, int reqHeight) {
     int inSampleSize = 1;
     if (height > reqHeight || width > reqWidth) {
@@ -734,18 +1248,85 @@ final class BitmapUtils {
     return inSampleSize;
   }
 
+  /**
+   * Get the size {@link #resizeBitmap} resizes bitmap of the given size to by the given request
+   * size option, the given size if the option doesn't resize.
+   */
+  static int[] getResizedSize(
+      int width,
+      int height,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options) {
+    if (reqWidth > 0 && reqHeight > 0) {
+      if (options == CropImageView.RequestSizeOptions.RESIZE_EXACT) {
+        width = reqWidth;
+        height = reqHeight;
+      } else if (options == CropImageView.RequestSizeOptions.RESIZE_INSIDE
+          || options == CropImageView.RequestSizeOptions.RESIZE_FIT) {
+        float scale = Math.max(width / (float) reqWidth, height / (float) reqHeight);
+        if (scale > 1 || options == CropImageView.RequestSizeOptions.RESIZE_FIT) {
+          width = (int) (width / scale);
+          height = (int) (height / scale);
+        }
+      }
+    }
+    return new int[] {Math.max(1, width), Math.max(1, height)};
+  }
+
+  /**
+   * Calculate the scale of image of the given size to the size the given request size option
+   * resizes it to, so it can be done in the decode or transform pass instead of a separate
+   * resize.<br>
+   * Only down scale, 1 if the option doesn't resize.
+   */
+  static float calculateRequestedScale(
+      int width,
+      int height,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options) {
+    float scale = 1;
+    if (width > 0 && height > 0 && reqWidth > 0 && reqHeight > 0) {
+      if (options == CropImageView.RequestSizeOptions.RESIZE_INSIDE
+          || options == CropImageView.RequestSizeOptions.RESIZE_FIT) {
+        scale = Math.min(reqWidth / (float) width, reqHeight / (float) height);
+      } else if (options == CropImageView.RequestSizeOptions.RESIZE_EXACT) {
+        // keep both sides not smaller than requested, the resize adjusts the other side
+        scale = Math.max(reqWidth / (float) width, reqHeight / (float) height);
+      }
+    }
+    return Math.min(1, scale);
+  }
+
+  /**
+   * Set "inDensity" and "inTargetDensity" of the given decode options to scale the sampled image by
+   * the given scale in the same decode pass, ignored if not down scaling.
+   */
+  private static void setDensityScale(BitmapFactory.Options options, float scale) {
+    if (scale < 0.99f) {
+      options.inScaled = true;
+      options.inDensity = DENSITY_SCALE_PRECISION;
+      options.inTargetDensity = Math.max(1, Math.round(scale * DENSITY_SCALE_PRECISION));
+    }
+  }
+
+  /** Get the density scale set on the given decode options, 1 if not scaling. */
+  private static float getDensityScale(BitmapFactory.Options options) {
+    return options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0
+        ? options.inTargetDensity / (float) options.inDensity
+        : 1;
+  }
+
   /**
    * Calculate the largest inSampleSize value that is a power of 2 and keeps both height and width
    * smaller than max texture size allowed for the device.
    */
   private static int calculateInSampleSizeByMaxTextureSize(int width, int height) {
     int inSampleSize = 1;
-    if (mMaxTextureSize == 0) {
-      mMaxTextureSize = getMaxTextureSize();
-    }
-    if (mMaxTextureSize > 0) {
-      while ((height / inSampleSize) > mMaxTextureSize
-          || (width / inSampleSize) > mMaxTextureSize) {
+    int maxTextureSize = MaxTextureSizeProbe.get();
+    if (maxTextureSize > 0) {
+      while ((height / inSampleSize) > maxTextureSize || (width / inSampleSize) > maxTextureSize) {
         inSampleSize *= 2;
       }
     }
@@ -753,20 +1334,27 @@ final class BitmapUtils {
   }
 
   /**
-   * Rotate the given bitmap by the given degrees.<br>
-   * New bitmap is created and the old one is recycled.
+   * Rotate and scale the given bitmap by the given degrees and scale.<br>
+   * New bitmap is taken from the bitmap pool and the old one is returned to the pool.<br>
+   * Rotation by 90 or 270 degrees without scale is done by {@link TransposeKernel}.
    */
   private static Bitmap rotateAndFlipBitmapInt(
-      Bitmap bitmap, int degrees, boolean flipHorizontally, boolean flipVertically) {
-    if (degrees > 0 || flipHorizontally || flipVertically) {
+      Bitmap bitmap, int degrees, float scale, boolean flipHorizontally, boolean flipVertically) {
+    if (degrees > 0 || scale != 1 || flipHorizontally || flipVertically) {
+      Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+      Bitmap transposed =
+          scale == 1
+              ? TransposeKernel.rotate(bitmap, rect, degrees, flipHorizontally, flipVertically)
+              : null;
+      if (transposed != null) {
+        BitmapPool.getInstance().put(bitmap);
+        return transposed;
+      }
       Matrix matrix = new Matrix();
       matrix.setRotate(degrees);
-      matrix.postScale(flipHorizontally ? -1 : 1, flipVertically ? -1 : 1);
-      Bitmap newBitmap =
-          Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, false);
-      if (newBitmap != bitmap) {
-        bitmap.recycle();
-      }
+      matrix.postScale(flipHorizontally ? -scale : scale, flipVertically ? -scale : scale);
+      Bitmap newBitmap = createTransformedBitmap(bitmap, rect, matrix, scale != 1);
+      BitmapPool.getInstance().put(bitmap);
       return newBitmap;
     } else {
       return bitmap;
@@ -774,52 +1362,85 @@ final class BitmapUtils {
   }
 
   /**
-   * Get the max size of bitmap allowed to be rendered on the device.<br>
-   * http://stackoverflow.com/questions/7428996/hw-accelerated-activity-how-to-get-opengl-texture-size-limit.
+   * Same as {@link Bitmap#createBitmap(Bitmap, int, int, int, int, Matrix, boolean)} but the new
+   * bitmap is taken from the bitmap pool if possible, and never returns the source bitmap.
+   *
+   * @param rect the rectangle in the source bitmap to draw
+   * @param matrix optional transformation to apply to the rectangle
    */
-  private static int getMaxTextureSize() {
-    // Safe minimum default size
-    final int IMAGE_MAX_BITMAP_DIMENSION = 2048;
-
-    try {
-      // Get EGL Display
-      EGL10 egl = (EGL10) EGLContext.getEGL();
-      EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
-
-      // Initialise
-      int[] version = new int[2];
-      egl.eglInitialize(display, version);
-
-      // Query total number of configurations
-      int[] totalConfigurations = new int[1];
-      egl.eglGetConfigs(display, null, 0, totalConfigurations);
-
-      // Query actual list configurations
-      EGLConfig[] configurationsList = new EGLConfig[totalConfigurations[0]];
-      egl.eglGetConfigs(display, configurationsList, totalConfigurations[0], totalConfigurations);
-
-      int[] textureSize = new int[1];
-      int maximumTextureSize = 0;
-
-      // Iterate through all the configurations to located the maximum texture size
-      for (int i = 0; i < totalConfigurations[0]; i++) {
-        // Only need to check for width since opengl textures are always squared
-        egl.eglGetConfigAttrib(
-            display, configurationsList[i], EGL10.EGL_MAX_PBUFFER_WIDTH, textureSize);
-
-        // Keep track of the maximum texture size
-        if (maximumTextureSize < textureSize[0]) {
-          maximumTextureSize = textureSize[0];
-        }
+  private static Bitmap createTransformedBitmap(
+      Bitmap source, Rect rect, Matrix matrix, boolean filter) {
+    RectF dstRect = new RectF(0, 0, rect.width(), rect.height());
+    Bitmap.Config config =
+        source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+    Paint paint = null;
+    int width = rect.width();
+    int height = rect.height();
+    boolean transformed = false;
+    RectF deviceRect = new RectF(dstRect);
+    if (matrix != null && !matrix.isIdentity()) {
+      transformed = !matrix.rectStaysRect();
+      matrix.mapRect(deviceRect, dstRect);
+      width = Math.round(deviceRect.width());
+      height = Math.round(deviceRect.height());
+      if (transformed) {
+        config = Bitmap.Config.ARGB_8888;
       }
+      paint = new Paint();
+      paint.setFilterBitmap(filter);
+      paint.setAntiAlias(transformed);
+    }
 
-      // Release
-      egl.eglTerminate(display);
+    Bitmap bitmap = BitmapPool.getInstance().getOrCreate(width, height, config);
+    bitmap.setDensity(source.getDensity());
+    bitmap.setHasAlpha(transformed || source.hasAlpha());
 
-      // Return largest texture size found, or default
-      return Math.max(maximumTextureSize, IMAGE_MAX_BITMAP_DIMENSION);
-    } catch (Exception e) {
-      return IMAGE_MAX_BITMAP_DIMENSION;
+    Canvas canvas = new Canvas(bitmap);
+    if (paint != null) {
+      canvas.translate(-deviceRect.left, -deviceRect.top);
+      canvas.concat(matrix);
+    }
+    canvas.drawBitmap(source, rect, dstRect, paint);
+    return bitmap;
+  }
+
+  /**
+   * Same as {@link Bitmap#createScaledBitmap(Bitmap, int, int, boolean)} without filtering but the
+   * new bitmap is taken from the bitmap pool if possible.
+   */
+  private static Bitmap createScaledBitmap(Bitmap source, int width, int height) {
+    if (source.getWidth() == width && source.getHeight() == height) {
+      return source;
+    }
+    Matrix matrix = new Matrix();
+    matrix.setScale(width / (float) source.getWidth(), height / (float) source.getHeight());
+    return createTransformedBitmap(
+        source, new Rect(0, 0, source.getWidth(), source.getHeight()), matrix, false);
+  }
+
+  /**
+   * Set pooled bitmap as "inBitmap" of the given decode options to decode into, if the pool has a
+   * bitmap that fits the sampled size of the given image size.<br>
+   * Mutable bitmap is decoded so it can be returned to the pool.
+   */
+  static void setPooledInBitmap(BitmapFactory.Options options, int width, int height) {
+    if (options.inBitmap == null
+        && width > 0
+        && height > 0
+        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+        && (Build.VERSION.SDK_INT < Build.VERSION_CODES.O
+            || options.inPreferredConfig != Bitmap.Config.HARDWARE)) {
+      int sampleSize = Math.max(1, options.inSampleSize);
+      float scale = getDensityScale(options);
+      options.inMutable = true;
+      options.inBitmap =
+          BitmapPool.getInstance()
+              .getDirty(
+                  (int) Math.ceil((width + sampleSize - 1) / sampleSize * scale),
+                  (int) Math.ceil((height + sampleSize - 1) / sampleSize * scale),
+                  options.inPreferredConfig != null
+                      ? options.inPreferredConfig
+                      : Bitmap.Config.ARGB_8888);
     }
   }
 
@@ -829,7 +1450,7 @@ final class BitmapUtils {
    *
    * @param closeable the closable object to close
    */
-  private static void closeSafe(Closeable closeable) {
+  static void closeSafe(Closeable closeable) {
     if (closeable != null) {
       try {
         closeable.close();
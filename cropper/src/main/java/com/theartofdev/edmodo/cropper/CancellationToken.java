@@ -0,0 +1,148 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation of a load or crop operation in progress.<br>
+ * The operation checks the token between its stages (decode, rotate, crop, resize, encode) and
+ * stops by {@link CancellationException}, releasing its intermediate bitmaps right away. A decode
+ * in progress is aborted by {@link BitmapFactory.Options#requestCancelDecode()} (no-op on API
+ * 24+).<br>
+ * Static counters show the work saved by cancellation over all tokens: the operations stopped,
+ * the decodes aborted and the bytes of intermediates released early.
+ */
+final class CancellationToken {
+
+  // region: Fields and Consts
+
+  /** The number of operations stopped by cancellation */
+  private static int mStoppedCount;
+
+  /** The number of decodes in progress aborted by cancellation */
+  private static int mAbortedDecodeCount;
+
+  /** The bytes of intermediate bitmaps released when the operation was cancelled */
+  private static long mReleasedBytes;
+
+  /** if the operation was cancelled */
+  private volatile boolean mCancelled;
+
+  /** The options of the decode in progress, to abort on cancel */
+  private BitmapFactory.Options mDecodeOptions;
+  // endregion
+
+  /** Cancel the operation, aborting the decode in progress if any. */
+  void cancel() {
+    mCancelled = true;
+    synchronized (this) {
+      if (mDecodeOptions != null) {
+        mDecodeOptions.requestCancelDecode();
+      }
+    }
+  }
+
+  /** if the operation was cancelled. */
+  boolean isCancelled() {
+    return mCancelled;
+  }
+
+  /**
+   * Stop the operation of the given token before the given stage if the token was cancelled.
+   *
+   * @param token the token of the operation, null if not cancellable
+   * @param stage the stage about to start, for the exception message
+   * @throws CancellationException if the token was cancelled
+   */
+  static void check(CancellationToken token, String stage) {
+    if (token != null && token.mCancelled) {
+      onStopped(false, null);
+      throw new CancellationException("Cancelled before " + stage);
+    }
+  }
+
+  /**
+   * Same as {@link #check(CancellationToken, String)} but returns the given intermediate bitmap to
+   * the pool before stopping the operation.
+   */
+  static void check(CancellationToken token, String stage, Bitmap intermediate) {
+    if (token != null && token.mCancelled) {
+      onStopped(false, intermediate);
+      throw new CancellationException("Cancelled before " + stage);
+    }
+  }
+
+  /** Register the options of a decode starting, aborted right away if already cancelled. */
+  static void startDecode(CancellationToken token, BitmapFactory.Options options) {
+    if (token != null) {
+      synchronized (token) {
+        token.mDecodeOptions = options;
+        if (token.mCancelled) {
+          options.requestCancelDecode();
+        }
+      }
+    }
+  }
+
+  /**
+   * Unregister the options of the decode that ended, stop the operation if it was cancelled during
+   * the decode, returning the decoded bitmap (if not aborted) to the pool.
+   */
+  static void endDecode(CancellationToken token, String stage, Bitmap decoded) {
+    if (token != null) {
+      synchronized (token) {
+        token.mDecodeOptions = null;
+      }
+      if (token.mCancelled) {
+        onStopped(decoded == null, decoded);
+        throw new CancellationException("Cancelled during " + stage);
+      }
+    }
+  }
+
+  /** The number of operations stopped by cancellation. */
+  static synchronized int getStoppedCount() {
+    return mStoppedCount;
+  }
+
+  /** The number of decodes in progress aborted by cancellation. */
+  static synchronized int getAbortedDecodeCount() {
+    return mAbortedDecodeCount;
+  }
+
+  /** The bytes of intermediate bitmaps released when the operation was cancelled. */
+  static synchronized long getReleasedBytes() {
+    return mReleasedBytes;
+  }
+
+  // region: Private methods
+
+  /** Count operation stopped by cancellation and return its intermediate bitmap to the pool. */
+  private static void onStopped(boolean decodeAborted, Bitmap intermediate) {
+    long bytes = 0;
+    if (intermediate != null && !intermediate.isRecycled()) {
+      bytes = (long) intermediate.getRowBytes() * intermediate.getHeight();
+      BitmapPool.getInstance().put(intermediate);
+    }
+    synchronized (CancellationToken.class) {
+      mStoppedCount++;
+      mAbortedDecodeCount += decodeAborted ? 1 : 0;
+      mReleasedBytes += bytes;
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,391 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Batch of crops running concurrently on the library crop threads, started by {@link
+ * CropEngine#cropBatch(Context, List, Listener)}.<br>
+ * Each crop is submitted to the crop lane on its own, below the priority of the crop of the view
+ * shown to the user, and one crop thread is left to the view. Before a crop runs its peak memory is
+ * estimated from its crop rectangle and requested size and it waits until the estimate fits the
+ * memory budget, so running many crops at once doesn't exhaust the heap.<br>
+ * The results are delivered on the main thread as they complete, a bitmap result should be
+ * released by the listener once used.
+ */
+public final class CropBatch {
+
+  // region: Fields and Consts
+
+  /** The application context to load and save the images with */
+  private final Context mContext;
+
+  /** The requests of the batch crops */
+  private final List<CropEngine.Request> mRequests;
+
+  /** The listener of the batch results */
+  private final Listener mListener;
+
+  /** Used to deliver the results on the main thread */
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  /** The tokens of the crops running, cancelled when the batch is cancelled */
+  private final Set<CancellationToken> mRunning = new HashSet<>();
+
+  /** The index of the next request to crop */
+  private int mNext;
+
+  /** The number of crops completed successfully */
+  private int mCompleted;
+
+  /** The number of crops failed */
+  private int mFailed;
+
+  /** The source pixels of the crop rectangles of the completed crops */
+  private long mPixels;
+
+  /** The uptime the batch started at */
+  private final long mStartTime;
+
+  /** The uptime the last crop of the batch completed at, 0 until complete */
+  private long mEndTime;
+
+  /** if the batch was cancelled */
+  private volatile boolean mCancelled;
+  // endregion
+
+  CropBatch(Context context, List<CropEngine.Request> requests, Listener listener) {
+    mContext = context.getApplicationContext();
+    mRequests = new ArrayList<>(requests);
+    mListener = listener;
+    mStartTime = SystemClock.uptimeMillis();
+  }
+
+  /**
+   * Cancel the batch: the crops not started are not run, the crops running are stopped and no
+   * further results are delivered.<br>
+   * The crops not completed are counted as failed and the batch completes right away, {@link
+   * Listener#onBatchComplete(CropBatch, Stats)} is called if the batch was not complete already.
+   */
+  public void cancel() {
+    synchronized (this) {
+      if (mCancelled) {
+        return;
+      }
+      mCancelled = true;
+      for (CancellationToken token : mRunning) {
+        token.cancel();
+      }
+      if (mEndTime > 0) {
+        // already complete, its completion is delivered
+        return;
+      }
+      mNext = mRequests.size();
+      mFailed = mRequests.size() - mCompleted;
+      mEndTime = SystemClock.uptimeMillis();
+    }
+    // the running crops waiting for admission fail on their cancelled token
+    CropMemoryPlanner.wakeWaiters();
+    deliver(null, null, true);
+  }
+
+  /** if the batch was cancelled */
+  public boolean isCancelled() {
+    return mCancelled;
+  }
+
+  /** Get the stats of the batch so far. */
+  public synchronized Stats getStats() {
+    long end = mEndTime > 0 ? mEndTime : SystemClock.uptimeMillis();
+    return new Stats(mRequests.size(), mCompleted, mFailed, mPixels, end - mStartTime);
+  }
+
+  /** Start the batch crops, one crop per crop thread except the one left to the view. */
+  void start() {
+    if (mRequests.isEmpty()) {
+      synchronized (this) {
+        mEndTime = mStartTime;
+      }
+      deliver(null, null, true);
+      return;
+    }
+    int cropThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    for (int i = 0; i < Math.min(cropThreads, mRequests.size()); i++) {
+      submitNext();
+    }
+  }
+
+  // region: Private methods
+
+  /** Submit crop of the next request to the crop lane, each crop is a separate lane job. */
+  private void submitNext() {
+    Executor executor =
+        CropScheduler.getExecutor(CropScheduler.Lane.CPU, CropScheduler.PRIORITY_BATCH);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (cropNext()) {
+              submitNext();
+            }
+          }
+        });
+  }
+
+  /**
+   * Crop the next request of the batch: resolve its image size, wait for admission of its
+   * estimated peak memory, crop it and deliver the result.
+   *
+   * @return true if there are more requests to crop
+   */
+  private boolean cropNext() {
+    int index;
+    CancellationToken token = new CancellationToken();
+    synchronized (this) {
+      if (mCancelled || mNext >= mRequests.size()) {
+        return false;
+      }
+      index = mNext++;
+      mRunning.add(token);
+    }
+
+    CropEngine.Request request = mRequests.get(index);
+    BitmapCroppingWorkerTask.Result result = null;
+    long pixels = 0;
+    boolean more;
+    try {
+      request = CropEngine.resolve(mContext, request);
+      Rect rect =
+          BitmapUtils.getRectFromPoints(
+              request.cropPoints,
+              request.orgWidth,
+              request.orgHeight,
+              request.fixAspectRatio,
+              request.aspectRatioX,
+              request.aspectRatioY);
+      pixels = (long) rect.width() * rect.height();
+      long bytes = CropMemoryPlanner.admit(getEstimatedBytes(request, rect), token);
+      try {
+        result = CropEngine.run(mContext, request, null, token);
+      } finally {
+        CropMemoryPlanner.release(bytes);
+      }
+    } catch (Exception e) {
+      result = new BitmapCroppingWorkerTask.Result(e, request.isSave());
+    } catch (OutOfMemoryError e) {
+      result =
+          new BitmapCroppingWorkerTask.Result(
+              new RuntimeException("Failed to crop image, out of memory", e), request.isSave());
+    } finally {
+      more = complete(token, request, result, pixels);
+    }
+    return more;
+  }
+
+  /**
+   * Count the completed crop of the given request and deliver its result.<br>
+   * Crop completed after the batch was cancelled is not counted, cancel counted it as failed.
+   *
+   * @param result the result of the crop, null if it failed with an error that was not caught
+   * @return true if there are more requests to crop
+   */
+  private boolean complete(
+      CancellationToken token,
+      CropEngine.Request request,
+      BitmapCroppingWorkerTask.Result result,
+      long pixels) {
+    if (result == null) {
+      result =
+          new BitmapCroppingWorkerTask.Result(
+              new RuntimeException("Failed to crop image"), request.isSave());
+    }
+    boolean last = false;
+    boolean more = false;
+    synchronized (this) {
+      mRunning.remove(token);
+      if (!mCancelled) {
+        if (result.error == null) {
+          mCompleted++;
+          mPixels += pixels;
+        } else {
+          mFailed++;
+        }
+        last = mCompleted + mFailed == mRequests.size();
+        if (last) {
+          mEndTime = SystemClock.uptimeMillis();
+        }
+        more = mNext < mRequests.size();
+      }
+    }
+    deliver(request, result, last);
+    return more;
+  }
+
+  /**
+   * Estimate the peak memory of crop of the given resolved request, cropped from URI by region
+   * decode or from bitmap in memory.
+   */
+  private static long getEstimatedBytes(CropEngine.Request request, Rect rect) {
+    int reqWidth = request.reqWidth;
+    int reqHeight = request.reqHeight;
+    CropImageView.RequestSizeOptions options = request.options;
+    if (request.outputSpecs != null) {
+      int[] size = CropOutputSpec.getMaxRequestedSize(request.outputSpecs);
+      reqWidth = size[0];
+      reqHeight = size[1];
+      options = CropImageView.RequestSizeOptions.RESIZE_INSIDE;
+    }
+    return CropMemoryPlanner.estimateCropBytes(
+        rect.width(),
+        rect.height(),
+        request.degreesRotated,
+        request.uri != null,
+        reqWidth,
+        reqHeight,
+        options);
+  }
+
+  /**
+   * Deliver the result of the given crop and, if the last, the batch complete on the main thread.
+   * <br>
+   * The result of a cancelled batch is released instead, the batch complete is still delivered.
+   *
+   * @param request the crop request, null if there is no crop result to deliver
+   */
+  private void deliver(
+      final CropEngine.Request request,
+      final BitmapCroppingWorkerTask.Result result,
+      final boolean last) {
+    mHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (mCancelled) {
+              if (result != null) {
+                BitmapCroppingWorkerTask.releaseBitmaps(result);
+              }
+            } else if (request != null) {
+              mListener.onCropComplete(request, CropEngine.getCropResult(request, result));
+            }
+            if (last) {
+              mListener.onBatchComplete(CropBatch.this, getStats());
+            }
+          }
+        });
+  }
+  // endregion
+
+  // region: Inner class: Listener
+
+  /** Interface definition for callbacks of batch crop, invoked on the main thread. */
+  public interface Listener extends CropEngine.OnCropCompleteListener {
+
+    /**
+     * Called when all the crops of the batch are complete, after the last crop result.
+     *
+     * @param batch the complete batch
+     * @param stats the throughput stats of the batch
+     */
+    void onBatchComplete(CropBatch batch, Stats stats);
+  }
+  // endregion
+
+  // region: Inner class: Stats
+
+  /** The throughput stats of a batch crop. */
+  public static final class Stats {
+
+    /** The number of crops in the batch */
+    private final int mTotalCount;
+
+    /** The number of crops completed successfully */
+    private final int mCompletedCount;
+
+    /** The number of crops failed */
+    private final int mFailedCount;
+
+    /** The source pixels of the crop rectangles of the completed crops */
+    private final long mPixels;
+
+    /** The time since the batch started, until it completed if complete */
+    private final long mElapsedMillis;
+
+    Stats(int totalCount, int completedCount, int failedCount, long pixels, long elapsedMillis) {
+      mTotalCount = totalCount;
+      mCompletedCount = completedCount;
+      mFailedCount = failedCount;
+      mPixels = pixels;
+      mElapsedMillis = elapsedMillis;
+    }
+
+    /** The number of crops in the batch */
+    public int getTotalCount() {
+      return mTotalCount;
+    }
+
+    /** The number of crops completed successfully */
+    public int getCompletedCount() {
+      return mCompletedCount;
+    }
+
+    /** The number of crops failed, including the crops stopped by cancel */
+    public int getFailedCount() {
+      return mFailedCount;
+    }
+
+    /** The time since the batch started, until it completed if complete */
+    public long getElapsedMillis() {
+      return mElapsedMillis;
+    }
+
+    /** The completed crops per second */
+    public double getImagesPerSecond() {
+      return mElapsedMillis > 0 ? mCompletedCount * 1000.0 / mElapsedMillis : 0;
+    }
+
+    /** The megapixels of source crop rectangles cropped per second */
+    public double getMegapixelsPerSecond() {
+      return mElapsedMillis > 0 ? mPixels / 1000.0 / mElapsedMillis : 0;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{"
+          + "total="
+          + mTotalCount
+          + ", completed="
+          + mCompletedCount
+          + ", failed="
+          + mFailedCount
+          + ", elapsedMillis="
+          + mElapsedMillis
+          + ", imagesPerSecond="
+          + getImagesPerSecond()
+          + ", megapixelsPerSecond="
+          + getMegapixelsPerSecond()
+          + '}';
+    }
+  }
+  // endregion
+}
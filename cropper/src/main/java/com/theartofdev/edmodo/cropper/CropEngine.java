@@ -0,0 +1,770 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Crop images without a crop image view, e.g. to re-apply a saved crop to the full resolution
+ * original in a background service.<br>
+ * The crop is described by an immutable {@link Request} in the coordinates of the source image and
+ * runs the same pipeline as the crop image view: banded crop of huge saves, region decode, pixel
+ * engine and renditions.<br>
+ * Use {@link #crop(Context, Request)} to crop on the calling thread, {@link #cropAsync(Context,
+ * Request, OnCropCompleteListener)} to crop on the library crop threads or {@link
+ * #cropBatch(Context, List, CropBatch.Listener)} to crop many images concurrently.
+ */
+public final class CropEngine {
+
+  /** If the library setup of {@link #init(Context)} was done */
+  private static volatile boolean mInitialized;
+
+  private CropEngine() {}
+
+  /**
+   * Setup the library once per process: trim of the bitmap pool on low memory, the memory class of
+   * the crop memory planner and the max texture size probe.<br>
+   * Called by the crop image view and by the crop engine entry points, so crops without a view have
+   * the same setup.
+   */
+  static void init(@NonNull Context context) {
+    if (!mInitialized) {
+      synchronized (CropEngine.class) {
+        if (!mInitialized) {
+          BitmapPool.getInstance().registerTrimCallbacks(context);
+          CropMemoryPlanner.init(context);
+          MaxTextureSizeProbe.init(context);
+          mInitialized = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Crop the image of the given request on the calling thread, must not be called on the main
+   * thread.<br>
+   * Errors are returned in the result, see {@link CropImageView.CropResult#getError()}.
+   */
+  @NonNull
+  public static CropImageView.CropResult crop(@NonNull Context context, @NonNull Request request) {
+    init(context);
+    try {
+      request = resolve(context, request);
+    } catch (Exception e) {
+      return getCropResult(request, new BitmapCroppingWorkerTask.Result(e, request.isSave()));
+    }
+    return getCropResult(request, run(context, request, null, null));
+  }
+
+  /**
+   * Crop the image of the given request on the library crop threads, the listener is called on the
+   * main thread when the crop is complete.
+   */
+  public static void cropAsync(
+      @NonNull Context context,
+      @NonNull final Request request,
+      @NonNull final OnCropCompleteListener listener) {
+    init(context);
+    final Context appContext = context.getApplicationContext();
+    final Handler handler = new Handler(Looper.getMainLooper());
+    CropScheduler.getExecutor(CropScheduler.Lane.CPU, CropScheduler.PRIORITY_VISIBLE)
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                final CropImageView.CropResult result = crop(appContext, request);
+                handler.post(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        listener.onCropComplete(request, result);
+                      }
+                    });
+              }
+            });
+  }
+
+  /**
+   * Crop the images of the given requests concurrently on the library crop threads, each crop is
+   * admitted to run only when its estimated peak memory fits the memory budget.<br>
+   * The listener is called on the main thread as each crop completes, in completion order, and
+   * when the batch is complete with its throughput stats.
+   *
+   * @return the batch to cancel it or get its stats while it runs
+   */
+  @NonNull
+  public static CropBatch cropBatch(
+      @NonNull Context context,
+      @NonNull List<Request> requests,
+      @NonNull CropBatch.Listener listener) {
+    init(context);
+    CropBatch batch = new CropBatch(context, requests, listener);
+    batch.start();
+    return batch;
+  }
+
+  /**
+   * Run the crop pipeline of the given request, its image size and crop points must be resolved.
+   *
+   * @param session acquired region decoder session of the source URI, null to open the source
+   * @param token stops the crop between its stages, may be null
+   * @return the result of the crop, errors are returned in the result
+   */
+  static BitmapCroppingWorkerTask.Result run(
+      Context context, Request request, RegionDecoderSession session, CancellationToken token) {
+    try {
+      int reqWidth = request.reqWidth;
+      int reqHeight = request.reqHeight;
+      CropImageView.RequestSizeOptions options = request.options;
+      if (request.outputSpecs != null) {
+        // crop once at the size of the largest rendition, the renditions are scaled from it
+        int[] size = CropOutputSpec.getMaxRequestedSize(request.outputSpecs);
+        reqWidth = size[0];
+        reqHeight = size[1];
+        options =
+            size[0] > 0
+                ? CropImageView.RequestSizeOptions.RESIZE_INSIDE
+                : CropImageView.RequestSizeOptions.NONE;
+      }
+
+      if (request.uri != null && request.saveUri != null) {
+        // crop huge image to save in bands if the regular crop doesn't fit the memory
+        BitmapUtils.BitmapSampled banded =
+            BandedCropper.crop(
+                context,
+                request.uri,
+                session,
+                request.cropPoints,
+                request.degreesRotated,
+                request.orgWidth,
+                request.orgHeight,
+                request.fixAspectRatio,
+                request.aspectRatioX,
+                request.aspectRatioY,
+                reqWidth,
+                reqHeight,
+                options,
+                request.flipHorizontally,
+                request.flipVertically,
+                token);
+        if (banded != null) {
+          CancellationToken.check(token, "encode", banded.bitmap);
+          BitmapUtils.writeBitmapToUri(
+              context,
+              banded.bitmap,
+              request.saveUri,
+              request.saveCompressFormat,
+              request.saveCompressQuality);
+          BitmapPool.getInstance().put(banded.bitmap);
+          return new BitmapCroppingWorkerTask.Result(request.saveUri, banded.sampleSize);
+        }
+      }
+
+      BitmapUtils.BitmapSampled bitmapSampled;
+      if (request.uri != null) {
+        bitmapSampled =
+            BitmapUtils.cropBitmap(
+                context,
+                request.uri,
+                session,
+                request.cropPoints,
+                request.degreesRotated,
+                request.orgWidth,
+                request.orgHeight,
+                request.fixAspectRatio,
+                request.aspectRatioX,
+                request.aspectRatioY,
+                reqWidth,
+                reqHeight,
+                options,
+                request.flipHorizontally,
+                request.flipVertically,
+                token);
+      } else {
+        bitmapSampled =
+            PixelKernelEngine.isEnabled()
+                ? PixelKernelEngine.crop(
+                    request.bitmap,
+                    request.cropPoints,
+                    request.degreesRotated,
+                    request.fixAspectRatio,
+                    request.aspectRatioX,
+                    request.aspectRatioY,
+                    request.flipHorizontally,
+                    request.flipVertically,
+                    reqWidth,
+                    reqHeight,
+                    options,
+                    token)
+                : null;
+        if (bitmapSampled == null) {
+          bitmapSampled =
+              BitmapUtils.cropBitmapObjectHandleOOM(
+                  request.bitmap,
+                  request.cropPoints,
+                  request.degreesRotated,
+                  request.fixAspectRatio,
+                  request.aspectRatioX,
+                  request.aspectRatioY,
+                  request.flipHorizontally,
+                  request.flipVertically,
+                  reqWidth,
+                  reqHeight,
+                  options,
+                  token);
+        }
+      }
+
+      // crop of bitmap object is resized in the same draw
+      Bitmap bitmap = bitmapSampled.bitmap;
+      if (request.uri != null) {
+        CancellationToken.check(token, "resize", bitmap);
+        Bitmap resized =
+            PixelKernelEngine.isEnabled()
+                ? PixelKernelEngine.resize(bitmap, reqWidth, reqHeight, options, token)
+                : null;
+        bitmap =
+            resized != null
+                ? resized
+                : BitmapUtils.resizeBitmap(bitmap, reqWidth, reqHeight, options);
+      }
+
+      if (request.outputSpecs != null) {
+        return writeRenditions(
+            context, request.outputSpecs, bitmap, bitmapSampled.sampleSize, token);
+      } else if (request.saveUri == null) {
+        return new BitmapCroppingWorkerTask.Result(bitmap, bitmapSampled.sampleSize);
+      } else {
+        CancellationToken.check(token, "encode", bitmap);
+        BitmapUtils.writeBitmapToUri(
+            context,
+            bitmap,
+            request.saveUri,
+            request.saveCompressFormat,
+            request.saveCompressQuality);
+        BitmapPool.getInstance().put(bitmap);
+        return new BitmapCroppingWorkerTask.Result(request.saveUri, bitmapSampled.sampleSize);
+      }
+    } catch (Exception e) {
+      return new BitmapCroppingWorkerTask.Result(e, request.isSave());
+    } catch (OutOfMemoryError e) {
+      // the OOM retries of the pipeline gave up, fail this crop instead of the calling thread
+      return new BitmapCroppingWorkerTask.Result(
+          new RuntimeException("Failed to crop image, out of memory", e), request.isSave());
+    }
+  }
+
+  /**
+   * Resolve the source image size and the default crop points (whole image) of the given request.
+   */
+  static Request resolve(Context context, Request request) throws IOException {
+    if (request.orgWidth > 0 && request.cropPoints != null) {
+      return request;
+    }
+    Request.Builder builder = new Request.Builder(request);
+    if (request.orgWidth < 1) {
+      if (request.uri != null) {
+        ImageMetadataCache.Entry metadata = getMetadata(context, request.uri);
+        builder.setImageSize(metadata.width, metadata.height);
+      } else {
+        builder.setImageSize(request.bitmap.getWidth(), request.bitmap.getHeight());
+      }
+    }
+    Request resolved = builder.build();
+    if (resolved.cropPoints == null) {
+      builder.setCropRect(new Rect(0, 0, resolved.orgWidth, resolved.orgHeight));
+      resolved = builder.build();
+    }
+    return resolved;
+  }
+
+  /** Create the crop result of the given resolved request and the result of its crop. */
+  static CropImageView.CropResult getCropResult(
+      Request request, BitmapCroppingWorkerTask.Result result) {
+    Rect cropRect = null;
+    Rect wholeImageRect = null;
+    if (request.orgWidth > 0 && request.cropPoints != null) {
+      cropRect =
+          BitmapUtils.getRectFromPoints(
+              request.cropPoints,
+              request.orgWidth,
+              request.orgHeight,
+              request.fixAspectRatio,
+              request.aspectRatioX,
+              request.aspectRatioY);
+      wholeImageRect = new Rect(0, 0, request.orgWidth, request.orgHeight);
+    }
+    return new CropImageView.CropResult(
+        request.bitmap,
+        request.uri,
+        result.bitmap,
+        result.uri,
+        result.error,
+        request.cropPoints,
+        cropRect,
+        wholeImageRect,
+        request.degreesRotated,
+        result.sampleSize,
+        result.renditions);
+  }
+
+  // region: Private methods
+
+  /** Get the metadata of the image of the given URI, from the metadata cache or by probing it. */
+  private static ImageMetadataCache.Entry getMetadata(Context context, Uri uri)
+      throws IOException {
+    ImageSource.Version version = ImageSource.getVersion(context, uri);
+    ImageMetadataCache cache = ImageMetadataCache.getInstance(context);
+    ImageMetadataCache.Entry metadata = cache.get(uri, version);
+    if (metadata == null) {
+      ImageSource source = ImageSource.open(context, uri);
+      try {
+        metadata = BitmapUtils.probeMetadata(source);
+      } finally {
+        BitmapUtils.closeSafe(source);
+      }
+      cache.put(uri, version, metadata);
+    }
+    return metadata;
+  }
+
+  /**
+   * Produce the renditions of the given output specs from the given crop, from the largest to the
+   * smallest.<br>
+   * Each rendition is scaled from the smallest rendition already produced that is not smaller and
+   * keeps the crop aspect ratio, so the crop is decoded once and every rendition is a short
+   * downscale. The crop and the saved renditions are returned to the bitmap pool.
+   */
+  private static BitmapCroppingWorkerTask.Result writeRenditions(
+      Context context,
+      List<CropOutputSpec> outputSpecs,
+      Bitmap crop,
+      int sampleSize,
+      CancellationToken token)
+      throws FileNotFoundException {
+    final int count = outputSpecs.size();
+    final long[] areas = new long[count];
+    int[][] sizes = new int[count][];
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      CropOutputSpec spec = outputSpecs.get(i);
+      sizes[i] =
+          BitmapUtils.getResizedSize(
+              crop.getWidth(),
+              crop.getHeight(),
+              spec.getReqWidth(),
+              spec.getReqHeight(),
+              spec.getOptions());
+      areas[i] = (long) sizes[i][0] * sizes[i][1];
+      order[i] = i;
+    }
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer lhs, Integer rhs) {
+            return areas[rhs] < areas[lhs] ? -1 : areas[rhs] > areas[lhs] ? 1 : 0;
+          }
+        });
+
+    Bitmap[] bitmaps = new Bitmap[count];
+    boolean success = false;
+    try {
+      for (int index : order) {
+        CancellationToken.check(token, "rendition");
+        int[] size = sizes[index];
+        Bitmap source = crop;
+        for (int i = 0; i < count; i++) {
+          Bitmap candidate = bitmaps[i];
+          if (candidate != null
+              && outputSpecs.get(i).keepsAspectRatio()
+              && candidate.getWidth() >= size[0]
+              && candidate.getHeight() >= size[1]
+              && areas[i] < (long) source.getWidth() * source.getHeight()) {
+            source = candidate;
+          }
+        }
+        bitmaps[index] = BitmapUtils.cascadeScaleBitmap(source, size[0], size[1]);
+
+        CropOutputSpec spec = outputSpecs.get(index);
+        if (spec.getSaveUri() != null) {
+          CancellationToken.check(token, "encode");
+          BitmapUtils.writeBitmapToUri(
+              context,
+              bitmaps[index],
+              spec.getSaveUri(),
+              spec.getSaveCompressFormat(),
+              spec.getSaveCompressQuality());
+        }
+      }
+
+      List<CropImageView.CropRendition> renditions = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        CropOutputSpec spec = outputSpecs.get(i);
+        renditions.add(
+            new CropImageView.CropRendition(
+                spec, spec.getSaveUri() == null ? bitmaps[i] : null, spec.getSaveUri()));
+      }
+      success = true;
+      return new BitmapCroppingWorkerTask.Result(renditions, sampleSize);
+    } finally {
+      BitmapPool.getInstance().put(crop);
+      for (int i = 0; i < count; i++) {
+        if (!success || outputSpecs.get(i).getSaveUri() != null) {
+          BitmapPool.getInstance().put(bitmaps[i]);
+        }
+      }
+    }
+  }
+  // endregion
+
+  // region: Inner class: OnCropCompleteListener
+
+  /** Interface definition for a callback to be invoked when a crop of the engine is complete. */
+  public interface OnCropCompleteListener {
+
+    /**
+     * Called when a crop of the engine is complete, on the main thread.<br>
+     * The result contains the cropped image bitmap or the uri it was saved to, or the error.
+     *
+     * @param request the request of the crop
+     * @param result the crop result
+     */
+    void onCropComplete(Request request, CropImageView.CropResult result);
+  }
+  // endregion
+
+  // region: Inner class: Request
+
+  /**
+   * Immutable request of a crop, created by {@link Builder}.<br>
+   * The crop points are in the coordinates of the source image as stored (before EXIF rotation)
+   * and the rotation is the total rotation including the EXIF orientation, the same as reported by
+   * {@link CropImageView.CropResult#getCropPoints()} and {@link
+   * CropImageView.CropResult#getRotation()}, so a crop of the view can be re-applied to the
+   * original image.
+   */
+  public static final class Request {
+
+    /** The Android URI of the image to crop, null to crop the bitmap */
+    final Uri uri;
+
+    /** The bitmap to crop, null to crop the image of the URI */
+    final Bitmap bitmap;
+
+    /** The crop 4 points (x0,y0,x1,y1,x2,y2,x3,y3), null to crop the whole image */
+    final float[] cropPoints;
+
+    /** The width of the source image, 0 if not known yet */
+    final int orgWidth;
+
+    /** The height of the source image, 0 if not known yet */
+    final int orgHeight;
+
+    /** The degrees to rotate the crop by */
+    final int degreesRotated;
+
+    /** is there is fixed aspect ratio for the crop rectangle */
+    final boolean fixAspectRatio;
+
+    /** the X aspect ration of the crop rectangle */
+    final int aspectRatioX;
+
+    /** the Y aspect ration of the crop rectangle */
+    final int aspectRatioY;
+
+    /** is the crop flipped horizontally */
+    final boolean flipHorizontally;
+
+    /** is the crop flipped vertically */
+    final boolean flipVertically;
+
+    /** required width of the cropping image */
+    final int reqWidth;
+
+    /** required height of the cropping image */
+    final int reqHeight;
+
+    /** The option to handle requested width/height */
+    final CropImageView.RequestSizeOptions options;
+
+    /** the Android Uri to save the cropped image to, null to return it as bitmap */
+    final Uri saveUri;
+
+    /** the compression format to use when writing the image */
+    final Bitmap.CompressFormat saveCompressFormat;
+
+    /** the quality (if applicable) to use when writing the image (0 - 100) */
+    final int saveCompressQuality;
+
+    /** The specs of the renditions to produce from the crop, null for single output */
+    final List<CropOutputSpec> outputSpecs;
+
+    private Request(Builder builder) {
+      uri = builder.mUri;
+      bitmap = builder.mBitmap;
+      cropPoints = builder.mCropPoints;
+      orgWidth = builder.mOrgWidth;
+      orgHeight = builder.mOrgHeight;
+      degreesRotated = builder.mDegreesRotated;
+      fixAspectRatio = builder.mFixAspectRatio;
+      aspectRatioX = builder.mAspectRatioX;
+      aspectRatioY = builder.mAspectRatioY;
+      flipHorizontally = builder.mFlipHorizontally;
+      flipVertically = builder.mFlipVertically;
+      options = builder.mOptions;
+      reqWidth = options != CropImageView.RequestSizeOptions.NONE ? builder.mReqWidth : 0;
+      reqHeight = options != CropImageView.RequestSizeOptions.NONE ? builder.mReqHeight : 0;
+      saveUri = builder.mSaveUri;
+      saveCompressFormat = builder.mSaveCompressFormat;
+      saveCompressQuality = builder.mSaveCompressQuality;
+      outputSpecs = builder.mOutputSpecs;
+    }
+
+    /** The Android URI of the image to crop, null if cropping a bitmap */
+    @Nullable
+    public Uri getUri() {
+      return uri;
+    }
+
+    /** The bitmap to crop, null if cropping the image of a URI */
+    @Nullable
+    public Bitmap getBitmap() {
+      return bitmap;
+    }
+
+    /** is the crop result saved to uri or returned as bitmap */
+    boolean isSave() {
+      return saveUri != null;
+    }
+
+    // region: Inner class: Builder
+
+    /** Builder of immutable crop {@link Request}. */
+    public static final class Builder {
+
+      private final Uri mUri;
+
+      private final Bitmap mBitmap;
+
+      private float[] mCropPoints;
+
+      private int mOrgWidth;
+
+      private int mOrgHeight;
+
+      private int mDegreesRotated;
+
+      private boolean mFixAspectRatio;
+
+      private int mAspectRatioX = 1;
+
+      private int mAspectRatioY = 1;
+
+      private boolean mFlipHorizontally;
+
+      private boolean mFlipVertically;
+
+      private int mReqWidth;
+
+      private int mReqHeight;
+
+      private CropImageView.RequestSizeOptions mOptions = CropImageView.RequestSizeOptions.NONE;
+
+      private Uri mSaveUri;
+
+      private Bitmap.CompressFormat mSaveCompressFormat = Bitmap.CompressFormat.JPEG;
+
+      private int mSaveCompressQuality = 90;
+
+      private List<CropOutputSpec> mOutputSpecs;
+
+      /** Builder of crop of the image of the given Android URI. */
+      public Builder(@NonNull Uri uri) {
+        mUri = uri;
+        mBitmap = null;
+      }
+
+      /** Builder of crop of the given bitmap, the bitmap is not recycled by the crop. */
+      public Builder(@NonNull Bitmap bitmap) {
+        mUri = null;
+        mBitmap = bitmap;
+      }
+
+      /** Builder of a copy of the given request. */
+      Builder(Request request) {
+        mUri = request.uri;
+        mBitmap = request.bitmap;
+        mCropPoints = request.cropPoints;
+        mOrgWidth = request.orgWidth;
+        mOrgHeight = request.orgHeight;
+        mDegreesRotated = request.degreesRotated;
+        mFixAspectRatio = request.fixAspectRatio;
+        mAspectRatioX = request.aspectRatioX;
+        mAspectRatioY = request.aspectRatioY;
+        mFlipHorizontally = request.flipHorizontally;
+        mFlipVertically = request.flipVertically;
+        mReqWidth = request.reqWidth;
+        mReqHeight = request.reqHeight;
+        mOptions = request.options;
+        mSaveUri = request.saveUri;
+        mSaveCompressFormat = request.saveCompressFormat;
+        mSaveCompressQuality = request.saveCompressQuality;
+        mOutputSpecs = request.outputSpecs;
+      }
+
+      /**
+       * The crop 4 points (x0,y0,x1,y1,x2,y2,x3,y3) in the source image coordinates, as returned
+       * by {@link CropImageView.CropResult#getCropPoints()}.<br>
+       * <i>Default: the whole image</i>
+       */
+      public Builder setCropPoints(@NonNull float[] cropPoints) {
+        mCropPoints = cropPoints.clone();
+        return this;
+      }
+
+      /**
+       * The crop rectangle in the source image coordinates.<br>
+       * <i>Default: the whole image</i>
+       */
+      public Builder setCropRect(@NonNull Rect cropRect) {
+        mCropPoints =
+            new float[] {
+              cropRect.left,
+              cropRect.top,
+              cropRect.right,
+              cropRect.top,
+              cropRect.right,
+              cropRect.bottom,
+              cropRect.left,
+              cropRect.bottom
+            };
+        return this;
+      }
+
+      /**
+       * The degrees to rotate the crop by, including the EXIF orientation of the image, as returned
+       * by {@link CropImageView.CropResult#getRotation()}.<br>
+       * <i>Default: 0</i>
+       */
+      public Builder setRotation(int degrees) {
+        mDegreesRotated = degrees;
+        return this;
+      }
+
+      /**
+       * Flip the crop horizontally and/or vertically.<br>
+       * <i>Default: false, false</i>
+       */
+      public Builder setFlip(boolean flipHorizontally, boolean flipVertically) {
+        mFlipHorizontally = flipHorizontally;
+        mFlipVertically = flipVertically;
+        return this;
+      }
+
+      /**
+       * whether the width to height aspect ratio should be maintained or free to change.<br>
+       * <i>Default: false</i>
+       */
+      public Builder setFixAspectRatio(boolean fixAspectRatio) {
+        mFixAspectRatio = fixAspectRatio;
+        return this;
+      }
+
+      /**
+       * the X,Y value of the aspect ratio, sets fixed aspect ratio.<br>
+       * <i>Default: 1/1</i>
+       */
+      public Builder setAspectRatio(int aspectRatioX, int aspectRatioY) {
+        if (aspectRatioX <= 0 || aspectRatioY <= 0) {
+          throw new IllegalArgumentException(
+              "Cannot set aspect ratio value to a number less than or equal to 0.");
+        }
+        mAspectRatioX = aspectRatioX;
+        mAspectRatioY = aspectRatioY;
+        mFixAspectRatio = true;
+        return this;
+      }
+
+      /**
+       * the size to resize the cropped image to, see {@link CropImageView.RequestSizeOptions}.<br>
+       * <i>Default: 0, 0 - not set, will not resize</i>
+       */
+      public Builder setRequestedSize(
+          int reqWidth, int reqHeight, @NonNull CropImageView.RequestSizeOptions options) {
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+        mOptions = options;
+        return this;
+      }
+
+      /**
+       * the Android Uri to save the cropped image to, null to return the cropped image as bitmap.
+       * <br>
+       * <i>Default: null, JPEG, 90</i>
+       */
+      public Builder setOutputUri(
+          @Nullable Uri saveUri,
+          @NonNull Bitmap.CompressFormat saveCompressFormat,
+          int saveCompressQuality) {
+        mSaveUri = saveUri;
+        mSaveCompressFormat = saveCompressFormat;
+        mSaveCompressQuality = saveCompressQuality;
+        return this;
+      }
+
+      /**
+       * the specs of the renditions to produce from the crop, instead of the single output of the
+       * requested size and output uri, see {@link CropImageView.CropResult#getRenditions()}.<br>
+       * <i>Default: null, single output</i>
+       */
+      public Builder setOutputs(@Nullable List<CropOutputSpec> outputSpecs) {
+        mOutputSpecs =
+            outputSpecs != null
+                ? Collections.unmodifiableList(new ArrayList<>(outputSpecs))
+                : null;
+        return this;
+      }
+
+      /** The size of the source image, probed from the image if not set. */
+      Builder setImageSize(int orgWidth, int orgHeight) {
+        mOrgWidth = orgWidth;
+        mOrgHeight = orgHeight;
+        return this;
+      }
+
+      /** Build the immutable request. */
+      public Request build() {
+        return new Request(this);
+      }
+    }
+    // endregion
+  }
+  // endregion
+}
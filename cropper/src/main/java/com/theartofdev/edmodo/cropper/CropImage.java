@@ -39,6 +39,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
@@ -97,6 +98,76 @@ public final class CropImage {
 
   private CropImage() {}
 
+  /**
+   * Set the max size in bytes of the in-memory cache of decoded preview bitmaps loaded from
+   * URI.<br>
+   * The cache is shared by all crop image views, by default 1/8 of the max heap size is used.<br>
+   * Use 0 to disable the cache, cached bitmaps not in use are released immediately.
+   */
+  public static void setPreviewMemoryCacheSize(int maxBytes) {
+    BitmapMemoryCache.getInstance().setMaxSize(maxBytes);
+  }
+
+  /**
+   * Set the max size in bytes of the disk cache of downsampled preview bitmaps of large images
+   * loaded from URI.<br>
+   * The cache is in the app cache dir, by default 50MB is used.<br>
+   * Use 0 to disable the cache.
+   */
+  public static void setPreviewDiskCacheSize(long maxBytes) {
+    BitmapDiskCache.setMaxSize(maxBytes);
+  }
+
+  /**
+   * Set the max size in bytes of the pool of bitmaps reused by image loading and cropping.<br>
+   * The pool is used on API 19+, by default 1/16 of the max heap size is used.<br>
+   * Use 0 to disable the pool.
+   */
+  public static void setBitmapPoolSize(int maxBytes) {
+    BitmapPool.getInstance().setMaxSize(maxBytes);
+  }
+
+  /**
+   * Set the decoder backend used to load and crop images instead of the Android BitmapFactory and
+   * BitmapRegionDecoder.<br>
+   * Pooled bitmaps and decode density scaling are used only by the default backend.<br>
+   * Use null to restore the default backend.
+   */
+  public static void setImageDecoder(ImageDecoderSpi<Bitmap> decoder) {
+    BitmapUtils.setImageDecoder(decoder);
+  }
+
+  /**
+   * Set if cropping a bitmap and resizing a crop is done in parallel stripes on all the device
+   * cores instead of a single draw on the cropping thread.<br>
+   * Used for rotation by 0, 90, 180 or 270 degrees and downscale (area averaging), other crops use
+   * the single draw. Disabled by default.
+   */
+  public static void setParallelPixelEngineEnabled(boolean enabled) {
+    PixelKernelEngine.setEnabled(enabled);
+  }
+
+  /**
+   * Set the executor image loading, prefetch and cropping run on, for apps that manage their own
+   * threads.<br>
+   * The library still caps the concurrent work and orders it by priority, only the threads are of
+   * the given executor. By default a library owned thread pool is used.<br>
+   * Use null to restore the default thread pool.
+   */
+  public static void setExecutor(@Nullable Executor executor) {
+    CropScheduler.setExecutor(executor);
+  }
+
+  /**
+   * Start loading the image of the given URI for cropping on a background thread, before the crop
+   * image view is created.<br>
+   * The loading of the same URI by {@link CropImageView#setImageUriAsync(Uri)} picks up the
+   * prefetched image instead of decoding it again. Called by {@link ActivityBuilder} start.
+   */
+  public static void prefetch(@NonNull Context context, @Nullable Uri uri) {
+    ImagePrefetcher.prefetch(context, uri);
+  }
+
   /**
    * Create a new bitmap that has all pixels beyond the oval shape transparent. Old bitmap is
    * recycled.
@@ -484,6 +555,7 @@ public final class CropImage {
      */
     public void start(@NonNull Activity activity) {
       mOptions.validate();
+      prefetch(activity, mSource);
       activity.startActivityForResult(getIntent(activity), CROP_IMAGE_ACTIVITY_REQUEST_CODE);
     }
 
@@ -494,6 +566,7 @@ public final class CropImage {
      */
     public void start(@NonNull Activity activity, @Nullable Class<?> cls) {
       mOptions.validate();
+      prefetch(activity, mSource);
       activity.startActivityForResult(getIntent(activity, cls), CROP_IMAGE_ACTIVITY_REQUEST_CODE);
     }
 
@@ -503,6 +576,7 @@ public final class CropImage {
      * @param fragment fragment to receive result
      */
     public void start(@NonNull Context context, @NonNull Fragment fragment) {
+      prefetch(context, mSource);
       fragment.startActivityForResult(getIntent(context), CROP_IMAGE_ACTIVITY_REQUEST_CODE);
     }
 
@@ -513,6 +587,7 @@ public final class CropImage {
      */
     @RequiresApi(api = Build.VERSION_CODES.HONEYCOMB)
     public void start(@NonNull Context context, @NonNull android.app.Fragment fragment) {
+      prefetch(context, mSource);
       fragment.startActivityForResult(getIntent(context), CROP_IMAGE_ACTIVITY_REQUEST_CODE);
     }
 
@@ -523,6 +598,7 @@ public final class CropImage {
      */
     public void start(
         @NonNull Context context, @NonNull Fragment fragment, @Nullable Class<?> cls) {
+      prefetch(context, mSource);
       fragment.startActivityForResult(getIntent(context, cls), CROP_IMAGE_ACTIVITY_REQUEST_CODE);
     }
 
@@ -534,6 +610,7 @@ public final class CropImage {
     @RequiresApi(api = Build.VERSION_CODES.HONEYCOMB)
     public void start(
         @NonNull Context context, @NonNull android.app.Fragment fragment, @Nullable Class<?> cls) {
+      prefetch(context, mSource);
       fragment.startActivityForResult(getIntent(context, cls), CROP_IMAGE_ACTIVITY_REQUEST_CODE);
     }
 
@@ -606,6 +683,16 @@ public final class CropImage {
       return this;
     }
 
+    /**
+     * if to show small preview of the image (EXIF thumbnail or high sampled decode) while the full
+     * image is loading.<br>
+     * <i>Default: false</i>
+     */
+    public ActivityBuilder setProgressiveLoadingEnabled(boolean progressiveLoadingEnabled) {
+      mOptions.progressiveLoadingEnabled = progressiveLoadingEnabled;
+      return this;
+    }
+
     /**
      * if multi touch functionality is enabled.<br>
      * default: true.
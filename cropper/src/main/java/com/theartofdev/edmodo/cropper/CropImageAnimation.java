@@ -29,6 +29,8 @@ final class CropImageAnimation extends Animation implements Animation.AnimationL
 
   private final ImageView mImageView;
 
+  private final TileImageView mTileImageView;
+
   private final CropOverlayView mCropOverlayView;
 
   private final float[] mStartBoundPoints = new float[8];
@@ -50,8 +52,10 @@ final class CropImageAnimation extends Animation implements Animation.AnimationL
   private final float[] mAnimMatrix = new float[9];
   // endregion
 
-  public CropImageAnimation(ImageView cropImageView, CropOverlayView cropOverlayView) {
+  public CropImageAnimation(
+      ImageView cropImageView, TileImageView tileImageView, CropOverlayView cropOverlayView) {
     mImageView = cropImageView;
+    mTileImageView = tileImageView;
     mCropOverlayView = cropOverlayView;
 
     setDuration(300);
@@ -105,6 +109,7 @@ final class CropImageAnimation extends Animation implements Animation.AnimationL
     mImageView.setImageMatrix(m);
 
     mImageView.invalidate();
+    mTileImageView.invalidate();
     mCropOverlayView.invalidate();
   }
 
@@ -84,6 +84,13 @@ public class CropImageOptions implements Parcelable {
    */
   public boolean autoZoomEnabled;
 
+  /**
+   * if to show small preview of the image (EXIF thumbnail or high sampled decode) while the full
+   * image is loading.<br>
+   * default: false.
+   */
+  public boolean progressiveLoadingEnabled;
+
   /** if multi-touch should be enabled on the crop box default: false */
   public boolean multiTouchEnabled;
 
@@ -235,6 +242,7 @@ public class CropImageOptions implements Parcelable {
     showCropOverlay = true;
     showProgressBar = true;
     autoZoomEnabled = true;
+    progressiveLoadingEnabled = false;
     multiTouchEnabled = false;
     maxZoom = 4;
     initialCropWindowPaddingRatio = 0.1f;
@@ -335,6 +343,7 @@ public class CropImageOptions implements Parcelable {
     flipVertically = in.readByte() != 0;
     cropMenuCropButtonTitle = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
     cropMenuCropButtonIcon = in.readInt();
+    progressiveLoadingEnabled = in.readByte() != 0;
   }
 
   @Override
@@ -387,6 +396,7 @@ public class CropImageOptions implements Parcelable {
     dest.writeByte((byte) (flipVertically ? 1 : 0));
     TextUtils.writeToParcel(cropMenuCropButtonTitle, dest, flags);
     dest.writeInt(cropMenuCropButtonIcon);
+    dest.writeByte((byte) (progressiveLoadingEnabled ? 1 : 0));
   }
 
   @Override
@@ -22,9 +22,9 @@ import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import androidx.exifinterface.media.ExifInterface;
 import android.util.AttributeSet;
 import android.util.Pair;
@@ -36,6 +36,9 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /** Custom view that provides cropping capabilities to an image. */
@@ -46,6 +49,9 @@ public class CropImageView extends FrameLayout {
   /** Image view widget used to show the image for cropping. */
   private final ImageView mImageView;
 
+  /** View drawing full resolution tiles over the image view when zoomed in on large image. */
+  private final TileImageView mTileImageView;
+
   /** Overlay over the image view to show cropping UI. */
   private final CropOverlayView mCropOverlayView;
 
@@ -117,6 +123,21 @@ public class CropImageView extends FrameLayout {
    */
   private boolean mAutoZoomEnabled = true;
 
+  /**
+   * if to show small preview of the image while the full image is loading.<br>
+   * default: false.
+   */
+  private boolean mProgressiveLoadingEnabled;
+
+  /** if the shown bitmap is the preview of progressive loading, to be replaced by the full image */
+  private boolean mPreviewShown;
+
+  /** The time the current image async loading started, to know the time to first pixel */
+  private long mLoadingStartTime;
+
+  /** The time in milliseconds from image async loading start until the first image was shown */
+  private long mTimeToFirstPixelMillis;
+
   /** The max zoom allowed during cropping */
   private int mMaxZoom;
 
@@ -138,6 +159,12 @@ public class CropImageView extends FrameLayout {
   /** The URI that the image was loaded from (if loaded from URI) */
   private Uri mLoadedImageUri;
 
+  /**
+   * The region decoder session of the image loaded from URI, shared by crop requests and zoom
+   * tiles, opened lazily and closed when the image is cleared
+   */
+  private RegionDecoderSession mRegionSession;
+
   /** The sample size the image was loaded by if was loaded by URI */
   private int mLoadedSampleSize = 1;
 
@@ -257,6 +284,10 @@ public class CropImageView extends FrameLayout {
               ta.getBoolean(R.styleable.CropImageView_cropShowCropOverlay, mShowCropOverlay);
           options.showProgressBar =
               ta.getBoolean(R.styleable.CropImageView_cropShowProgressBar, mShowProgressBar);
+          options.progressiveLoadingEnabled =
+              ta.getBoolean(
+                  R.styleable.CropImageView_cropProgressiveLoadingEnabled,
+                  options.progressiveLoadingEnabled);
           options.borderCornerThickness =
               ta.getDimension(
                   R.styleable.CropImageView_cropBorderCornerThickness,
@@ -320,13 +351,18 @@ public class CropImageView extends FrameLayout {
     mMaxZoom = options.maxZoom;
     mShowCropOverlay = options.showCropOverlay;
     mShowProgressBar = options.showProgressBar;
+    mProgressiveLoadingEnabled = options.progressiveLoadingEnabled;
     mFlipHorizontally = options.flipHorizontally;
     mFlipVertically = options.flipVertically;
 
     LayoutInflater inflater = LayoutInflater.from(context);
     View v = inflater.inflate(R.layout.crop_image_view, this, true);
 
+    CropEngine.init(context);
+
     mImageView = v.findViewById(R.id.ImageView_image);
+    mTileImageView = v.findViewById(R.id.TileImageView);
+    mTileImageView.setImageView(mImageView);
     mImageView.setScaleType(ImageView.ScaleType.MATRIX);
 
     mCropOverlayView = v.findViewById(R.id.CropOverlayView);
@@ -394,6 +430,32 @@ public class CropImageView extends FrameLayout {
     }
   }
 
+  /**
+   * if to show small preview of the image while the full image is loading by {@link
+   * #setImageUriAsync(Uri)}. default: false.
+   */
+  public boolean isProgressiveLoadingEnabled() {
+    return mProgressiveLoadingEnabled;
+  }
+
+  /**
+   * Set progressive loading to enabled/disabled.<br>
+   * When enabled a small preview (EXIF thumbnail or high sampled decode) of a large image is shown
+   * as fast as possible and replaced by the full image when loaded, keeping the crop window.<br>
+   * Set {@link OnSetImageUriProgressListener} to be notified when the preview is shown.
+   */
+  public void setProgressiveLoadingEnabled(boolean progressiveLoadingEnabled) {
+    mProgressiveLoadingEnabled = progressiveLoadingEnabled;
+  }
+
+  /**
+   * The time in milliseconds from the start of the last {@link #setImageUriAsync(Uri)} until the
+   * first image (preview or full) was shown, 0 if not shown yet.
+   */
+  public long getTimeToFirstPixelMillis() {
+    return mTimeToFirstPixelMillis;
+  }
+
   /** Set multi touch functionality to enabled/disabled. */
   public void setMultiTouchEnabled(boolean multiTouchEnabled) {
     if (mCropOverlayView.setMultiTouchEnabled(multiTouchEnabled)) {
@@ -765,14 +827,14 @@ public class CropImageView extends FrameLayout {
       reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
       reqHeight = options != RequestSizeOptions.NONE ? reqHeight : 0;
 
-      if (mLoadedImageUri != null
-          && (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING)) {
+      if (isCropFromUri(reqWidth, reqHeight, options)) {
         int orgWidth = mBitmap.getWidth() * mLoadedSampleSize;
         int orgHeight = mBitmap.getHeight() * mLoadedSampleSize;
         BitmapUtils.BitmapSampled bitmapSampled =
             BitmapUtils.cropBitmap(
                 getContext(),
                 mLoadedImageUri,
+                mRegionSession,
                 getCropPoints(),
                 mDegreesRotated,
                 orgWidth,
@@ -782,10 +844,14 @@ public class CropImageView extends FrameLayout {
                 mCropOverlayView.getAspectRatioY(),
                 reqWidth,
                 reqHeight,
+                options,
                 mFlipHorizontally,
-                mFlipVertically);
-        croppedBitmap = bitmapSampled.bitmap;
+                mFlipVertically,
+                null);
+        croppedBitmap =
+            BitmapUtils.resizeBitmap(bitmapSampled.bitmap, reqWidth, reqHeight, options);
       } else {
+        // crop of bitmap object is resized in the same draw
         croppedBitmap =
             BitmapUtils.cropBitmapObjectHandleOOM(
                     mBitmap,
@@ -795,11 +861,13 @@ public class CropImageView extends FrameLayout {
                     mCropOverlayView.getAspectRatioX(),
                     mCropOverlayView.getAspectRatioY(),
                     mFlipHorizontally,
-                    mFlipVertically)
+                    mFlipVertically,
+                    reqWidth,
+                    reqHeight,
+                    options,
+                    null)
                 .bitmap;
       }
-
-      croppedBitmap = BitmapUtils.resizeBitmap(croppedBitmap, reqWidth, reqHeight, options);
     }
 
     return croppedBitmap;
@@ -923,6 +991,35 @@ public class CropImageView extends FrameLayout {
         reqWidth, reqHeight, options, saveUri, saveCompressFormat, saveCompressQuality);
   }
 
+  /**
+   * Crop the image based on the current crop window once and produce all the given outputs from
+   * the crop, resized from the largest to the smallest, each saved to its uri or returned as
+   * bitmap.<br>
+   * The result will be invoked to listener set by {@link
+   * #setOnCropImageCompleteListener(OnCropImageCompleteListener)}, the outputs are in {@link
+   * CropResult#getRenditions()} in the order of the given specs.
+   *
+   * @param outputs the specs of the outputs to produce
+   */
+  public void getCroppedImagesAsync(List<CropOutputSpec> outputs) {
+    if (mOnCropImageCompleteListener == null) {
+      throw new IllegalArgumentException("mOnCropImageCompleteListener is not set");
+    }
+    if (outputs == null || outputs.isEmpty()) {
+      throw new IllegalArgumentException("outputs is empty");
+    }
+    // the crop is resized to the largest output, or kept at full size if required
+    int[] size = CropOutputSpec.getMaxRequestedSize(outputs);
+    startCropWorkerTask(
+        size[0],
+        size[1],
+        size[0] > 0 ? RequestSizeOptions.RESIZE_INSIDE : RequestSizeOptions.NONE,
+        null,
+        null,
+        0,
+        new ArrayList<>(outputs));
+  }
+
   /** Set the callback t */
   public void setOnSetCropOverlayReleasedListener(OnSetCropOverlayReleasedListener listener) {
     mOnCropOverlayReleasedListener = listener;
@@ -1015,7 +1112,7 @@ public class CropImageView extends FrameLayout {
       if (currentTask != null) {
         // cancel previous loading (no check if the same URI because camera URI can be the same for
         // different images)
-        currentTask.cancel(true);
+        currentTask.cancelWork();
       }
 
       // either no existing task is working or we canceled it, need to load new URI
@@ -1023,8 +1120,13 @@ public class CropImageView extends FrameLayout {
       mRestoreCropWindowRect = null;
       mRestoreDegreesRotated = 0;
       mCropOverlayView.setInitialCropWindowRect(null);
+      mLoadingStartTime = SystemClock.uptimeMillis();
+      mTimeToFirstPixelMillis = 0;
       mBitmapLoadingWorkerTask = new WeakReference<>(new BitmapLoadingWorkerTask(this, uri));
-      mBitmapLoadingWorkerTask.get().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      mBitmapLoadingWorkerTask
+          .get()
+          .executeOnExecutor(
+              CropScheduler.getExecutor(CropScheduler.Lane.IO, CropScheduler.PRIORITY_VISIBLE));
       setProgressBarVisibility();
     }
   }
@@ -1130,6 +1232,30 @@ public class CropImageView extends FrameLayout {
 
   // region: Private methods
 
+  /**
+   * if the crop should be decoded from the loaded image URI instead of cropping the bitmap in
+   * memory: the loaded bitmap is sampled, sampling is requested, or decoding the crop region
+   * sampled to the requested size materializes fewer pixels than drawing the full resolution crop.
+   */
+  private boolean isCropFromUri(int reqWidth, int reqHeight, RequestSizeOptions options) {
+    if (mLoadedImageUri == null) {
+      return false;
+    }
+    if (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING) {
+      return true;
+    }
+    Rect rect =
+        BitmapUtils.getRectFromPoints(
+            getCropPoints(),
+            mBitmap.getWidth(),
+            mBitmap.getHeight(),
+            mCropOverlayView.isFixAspectRatio(),
+            mCropOverlayView.getAspectRatioX(),
+            mCropOverlayView.getAspectRatioY());
+    return CropMemoryPlanner.preferRegionDecode(
+        rect.width(), rect.height(), mDegreesRotated, reqWidth, reqHeight, options);
+  }
+
   /**
    * On complete of the async bitmap loading by {@link #setImageUriAsync(Uri)} set the result to the
    * widget if still relevant and call listener if set.
@@ -1139,12 +1265,19 @@ public class CropImageView extends FrameLayout {
   void onSetImageUriAsyncComplete(BitmapLoadingWorkerTask.Result result) {
 
     mBitmapLoadingWorkerTask = null;
-    setProgressBarVisibility();
 
     if (result.error == null) {
       mInitialDegreesRotated = result.degreesRotated;
-      setBitmap(result.bitmap, 0, result.uri, result.loadSampleSize, result.degreesRotated);
+      if (mPreviewShown && result.uri.equals(mLoadedImageUri)) {
+        replacePreviewBitmap(result.bitmap, result.loadSampleSize);
+      } else {
+        setBitmap(result.bitmap, 0, result.uri, result.loadSampleSize, result.degreesRotated);
+      }
+      updateTimeToFirstPixel();
+    } else if (mPreviewShown) {
+      clearImageInt();
     }
+    setProgressBarVisibility();
 
     OnSetImageUriCompleteListener listener = mOnSetImageUriCompleteListener;
     if (listener != null) {
@@ -1152,6 +1285,28 @@ public class CropImageView extends FrameLayout {
     }
   }
 
+  /**
+   * On progressive loading preview of {@link #setImageUriAsync(Uri)} show the preview bitmap until
+   * the full image is loaded and call listener if set.
+   *
+   * @param result the preview bitmap loading result
+   */
+  void onSetImageUriAsyncPreview(BitmapLoadingWorkerTask.Result result) {
+
+    mInitialDegreesRotated = result.degreesRotated;
+    setBitmap(result.bitmap, 0, result.uri, result.loadSampleSize, result.degreesRotated);
+    mTileImageView.clearImage();
+    mPreviewShown = true;
+    updateTimeToFirstPixel();
+    setProgressBarVisibility();
+
+    OnSetImageUriCompleteListener listener = mOnSetImageUriCompleteListener;
+    if (listener instanceof OnSetImageUriProgressListener) {
+      ((OnSetImageUriProgressListener) listener)
+          .onSetImageUriPreview(this, result.uri, mTimeToFirstPixelMillis);
+    }
+  }
+
   /**
    * On complete of the async bitmap cropping by {@link #getCroppedImageAsync()} call listener if
    * set.
@@ -1176,7 +1331,8 @@ public class CropImageView extends FrameLayout {
               getCropRect(),
               getWholeImageRect(),
               getRotatedDegrees(),
-              result.sampleSize);
+              result.sampleSize,
+              result.renditions);
       listener.onCropImageComplete(this, cropResult);
     }
   }
@@ -1196,6 +1352,8 @@ public class CropImageView extends FrameLayout {
 
       mBitmap = bitmap;
       mImageView.setImageBitmap(mBitmap);
+      mRegionSession = imageUri != null ? new RegionDecoderSession(getContext(), imageUri) : null;
+      mTileImageView.setImage(mRegionSession, mBitmap, loadSampleSize);
 
       mLoadedImageUri = imageUri;
       mImageResource = imageResource;
@@ -1211,6 +1369,34 @@ public class CropImageView extends FrameLayout {
     }
   }
 
+  /**
+   * Replace the shown progressive loading preview bitmap by the full image bitmap without resetting
+   * the crop window.<br>
+   * The image matrix is scaled by the bitmaps size ratio so the image shows at the same place.
+   */
+  private void replacePreviewBitmap(Bitmap bitmap, int loadSampleSize) {
+    float scale = mBitmap.getWidth() / (float) bitmap.getWidth();
+    mImageView.clearAnimation();
+    BitmapPool.getInstance().put(mBitmap);
+
+    mBitmap = bitmap;
+    mImageView.setImageBitmap(mBitmap);
+    mTileImageView.setImage(mRegionSession, mBitmap, loadSampleSize);
+    mLoadedSampleSize = loadSampleSize;
+    mPreviewShown = false;
+
+    // map the crop window to the new bitmap coordinates and re-apply keeping zoom and offset
+    mImageMatrix.preScale(scale, scale);
+    applyImageMatrix(getWidth(), getHeight(), false, false);
+  }
+
+  /** Set the time to first pixel of the current async loading if this is the first image shown. */
+  private void updateTimeToFirstPixel() {
+    if (mTimeToFirstPixelMillis == 0 && mLoadingStartTime > 0) {
+      mTimeToFirstPixelMillis = Math.max(1, SystemClock.uptimeMillis() - mLoadingStartTime);
+    }
+  }
+
   /**
    * Clear the current image set for cropping.<br>
    * Full clear will also clear the data of the set image like Uri or Resource id while partial
@@ -1220,9 +1406,14 @@ public class CropImageView extends FrameLayout {
 
     // if we allocated the bitmap, release it as fast as possible
     if (mBitmap != null && (mImageResource > 0 || mLoadedImageUri != null)) {
-      mBitmap.recycle();
+      // bitmap shared by the preview cache is released by the cache when no longer used
+      // a crop task in progress holds the bitmap, it is pooled when the crop is done
+      if (!BitmapMemoryCache.getInstance().release(mBitmap)) {
+        BitmapPool.getInstance().put(mBitmap);
+      }
     }
     mBitmap = null;
+    mPreviewShown = false;
 
     // clean the loaded image flags for new image
     mImageResource = 0;
@@ -1236,6 +1427,13 @@ public class CropImageView extends FrameLayout {
     mSaveInstanceStateBitmapUri = null;
 
     mImageView.setImageBitmap(null);
+    mTileImageView.clearImage();
+
+    // crop tasks in progress hold their own reference to the session
+    if (mRegionSession != null) {
+      mRegionSession.release();
+      mRegionSession = null;
+    }
 
     setCropOverlayVisibility();
   }
@@ -1264,6 +1462,22 @@ public class CropImageView extends FrameLayout {
       Uri saveUri,
       Bitmap.CompressFormat saveCompressFormat,
       int saveCompressQuality) {
+    startCropWorkerTask(
+        reqWidth, reqHeight, options, saveUri, saveCompressFormat, saveCompressQuality, null);
+  }
+
+  /**
+   * Execute crop image and save the result to output uri, or produce the renditions of the given
+   * output specs from the crop resized by the given request.
+   */
+  private void startCropWorkerTask(
+      int reqWidth,
+      int reqHeight,
+      RequestSizeOptions options,
+      Uri saveUri,
+      Bitmap.CompressFormat saveCompressFormat,
+      int saveCompressQuality,
+      List<CropOutputSpec> outputSpecs) {
     Bitmap bitmap = mBitmap;
     if (bitmap != null) {
       mImageView.clearAnimation();
@@ -1272,7 +1486,7 @@ public class CropImageView extends FrameLayout {
           mBitmapCroppingWorkerTask != null ? mBitmapCroppingWorkerTask.get() : null;
       if (currentTask != null) {
         // cancel previous cropping
-        currentTask.cancel(true);
+        currentTask.cancelWork();
       }
 
       reqWidth = options != RequestSizeOptions.NONE ? reqWidth : 0;
@@ -1280,49 +1494,34 @@ public class CropImageView extends FrameLayout {
 
       int orgWidth = bitmap.getWidth() * mLoadedSampleSize;
       int orgHeight = bitmap.getHeight() * mLoadedSampleSize;
-      if (mLoadedImageUri != null
-          && (mLoadedSampleSize > 1 || options == RequestSizeOptions.SAMPLING)) {
-        mBitmapCroppingWorkerTask =
-            new WeakReference<>(
-                new BitmapCroppingWorkerTask(
-                    this,
-                    mLoadedImageUri,
-                    getCropPoints(),
-                    mDegreesRotated,
-                    orgWidth,
-                    orgHeight,
-                    mCropOverlayView.isFixAspectRatio(),
-                    mCropOverlayView.getAspectRatioX(),
-                    mCropOverlayView.getAspectRatioY(),
-                    reqWidth,
-                    reqHeight,
-                    mFlipHorizontally,
-                    mFlipVertically,
-                    options,
-                    saveUri,
-                    saveCompressFormat,
-                    saveCompressQuality));
-      } else {
-        mBitmapCroppingWorkerTask =
-            new WeakReference<>(
-                new BitmapCroppingWorkerTask(
-                    this,
-                    bitmap,
-                    getCropPoints(),
-                    mDegreesRotated,
-                    mCropOverlayView.isFixAspectRatio(),
-                    mCropOverlayView.getAspectRatioX(),
-                    mCropOverlayView.getAspectRatioY(),
-                    reqWidth,
-                    reqHeight,
-                    mFlipHorizontally,
-                    mFlipVertically,
-                    options,
-                    saveUri,
-                    saveCompressFormat,
-                    saveCompressQuality));
-      }
-      mBitmapCroppingWorkerTask.get().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      boolean fromUri = isCropFromUri(reqWidth, reqHeight, options);
+      CropEngine.Request.Builder builder =
+          fromUri
+              ? new CropEngine.Request.Builder(mLoadedImageUri).setImageSize(orgWidth, orgHeight)
+              : new CropEngine.Request.Builder(bitmap)
+                  .setImageSize(bitmap.getWidth(), bitmap.getHeight());
+      CropEngine.Request request =
+          builder
+              .setCropPoints(getCropPoints())
+              .setRotation(mDegreesRotated)
+              .setAspectRatio(
+                  mCropOverlayView.getAspectRatioX(), mCropOverlayView.getAspectRatioY())
+              .setFixAspectRatio(mCropOverlayView.isFixAspectRatio())
+              .setFlip(mFlipHorizontally, mFlipVertically)
+              .setRequestedSize(reqWidth, reqHeight, options)
+              .setOutputUri(saveUri, saveCompressFormat, saveCompressQuality)
+              .setOutputs(outputSpecs)
+              .build();
+      mBitmapCroppingWorkerTask =
+          new WeakReference<>(
+              new BitmapCroppingWorkerTask(
+                  this,
+                  request,
+                  fromUri && mRegionSession != null ? mRegionSession.acquire() : null));
+      mBitmapCroppingWorkerTask
+          .get()
+          .executeOnExecutor(
+              CropScheduler.getExecutor(CropScheduler.Lane.CPU, CropScheduler.PRIORITY_VISIBLE));
       setProgressBarVisibility();
     }
   }
@@ -1334,8 +1533,9 @@ public class CropImageView extends FrameLayout {
     }
 
     Bundle bundle = new Bundle();
-    Uri imageUri = mLoadedImageUri;
-    if (mSaveBitmapToInstanceState && imageUri == null && mImageResource < 1) {
+    // progressive loading preview is not saved, the loading is restarted on restore
+    Uri imageUri = mPreviewShown ? null : mLoadedImageUri;
+    if (mSaveBitmapToInstanceState && imageUri == null && mImageResource < 1 && !mPreviewShown) {
       mSaveInstanceStateBitmapUri =
           imageUri =
               BitmapUtils.writeTempStateStoreBitmap(
@@ -1364,6 +1564,10 @@ public class CropImageView extends FrameLayout {
     mImageMatrix.invert(mImageInverseMatrix);
     mImageInverseMatrix.mapRect(BitmapUtils.RECT);
 
+    if (mPreviewShown) {
+      // preview bitmap coordinates don't match the full image that will be loaded on restore
+      BitmapUtils.RECT.setEmpty();
+    }
     bundle.putParcelable("CROP_WINDOW_RECT", BitmapUtils.RECT);
     bundle.putString("CROP_SHAPE", mCropOverlayView.getCropShape().name());
     bundle.putBoolean("CROP_AUTO_ZOOM_ENABLED", mAutoZoomEnabled);
@@ -1603,7 +1807,7 @@ public class CropImageView extends FrameLayout {
           if (animate) {
             if (mAnimation == null) {
               // lazy create animation single instance
-              mAnimation = new CropImageAnimation(mImageView, mCropOverlayView);
+              mAnimation = new CropImageAnimation(mImageView, mTileImageView, mCropOverlayView);
             }
             // set the state for animation to start from
             mAnimation.setStartState(mImagePoints, mImageMatrix);
@@ -1720,6 +1924,7 @@ public class CropImageView extends FrameLayout {
         mImageView.startAnimation(mAnimation);
       } else {
         mImageView.setImageMatrix(mImageMatrix);
+        mTileImageView.invalidate();
       }
 
       // update the image rectangle in the crop overlay
@@ -1795,7 +2000,7 @@ public class CropImageView extends FrameLayout {
   private void setProgressBarVisibility() {
     boolean visible =
         mShowProgressBar
-            && (mBitmap == null && mBitmapLoadingWorkerTask != null
+            && ((mBitmap == null || mPreviewShown) && mBitmapLoadingWorkerTask != null
                 || mBitmapCroppingWorkerTask != null);
     mProgressBar.setVisibility(visible ? VISIBLE : INVISIBLE);
   }
@@ -1975,6 +2180,26 @@ public class CropImageView extends FrameLayout {
      */
     void onSetImageUriComplete(CropImageView view, Uri uri, Exception error);
   }
+
+  /**
+   * Interface definition for a callback to be invoked when image async loading shows preview and
+   * when it is complete.<br>
+   * Set as {@link OnSetImageUriCompleteListener} to get the preview callback of progressive
+   * loading.
+   */
+  public interface OnSetImageUriProgressListener extends OnSetImageUriCompleteListener {
+
+    /**
+     * Called when a crop image view with progressive loading enabled shows the small preview of the
+     * image, before {@link #onSetImageUriComplete(CropImageView, Uri, Exception)}.<br>
+     * Not called if the image is small or is already cached.
+     *
+     * @param view The crop image view that shows the preview.
+     * @param uri the URI of the image that is loading
+     * @param timeToFirstPixelMillis the time from loading start until the preview was shown
+     */
+    void onSetImageUriPreview(CropImageView view, Uri uri, long timeToFirstPixelMillis);
+  }
   // endregion
 
   // region: Inner class: OnGetCroppedImageCompleteListener
@@ -2041,6 +2266,9 @@ public class CropImageView extends FrameLayout {
     /** sample size used creating the crop bitmap to lower its size */
     private final int mSampleSize;
 
+    /** The renditions of the crop to multiple outputs, empty for single output */
+    private final List<CropRendition> mRenditions;
+
     CropResult(
         Bitmap originalBitmap,
         Uri originalUri,
@@ -2052,6 +2280,32 @@ public class CropImageView extends FrameLayout {
         Rect wholeImageRect,
         int rotation,
         int sampleSize) {
+      this(
+          originalBitmap,
+          originalUri,
+          bitmap,
+          uri,
+          error,
+          cropPoints,
+          cropRect,
+          wholeImageRect,
+          rotation,
+          sampleSize,
+          null);
+    }
+
+    CropResult(
+        Bitmap originalBitmap,
+        Uri originalUri,
+        Bitmap bitmap,
+        Uri uri,
+        Exception error,
+        float[] cropPoints,
+        Rect cropRect,
+        Rect wholeImageRect,
+        int rotation,
+        int sampleSize,
+        List<CropRendition> renditions) {
       mOriginalBitmap = originalBitmap;
       mOriginalUri = originalUri;
       mBitmap = bitmap;
@@ -2062,11 +2316,18 @@ public class CropImageView extends FrameLayout {
       mWholeImageRect = wholeImageRect;
       mRotation = rotation;
       mSampleSize = sampleSize;
+      mRenditions =
+          renditions != null
+              ? Collections.unmodifiableList(renditions)
+              : Collections.<CropRendition>emptyList();
     }
 
     /**
      * The image bitmap of the original image loaded for cropping.<br>
-     * Null if uri used to load image or activity result is used.
+     * Null if uri used to load image or activity result is used.<br>
+     * On API 26+ the bitmap of image shown downsampled in hardware accelerated view may be {@link
+     * Bitmap.Config#HARDWARE}, its pixels can't be read or drawn by software canvas, use {@link
+     * Bitmap#copy(Bitmap.Config, boolean)} to ARGB_8888 for that.
      */
     public Bitmap getOriginalBitmap() {
       return mOriginalBitmap;
@@ -2130,6 +2391,51 @@ public class CropImageView extends FrameLayout {
     public int getSampleSize() {
       return mSampleSize;
     }
+
+    /**
+     * The renditions of crop to multiple outputs, in the order of the output specs.<br>
+     * Empty if single output was requested.
+     */
+    public List<CropRendition> getRenditions() {
+      return mRenditions;
+    }
+  }
+  // endregion
+
+  // region: Inner class: CropRendition
+
+  /** Rendition of crop to multiple outputs, see {@link #getCroppedImagesAsync(List)}. */
+  public static final class CropRendition {
+
+    /** The spec of the output the rendition was produced for */
+    private final CropOutputSpec mSpec;
+
+    /** The rendition bitmap, null if saved to uri */
+    private final Bitmap mBitmap;
+
+    /** The Android uri of the saved rendition, null if returned as bitmap */
+    private final Uri mUri;
+
+    CropRendition(CropOutputSpec spec, Bitmap bitmap, Uri uri) {
+      mSpec = spec;
+      mBitmap = bitmap;
+      mUri = uri;
+    }
+
+    /** The spec of the output the rendition was produced for */
+    public CropOutputSpec getSpec() {
+      return mSpec;
+    }
+
+    /** The rendition bitmap, null if saved to uri */
+    public Bitmap getBitmap() {
+      return mBitmap;
+    }
+
+    /** The Android uri of the saved rendition, null if returned as bitmap */
+    public Uri getUri() {
+      return mUri;
+    }
   }
   // endregion
 }
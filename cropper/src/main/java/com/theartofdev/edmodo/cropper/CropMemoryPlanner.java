@@ -0,0 +1,462 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Plans the sampling of decode and crop operations by the peak memory they will need before
+ * allocating anything, instead of allocating optimistically and retrying on OOM.<br>
+ * The peak of a crop is the largest number of bitmap bytes alive at once over its stages: region
+ * decode, rotate/scale transform, extra crop of non straight angle and resize.<br>
+ * The budget before API 26 is the free part of the heap limit, the lower of {@link
+ * Runtime#maxMemory()} and the {@link ActivityManager#getMemoryClass()} of the app. From API 26 the
+ * bitmap pixels are in the native heap, so the budget is the memory the device has available before
+ * it starts killing processes.<br>
+ * The OOM retry loops stay as last resort for estimation errors and starts from the planned
+ * sampling.
+ */
+final class CropMemoryPlanner {
+
+  // region: Fields and Consts
+
+  /** The part of the free memory a plan may use, leaving room for heap fragmentation and the UI */
+  private static final float BUDGET_FRACTION = 0.75f;
+
+  /** The memory class of the app in bytes, 0 until initialized with context */
+  private static long mMemoryClassBytes;
+
+  /** Used for the device available memory from API 26, null until initialized with context */
+  private static volatile ActivityManager mActivityManager;
+
+  /** The last plan created, for inspection */
+  private static volatile Plan mLastPlan;
+
+  /** The estimated peak bytes of the crops admitted to run, see {@link #admit(long)} */
+  private static long mAdmittedBytes;
+
+  /** The budget of the admitted crops, the available memory when the first of them was admitted */
+  private static long mAdmissionBudget;
+  // endregion
+
+  private CropMemoryPlanner() {}
+
+  /** Init the memory class of the application, once. */
+  static synchronized void init(Context context) {
+    if (mMemoryClassBytes == 0) {
+      // the manager is kept, get it from the application context to not leak an activity
+      ActivityManager activityManager =
+          (ActivityManager)
+              context.getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
+      if (activityManager != null) {
+        boolean largeHeap =
+            (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+        int memoryClass =
+            largeHeap ? activityManager.getLargeMemoryClass() : activityManager.getMemoryClass();
+        mMemoryClassBytes = memoryClass * 1024L * 1024L;
+        mActivityManager = activityManager;
+      }
+    }
+  }
+
+  /**
+   * The bytes a plan may allocate now by {@link #BUDGET_FRACTION}: before API 26 the free part of
+   * the heap limit (lower of max memory and memory class), from API 26 the device available memory
+   * above the low memory threshold as bitmap pixels are not allocated in the heap.
+   */
+  static long getAvailableMemory() {
+    ActivityManager activityManager = mActivityManager;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && activityManager != null) {
+      ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+      activityManager.getMemoryInfo(memoryInfo);
+      return Math.max(0, (long) ((memoryInfo.availMem - memoryInfo.threshold) * BUDGET_FRACTION));
+    }
+    Runtime runtime = Runtime.getRuntime();
+    long limit = runtime.maxMemory();
+    if (mMemoryClassBytes > 0) {
+      limit = Math.min(limit, mMemoryClassBytes);
+    }
+    long used = runtime.totalMemory() - runtime.freeMemory();
+    return Math.max(0, (long) ((limit - used) * BUDGET_FRACTION));
+  }
+
+  /** The last plan created by the planner, null if none. */
+  static Plan getLastPlan() {
+    return mLastPlan;
+  }
+
+  /**
+   * Plan decode of image of the given size into a single bitmap.
+   *
+   * @param sampleSize the requested sample size, the plan sample size is not smaller
+   * @param scale the density scale applied after sampling, 1 if none
+   * @param config the config of the decoded bitmap, null for ARGB_8888
+   */
+  static Plan planDecode(int width, int height, int sampleSize, float scale, Bitmap.Config config) {
+    long available = getAvailableMemory();
+    int bytesPerPixel = getBytesPerPixel(config);
+    int planSampleSize = Math.max(1, sampleSize);
+    long decodeBytes;
+    while (true) {
+      decodeBytes = getBytes(width, height, planSampleSize, scale, bytesPerPixel);
+      if (decodeBytes <= available || planSampleSize * 2 > 512) {
+        break;
+      }
+      planSampleSize *= 2;
+    }
+    return setLastPlan(
+        new Plan(planSampleSize, decodeBytes, 0, 0, 0, available), planSampleSize > sampleSize);
+  }
+
+  /**
+   * Plan crop of rectangle of image, the crop stages are: region decode (optional), rotate/scale
+   * transform, extra crop for non straight angle and resize.
+   *
+   * @param rectWidth the width of the rectangle of the image containing the crop
+   * @param rectHeight the height of the rectangle of the image containing the crop
+   * @param decodeRegion if the rectangle is decoded first, otherwise the image is in memory
+   * @param scaleInTransform if the requested size scale is done in the rotate transform
+   * @param sampleSize the requested sample size, the plan sample size is not smaller
+   * @param maxSampleSize the largest sample size to plan
+   */
+  static Plan planCrop(
+      int rectWidth,
+      int rectHeight,
+      int degreesRotated,
+      boolean decodeRegion,
+      boolean scaleInTransform,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      int sampleSize,
+      int maxSampleSize) {
+    long available = getAvailableMemory();
+    int planSampleSize = Math.max(1, sampleSize);
+    Plan plan;
+    while (true) {
+      plan =
+          computeCropPlan(
+              rectWidth,
+              rectHeight,
+              degreesRotated,
+              decodeRegion,
+              scaleInTransform,
+              reqWidth,
+              reqHeight,
+              options,
+              planSampleSize,
+              available);
+      if (plan.fits() || planSampleSize * 2 > maxSampleSize) {
+        break;
+      }
+      planSampleSize *= 2;
+    }
+    return setLastPlan(plan, planSampleSize > sampleSize);
+  }
+
+  /**
+   * if crop of image loaded in memory at full resolution should region decode the crop rectangle
+   * from the image URI instead, by the pixels each route materializes for the requested size.<br>
+   * The in-memory route draws the full resolution rectangle into the result, the region route
+   * decodes the rectangle sampled by the requested size, rotates it if required and resizes it to
+   * the result. Only for {@link CropImageView.RequestSizeOptions#RESIZE_INSIDE} and {@link
+   * CropImageView.RequestSizeOptions#RESIZE_FIT}, other options keep the in-memory route.
+   *
+   * @param rectWidth the width of the rectangle of the image containing the crop
+   * @param rectHeight the height of the rectangle of the image containing the crop
+   */
+  static boolean preferRegionDecode(
+      int rectWidth,
+      int rectHeight,
+      int degreesRotated,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options) {
+    if (reqWidth < 1
+        || reqHeight < 1
+        || rectWidth < 1
+        || rectHeight < 1
+        || (options != CropImageView.RequestSizeOptions.RESIZE_INSIDE
+            && options != CropImageView.RequestSizeOptions.RESIZE_FIT)) {
+      return false;
+    }
+    boolean swap = degreesRotated % 180 != 0;
+    int[] resultSize =
+        BitmapUtils.getResizedSize(
+            swap ? rectHeight : rectWidth,
+            swap ? rectWidth : rectHeight,
+            reqWidth,
+            reqHeight,
+            options);
+    long resultPixels = (long) resultSize[0] * resultSize[1];
+    long memoryPixels = (long) rectWidth * rectHeight + resultPixels;
+
+    int sampleSize =
+        BitmapUtils.calculateInSampleSizeByReqestedSize(
+            rectWidth, rectHeight, reqWidth, reqHeight);
+    long decodedPixels =
+        (long) ((rectWidth + sampleSize - 1) / sampleSize)
+            * ((rectHeight + sampleSize - 1) / sampleSize);
+    long regionPixels = decodedPixels * (degreesRotated != 0 ? 2 : 1) + resultPixels;
+    return regionPixels < memoryPixels;
+  }
+
+  /**
+   * Estimate the peak bytes of crop of rectangle of image at the sampling the crop will use, for
+   * admission of the crop before it starts, see {@link #admit(long)}.
+   *
+   * @param decodeRegion if the rectangle is decoded from the image URI, otherwise the image is in
+   *     memory and the requested size scale is done in the rotate transform
+   */
+  static long estimateCropBytes(
+      int rectWidth,
+      int rectHeight,
+      int degreesRotated,
+      boolean decodeRegion,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options) {
+    int sampleSize =
+        decodeRegion && reqWidth > 0 && reqHeight > 0
+            ? BitmapUtils.calculateInSampleSizeByReqestedSize(
+                rectWidth, rectHeight, reqWidth, reqHeight)
+            : 1;
+    return computeCropPlan(
+            rectWidth,
+            rectHeight,
+            degreesRotated,
+            decodeRegion,
+            !decodeRegion,
+            reqWidth,
+            reqHeight,
+            options,
+            sampleSize,
+            0)
+        .peakBytes;
+  }
+
+  /**
+   * Wait until crop of the given estimated peak bytes fits the memory budget of the admitted crops
+   * and admit it.<br>
+   * The budget is the available memory when no admitted crop is running, so the memory the running
+   * crops already allocated is not counted twice. A crop larger than the budget runs alone.
+   *
+   * @param token stops the wait when cancelled and {@link #wakeWaiters()} is called, may be null
+   * @return the bytes to give to {@link #release(long)} when the crop is done
+   */
+  static long admit(long bytes, CancellationToken token) throws InterruptedException {
+    synchronized (CropMemoryPlanner.class) {
+      if (mAdmittedBytes == 0) {
+        mAdmissionBudget = getAvailableMemory();
+      }
+      while (mAdmittedBytes > 0 && mAdmittedBytes + bytes > mAdmissionBudget) {
+        CancellationToken.check(token, "admit");
+        CropMemoryPlanner.class.wait();
+        CancellationToken.check(token, "admit");
+        if (mAdmittedBytes == 0) {
+          mAdmissionBudget = getAvailableMemory();
+        }
+      }
+      mAdmittedBytes += bytes;
+    }
+    return bytes;
+  }
+
+  /** Release crop admitted by {@link #admit(long, CancellationToken)}. */
+  static void release(long bytes) {
+    synchronized (CropMemoryPlanner.class) {
+      mAdmittedBytes -= bytes;
+      CropMemoryPlanner.class.notifyAll();
+    }
+  }
+
+  /** Wake the crops waiting for admission to check if their token was cancelled. */
+  static void wakeWaiters() {
+    synchronized (CropMemoryPlanner.class) {
+      CropMemoryPlanner.class.notifyAll();
+    }
+  }
+
+  // region: Private methods
+
+  /** Compute the bytes of every stage of crop with the given sample size. */
+  private static Plan computeCropPlan(
+      int rectWidth,
+      int rectHeight,
+      int degreesRotated,
+      boolean decodeRegion,
+      boolean scaleInTransform,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      int sampleSize,
+      long available) {
+
+    // the region decoded (or the source rectangle drawn) at the sample size
+    int width = (rectWidth + sampleSize - 1) / sampleSize;
+    int height = (rectHeight + sampleSize - 1) / sampleSize;
+    long decodeBytes = decodeRegion ? getBytes(width, height, 1, 1, 4) : 0;
+
+    // the bounding box of the rotated region, scaled to the requested size if done in transform
+    double rads = Math.toRadians(degreesRotated);
+    double cos = Math.abs(Math.cos(rads));
+    double sin = Math.abs(Math.sin(rads));
+    int rotatedWidth = (int) Math.ceil(width * cos + height * sin);
+    int rotatedHeight = (int) Math.ceil(width * sin + height * cos);
+    float scale =
+        scaleInTransform && degreesRotated % 90 == 0
+            ? BitmapUtils.calculateRequestedScale(
+                rotatedWidth, rotatedHeight, reqWidth, reqHeight, options)
+            : 1;
+    rotatedWidth = Math.round(rotatedWidth * scale);
+    rotatedHeight = Math.round(rotatedHeight * scale);
+    boolean transform = !decodeRegion || degreesRotated != 0 || scale != 1;
+    long transformBytes = transform ? getBytes(rotatedWidth, rotatedHeight, 1, 1, 4) : 0;
+
+    // the extra crop of non straight angle is not larger than the region
+    int resultWidth = rotatedWidth;
+    int resultHeight = rotatedHeight;
+    long extraCropBytes = 0;
+    if (degreesRotated % 90 != 0) {
+      resultWidth = Math.min(width, rotatedWidth);
+      resultHeight = Math.min(height, rotatedHeight);
+      extraCropBytes = getBytes(resultWidth, resultHeight, 1, 1, 4);
+    }
+
+    // the resize to the requested size, none if already at the size
+    long resizeBytes = 0;
+    if (reqWidth > 0 && reqHeight > 0 && resultWidth > 0 && resultHeight > 0) {
+      if (options == CropImageView.RequestSizeOptions.RESIZE_EXACT) {
+        resizeBytes = getBytes(reqWidth, reqHeight, 1, 1, 4);
+      } else if (options == CropImageView.RequestSizeOptions.RESIZE_INSIDE
+          || options == CropImageView.RequestSizeOptions.RESIZE_FIT) {
+        float resize =
+            Math.min(reqWidth / (float) resultWidth, reqHeight / (float) resultHeight);
+        if (resize < 1 || options == CropImageView.RequestSizeOptions.RESIZE_FIT) {
+          resizeBytes = getBytes(resultWidth, resultHeight, 1, resize, 4);
+        }
+      }
+      if (resizeBytes == getBytes(resultWidth, resultHeight, 1, 1, 4)) {
+        resizeBytes = 0;
+      }
+    }
+
+    return new Plan(
+        sampleSize, decodeBytes, transformBytes, extraCropBytes, resizeBytes, available);
+  }
+
+  /** Set the last plan and log it if the sampling was raised by the memory budget. */
+  private static Plan setLastPlan(Plan plan, boolean sampleRaised) {
+    mLastPlan = plan;
+    if (sampleRaised) {
+      Log.w("AIC", "Sampling raised to fit memory budget: " + plan);
+    }
+    return plan;
+  }
+
+  /** The bytes of bitmap of the given size after sampling and scaling. */
+  private static long getBytes(int width, int height, int sampleSize, float scale, int bpp) {
+    long sampledWidth = (long) Math.ceil((width + sampleSize - 1) / sampleSize * scale);
+    long sampledHeight = (long) Math.ceil((height + sampleSize - 1) / sampleSize * scale);
+    return sampledWidth * sampledHeight * bpp;
+  }
+
+  /** The number of bytes a pixel of the given config takes in memory. */
+  private static int getBytesPerPixel(Bitmap.Config config) {
+    if (config == Bitmap.Config.ALPHA_8) {
+      return 1;
+    } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+      return 2;
+    }
+    return 4;
+  }
+  // endregion
+
+  // region: Inner class: Plan
+
+  /** The sampling chosen for an operation and the bytes of its stages. */
+  static final class Plan {
+
+    /** The sample size to use */
+    final int sampleSize;
+
+    /** The bytes of the decoded bitmap, 0 if nothing is decoded */
+    final long decodeBytes;
+
+    /** The bytes of the rotated/scaled bitmap, 0 if no transform */
+    final long transformBytes;
+
+    /** The bytes of the extra crop of non straight angle, 0 if none */
+    final long extraCropBytes;
+
+    /** The bytes of the resized bitmap, 0 if no resize */
+    final long resizeBytes;
+
+    /** The largest bytes alive at once, each stage holds its input and output */
+    final long peakBytes;
+
+    /** The memory available when the plan was created */
+    final long availableBytes;
+
+    Plan(
+        int sampleSize,
+        long decodeBytes,
+        long transformBytes,
+        long extraCropBytes,
+        long resizeBytes,
+        long availableBytes) {
+      this.sampleSize = sampleSize;
+      this.decodeBytes = decodeBytes;
+      this.transformBytes = transformBytes;
+      this.extraCropBytes = extraCropBytes;
+      this.resizeBytes = resizeBytes;
+      this.availableBytes = availableBytes;
+      long transformPeak = transformBytes > 0 ? decodeBytes + transformBytes : decodeBytes;
+      long resultBytes =
+          extraCropBytes > 0 ? extraCropBytes : transformBytes > 0 ? transformBytes : decodeBytes;
+      this.peakBytes =
+          Math.max(
+              Math.max(transformPeak, transformBytes + extraCropBytes), resultBytes + resizeBytes);
+    }
+
+    /** if the peak of the plan fits in the available memory */
+    boolean fits() {
+      return peakBytes <= availableBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "Plan{sampleSize="
+          + sampleSize
+          + ", peak="
+          + peakBytes
+          + ", available="
+          + availableBytes
+          + ", decode="
+          + decodeBytes
+          + ", transform="
+          + transformBytes
+          + ", extraCrop="
+          + extraCropBytes
+          + ", resize="
+          + resizeBytes
+          + "}";
+    }
+  }
+  // endregion
+}
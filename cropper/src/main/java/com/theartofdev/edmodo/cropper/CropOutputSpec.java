@@ -0,0 +1,141 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.util.List;
+
+/**
+ * Spec of one output (rendition) of a crop producing multiple outputs, see {@link
+ * CropImageView#getCroppedImagesAsync(List)}.<br>
+ * The rendition is resized by the requested size and option, then saved to the given URI or, if no
+ * URI is given, returned as bitmap.
+ */
+public final class CropOutputSpec {
+
+  // region: Fields and Consts
+
+  /** the width to resize the cropped image to (see options) */
+  private final int mReqWidth;
+
+  /** the height to resize the cropped image to (see options) */
+  private final int mReqHeight;
+
+  /** the resize method to use */
+  private final CropImageView.RequestSizeOptions mOptions;
+
+  /** the Android Uri to save the rendition to, null to return it as bitmap */
+  private final Uri mSaveUri;
+
+  /** the compression format to use when writing the rendition */
+  private final Bitmap.CompressFormat mSaveCompressFormat;
+
+  /** the quality (if applicable) to use when writing the rendition (0 - 100) */
+  private final int mSaveCompressQuality;
+  // endregion
+
+  /**
+   * Spec of rendition returned as bitmap.
+   *
+   * @param reqWidth the width to resize the cropped image to (see options)
+   * @param reqHeight the height to resize the cropped image to (see options)
+   * @param options the resize method to use, see its documentation
+   */
+  public CropOutputSpec(int reqWidth, int reqHeight, CropImageView.RequestSizeOptions options) {
+    this(reqWidth, reqHeight, options, null, Bitmap.CompressFormat.JPEG, 90);
+  }
+
+  /**
+   * Spec of rendition saved to the given uri.
+   *
+   * @param reqWidth the width to resize the cropped image to (see options)
+   * @param reqHeight the height to resize the cropped image to (see options)
+   * @param options the resize method to use, see its documentation
+   * @param saveUri the Android Uri to save the rendition to, null to return it as bitmap
+   * @param saveCompressFormat the compression format to use when writing the rendition
+   * @param saveCompressQuality the quality (if applicable) to use when writing the rendition (0 -
+   *     100)
+   */
+  public CropOutputSpec(
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      Uri saveUri,
+      Bitmap.CompressFormat saveCompressFormat,
+      int saveCompressQuality) {
+    mOptions = options != null ? options : CropImageView.RequestSizeOptions.NONE;
+    mReqWidth = mOptions != CropImageView.RequestSizeOptions.NONE ? reqWidth : 0;
+    mReqHeight = mOptions != CropImageView.RequestSizeOptions.NONE ? reqHeight : 0;
+    mSaveUri = saveUri;
+    mSaveCompressFormat = saveCompressFormat;
+    mSaveCompressQuality = saveCompressQuality;
+  }
+
+  /** the width to resize the cropped image to (see options) */
+  public int getReqWidth() {
+    return mReqWidth;
+  }
+
+  /** the height to resize the cropped image to (see options) */
+  public int getReqHeight() {
+    return mReqHeight;
+  }
+
+  /** the resize method to use */
+  public CropImageView.RequestSizeOptions getOptions() {
+    return mOptions;
+  }
+
+  /** the Android Uri to save the rendition to, null to return it as bitmap */
+  public Uri getSaveUri() {
+    return mSaveUri;
+  }
+
+  /** the compression format to use when writing the rendition */
+  public Bitmap.CompressFormat getSaveCompressFormat() {
+    return mSaveCompressFormat;
+  }
+
+  /** the quality (if applicable) to use when writing the rendition (0 - 100) */
+  public int getSaveCompressQuality() {
+    return mSaveCompressQuality;
+  }
+
+  /**
+   * if the rendition keeps the aspect ratio of the crop, so it can be the source of the smaller
+   * renditions.
+   */
+  boolean keepsAspectRatio() {
+    return mOptions != CropImageView.RequestSizeOptions.RESIZE_EXACT;
+  }
+
+  /**
+   * Get the size the crop can be resized inside of for all the given specs, the largest requested
+   * size, 0 if any spec requires the crop full size.<br>
+   * Exact resize may change the aspect ratio so it requires the full size.
+   */
+  static int[] getMaxRequestedSize(List<CropOutputSpec> specs) {
+    int width = 0;
+    int height = 0;
+    for (CropOutputSpec spec : specs) {
+      if (spec.mReqWidth < 1 || spec.mReqHeight < 1 || !spec.keepsAspectRatio()) {
+        return new int[] {0, 0};
+      }
+      width = Math.max(width, spec.mReqWidth);
+      height = Math.max(height, spec.mReqHeight);
+    }
+    return new int[] {width, height};
+  }
+}
@@ -0,0 +1,390 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The library scheduler of image loading, prefetch and crop work, instead of the process wide
+ * AsyncTask thread pool shared with every other library.<br>
+ * Work runs in two lanes: I/O (load, prefetch, device probe) and CPU (crop), each capped to its
+ * number of concurrent tasks and ordered by priority so loads of visible views run before queued
+ * prefetches. Work of the same image URI is coalesced: a duplicate prefetch is dropped and a load
+ * removes the queued prefetch of its URI or waits for the one in progress, then uses its cached
+ * result. Decodes of large bitmaps are capped so concurrent decodes don't exhaust the heap.<br>
+ * The lanes run on a library owned thread pool by default, apps that manage their own threads can
+ * set the executor the lanes run on, see {@link CropImage#setExecutor(Executor)}.
+ */
+final class CropScheduler {
+
+  // region: Fields and Consts
+
+  /** Priority of prefetch of image that may be shown */
+  static final int PRIORITY_PREFETCH = 0;
+
+  /** Priority of batch crop, below the crop of the view shown to the user */
+  static final int PRIORITY_BATCH = -1;
+
+  /** Priority of write of decoded preview to the disk cache, after the loads waiting to show */
+  static final int PRIORITY_CACHE_WRITE = -2;
+
+  /** Priority of work of the crop image view shown to the user */
+  static final int PRIORITY_VISIBLE = 1;
+
+  /** Decoded bitmap of this size or more is a large decode, capped by {@link #MAX_LARGE_DECODES} */
+  private static final long LARGE_DECODE_BYTES = 8 * 1024 * 1024;
+
+  /** The max number of large decodes running at once */
+  private static final int MAX_LARGE_DECODES = 2;
+
+  /** The lanes state by lane ordinal */
+  private static final LaneState[] mLanes = {
+    new LaneState(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))),
+    new LaneState(Math.max(1, Runtime.getRuntime().availableProcessors()))
+  };
+
+  /** The queued keyed jobs by key, to drop duplicates and let loads preempt them */
+  private static final Map<Object, Job> mQueued = new HashMap<>();
+
+  /** The running keyed work by key, released when the work is done */
+  private static final Map<Object, CountDownLatch> mInFlight = new HashMap<>();
+
+  /** The executor set by the app to run the lanes on, null to use the library thread pool */
+  private static Executor mExecutor;
+
+  /** The library thread pool, created on first use */
+  private static ThreadPoolExecutor mDefaultExecutor;
+
+  /** Used to order jobs of the same priority by submit order */
+  private static long mSequence;
+
+  /** The number of large decodes running */
+  private static int mLargeDecodes;
+
+  /** The bytes of the large decodes running */
+  private static long mLargeDecodeBytes;
+  // endregion
+
+  private CropScheduler() {}
+
+  /** Set the executor to run the lanes on, null to use the library thread pool. */
+  static synchronized void setExecutor(Executor executor) {
+    mExecutor = executor;
+  }
+
+  /**
+   * Get executor of the given lane and priority, for {@link android.os.AsyncTask#executeOnExecutor}
+   * of the loading and cropping tasks.
+   */
+  static Executor getExecutor(final Lane lane, final int priority) {
+    return new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        submit(lane, priority, null, runnable);
+      }
+    };
+  }
+
+  /**
+   * Execute the given work of the given image key in the given lane, coalesced with other work of
+   * the key: dropped if work of the key is queued or in progress, or removed from the queue if a
+   * load of the key enters first, see {@link #enter(Object)}.
+   */
+  static void executeCoalesced(Lane lane, int priority, Object key, Runnable runnable) {
+    submit(lane, priority, key, runnable);
+  }
+
+  /**
+   * Enter work of the given image key on the calling thread: remove queued work of the key and wait
+   * for the work of the key in progress, so its result can be used from the cache.
+   *
+   * @return the latch to release by {@link #exit(Object, CountDownLatch)} when the work is done
+   */
+  static CountDownLatch enter(Object key) throws InterruptedException {
+    while (true) {
+      CountDownLatch running;
+      synchronized (CropScheduler.class) {
+        Job queued = mQueued.remove(key);
+        if (queued != null) {
+          mLanes[queued.lane.ordinal()].queue.remove(queued);
+        }
+        running = mInFlight.get(key);
+        if (running == null) {
+          CountDownLatch latch = new CountDownLatch(1);
+          mInFlight.put(key, latch);
+          return latch;
+        }
+      }
+      running.await();
+    }
+  }
+
+  /** Exit the work of the given key entered by {@link #enter(Object)}. */
+  static void exit(Object key, CountDownLatch latch) {
+    synchronized (CropScheduler.class) {
+      if (mInFlight.get(key) == latch) {
+        mInFlight.remove(key);
+      }
+    }
+    latch.countDown();
+  }
+
+  /**
+   * Wait until decode of bitmap of the given bytes can start: large decodes run at most {@link
+   * #MAX_LARGE_DECODES} at once and only while the bytes of the running ones fit the available
+   * memory, a single large decode always runs.
+   *
+   * @return the bytes to give to {@link #endDecode(long)} when the decode is done
+   */
+  static long beginDecode(long bytes) throws InterruptedException {
+    if (bytes < LARGE_DECODE_BYTES) {
+      return 0;
+    }
+    synchronized (CropScheduler.class) {
+      while (mLargeDecodes > 0
+          && (mLargeDecodes >= MAX_LARGE_DECODES
+              || mLargeDecodeBytes + bytes > CropMemoryPlanner.getAvailableMemory())) {
+        CropScheduler.class.wait();
+      }
+      mLargeDecodes++;
+      mLargeDecodeBytes += bytes;
+    }
+    return bytes;
+  }
+
+  /** End decode started by {@link #beginDecode(long)}. */
+  static void endDecode(long bytes) {
+    if (bytes > 0) {
+      synchronized (CropScheduler.class) {
+        mLargeDecodes--;
+        mLargeDecodeBytes -= bytes;
+        CropScheduler.class.notifyAll();
+      }
+    }
+  }
+
+  // region: Private methods
+
+  /**
+   * Queue the given work in the given lane and start a lane runner if the lane is not full, keyed
+   * work is dropped if work of the key is queued or in progress.
+   */
+  private static void submit(Lane lane, int priority, Object key, Runnable runnable) {
+    LaneState state = mLanes[lane.ordinal()];
+    Executor executor;
+    synchronized (CropScheduler.class) {
+      if (key != null && (mQueued.containsKey(key) || mInFlight.containsKey(key))) {
+        return;
+      }
+      Job job = new Job(lane, priority, mSequence++, key, runnable);
+      state.queue.add(job);
+      if (key != null) {
+        mQueued.put(key, job);
+      }
+      if (state.running >= state.maxRunning) {
+        return;
+      }
+      state.running++;
+      executor = mExecutor != null ? mExecutor : getDefaultExecutor();
+    }
+    try {
+      executor.execute(new LaneRunner(state));
+    } catch (RejectedExecutionException e) {
+      synchronized (CropScheduler.class) {
+        state.running--;
+      }
+      throw e;
+    }
+  }
+
+  /** Get the library thread pool, threads are created as the lanes need and time out when idle. */
+  private static ThreadPoolExecutor getDefaultExecutor() {
+    if (mDefaultExecutor == null) {
+      mDefaultExecutor =
+          new ThreadPoolExecutor(
+              0,
+              Integer.MAX_VALUE,
+              30,
+              TimeUnit.SECONDS,
+              new SynchronousQueue<Runnable>(),
+              new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                  Thread thread =
+                      new Thread(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                              runnable.run();
+                            }
+                          },
+                          "AIC #" + mCount.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+    }
+    return mDefaultExecutor;
+  }
+  // endregion
+
+  // region: Inner class: Lane
+
+  /** The lanes of the scheduler. */
+  enum Lane {
+    /** Image loading, prefetch and device probe */
+    IO,
+
+    /** Image cropping */
+    CPU
+  }
+  // endregion
+
+  // region: Inner class: LaneState
+
+  /** The queue and running count of a lane. */
+  private static final class LaneState {
+
+    /** The max number of jobs of the lane running at once */
+    final int maxRunning;
+
+    /** The queued jobs of the lane by priority */
+    final PriorityQueue<Job> queue = new PriorityQueue<>();
+
+    /** The number of runners of the lane */
+    int running;
+
+    LaneState(int maxRunning) {
+      this.maxRunning = maxRunning;
+    }
+  }
+  // endregion
+
+  // region: Inner class: LaneRunner
+
+  /** Runs the queued jobs of a lane, by priority, until the queue is empty. */
+  private static final class LaneRunner implements Runnable {
+
+    private final LaneState mState;
+
+    LaneRunner(LaneState state) {
+      mState = state;
+    }
+
+    @Override
+    public void run() {
+      boolean idle = false;
+      try {
+        idle = runJobs();
+      } finally {
+        if (!idle) {
+          // error escaped the job bookkeeping, still release the lane slot of the runner
+          synchronized (CropScheduler.class) {
+            mState.running--;
+          }
+        }
+      }
+    }
+
+    /**
+     * Run the queued jobs until the queue is empty.
+     *
+     * @return true when the queue is empty and the runner released its lane slot
+     */
+    private boolean runJobs() {
+      while (true) {
+        Job job;
+        CountDownLatch latch = null;
+        synchronized (CropScheduler.class) {
+          job = mState.queue.poll();
+          if (job == null) {
+            mState.running--;
+            return true;
+          }
+          if (job.key != null) {
+            mQueued.remove(job.key);
+            if (mInFlight.containsKey(job.key)) {
+              // work of the same key is in progress, its result is used instead
+              continue;
+            }
+            latch = new CountDownLatch(1);
+            mInFlight.put(job.key, latch);
+          }
+        }
+        try {
+          job.runnable.run();
+        } catch (Throwable e) {
+          // OOM or other error of a single job must not kill the runner and lose the lane slot
+          Log.w("AIC", "Scheduled work failed", e);
+        } finally {
+          if (latch != null) {
+            exit(job.key, latch);
+          }
+          // cancel of the job may have interrupted the thread, don't leak it to the next job
+          Thread.interrupted();
+        }
+      }
+    }
+  }
+  // endregion
+
+  // region: Inner class: Job
+
+  /** Queued work ordered by priority then by submit order. */
+  private static final class Job implements Comparable<Job> {
+
+    final Lane lane;
+
+    final int priority;
+
+    final long sequence;
+
+    /** The image key of coalesced work, null if not coalesced */
+    final Object key;
+
+    final Runnable runnable;
+
+    Job(Lane lane, int priority, long sequence, Object key, Runnable runnable) {
+      this.lane = lane;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.key = key;
+      this.runnable = runnable;
+    }
+
+    @Override
+    public int compareTo(Job other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,77 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Service provider interface of image decoders used to load and crop images, so the decoding can be
+ * benchmarked or replaced by a faster decoder.<br>
+ * The decoded image type is generic so a backend doesn't have to depend on Android, the crop image
+ * view uses a backend of {@link android.graphics.Bitmap} set by {@link
+ * CropImage#setImageDecoder(ImageDecoderSpi)}, by default the Android BitmapFactory and
+ * BitmapRegionDecoder backend.<br>
+ * Implementations must be thread safe, a region returned by {@link #openRegion(InputStream)} is
+ * used by a single thread at a time.
+ *
+ * @param <T> the type of the decoded image
+ */
+public interface ImageDecoderSpi<T> {
+
+  /**
+   * Probe the image dimensions without decoding the pixels.
+   *
+   * @param stream the image data, may be consumed
+   * @return the width and height of the image or null if the format is not supported
+   */
+  int[] decodeBounds(InputStream stream) throws IOException;
+
+  /**
+   * Decode the full image sampled by the given sample size, a power of 2.
+   *
+   * @param stream the image data, consumed
+   * @return the decoded image or null if the format is not supported
+   */
+  T decode(InputStream stream, int sampleSize) throws IOException;
+
+  /**
+   * Open region decoder of the image to decode rectangles of the image repeatedly.
+   *
+   * @param stream the image data, consumed
+   * @throws IOException if the format doesn't support region decoding
+   */
+  Region<T> openRegion(InputStream stream) throws IOException;
+
+  /**
+   * Read the rotation of the image by its EXIF orientation.
+   *
+   * @param stream the image data, may be consumed
+   * @return the rotation degrees: 0, 90, 180 or 270
+   */
+  int decodeOrientation(InputStream stream) throws IOException;
+
+  /** Region decoder of an image opened by {@link #openRegion(InputStream)}. */
+  interface Region<T> extends Closeable {
+
+    /** The width of the image. */
+    int getWidth();
+
+    /** The height of the image. */
+    int getHeight();
+
+    /** Decode the given rectangle of the image sampled by the given sample size, a power of 2. */
+    T decodeRegion(int left, int top, int right, int bottom, int sampleSize) throws IOException;
+  }
+}
@@ -0,0 +1,378 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+/**
+ * Lightweight parser of image file headers to get the image dimensions, mime type and EXIF
+ * orientation without decoding the image.<br>
+ * Supports JPEG (SOF and APP1 markers), PNG (IHDR), WebP (VP8, VP8L and VP8X) and GIF headers.<br>
+ * Plain Java with no Android dependencies, works on the given buffer of the first bytes of the file
+ * and allocates nothing but the result.
+ */
+final class ImageHeaderParser {
+
+  // region: Fields and Consts
+
+  static final String MIME_TYPE_JPEG = "image/jpeg";
+
+  static final String MIME_TYPE_PNG = "image/png";
+
+  static final String MIME_TYPE_WEBP = "image/webp";
+
+  static final String MIME_TYPE_GIF = "image/gif";
+
+  /** EXIF orientation value when no orientation is known (same as ExifInterface) */
+  static final int ORIENTATION_UNDEFINED = 0;
+
+  /** EXIF orientation value for image that doesn't require rotation (same as ExifInterface) */
+  static final int ORIENTATION_NORMAL = 1;
+
+  /** EXIF orientation tag id */
+  private static final int EXIF_TAG_ORIENTATION = 0x0112;
+
+  /** JPEG markers */
+  private static final int MARKER_SOI = 0xD8;
+
+  private static final int MARKER_EOI = 0xD9;
+
+  private static final int MARKER_SOS = 0xDA;
+
+  private static final int MARKER_APP1 = 0xE1;
+
+  private static final int MARKER_TEM = 0x01;
+  // endregion
+
+  private ImageHeaderParser() {}
+
+  /**
+   * Parse the image header in the given buffer.
+   *
+   * @param data buffer with the first bytes of the image file
+   * @param length the number of valid bytes in the buffer
+   * @return the parsed header or null if the format is not supported or dimensions are not in the
+   *     given bytes
+   */
+  static Header parse(byte[] data, int length) {
+    length = Math.min(length, data.length);
+    if (length >= 4 && u8(data, 0) == 0xFF && u8(data, 1) == MARKER_SOI) {
+      return parseJpeg(data, length);
+    }
+    if (length >= 24 && isPng(data)) {
+      Header header = valid(new Header(u32be(data, 16), u32be(data, 20), MIME_TYPE_PNG));
+      if (header != null && length >= 26) {
+        header.opaque = isPngOpaque(data, length);
+      }
+      return header;
+    }
+    if (length >= 30 && isWebp(data)) {
+      return parseWebp(data, length);
+    }
+    if (length >= 10 && isGif(data)) {
+      return valid(new Header(u16le(data, 6), u16le(data, 8), MIME_TYPE_GIF));
+    }
+    return null;
+  }
+
+  // region: Private methods
+
+  /** Walk the JPEG markers up to the start of scan to find the frame size and EXIF orientation. */
+  private static Header parseJpeg(byte[] data, int length) {
+    int orientation = ORIENTATION_NORMAL;
+    int pos = 2;
+    while (pos + 1 < length) {
+      if (u8(data, pos) != 0xFF) {
+        // not a marker, corrupted or unsupported stream
+        return null;
+      }
+      int marker = u8(data, pos + 1);
+      pos += 2;
+      if (marker == 0xFF) {
+        // fill byte, the marker is in the next byte
+        pos--;
+        continue;
+      }
+      if (marker == MARKER_TEM || (marker >= 0xD0 && marker <= MARKER_SOI)) {
+        // standalone markers have no length
+        continue;
+      }
+      if (marker == MARKER_SOS || marker == MARKER_EOI || pos + 2 > length) {
+        return null;
+      }
+      int segmentLength = u16be(data, pos);
+      if (segmentLength < 2) {
+        // the length includes its own 2 bytes
+        return null;
+      }
+      int segment = pos + 2;
+      if (isStartOfFrame(marker)) {
+        if (segment + 5 > length) {
+          return null;
+        }
+        Header header =
+            new Header(u16be(data, segment + 3), u16be(data, segment + 1), MIME_TYPE_JPEG);
+        header.orientation = orientation;
+        header.opaque = true;
+        header.progressive = isProgressive(marker);
+        return valid(header);
+      }
+      if (marker == MARKER_APP1 && segment + segmentLength - 2 <= length) {
+        int exifOrientation = parseExifOrientation(data, segment, segment + segmentLength - 2);
+        if (exifOrientation != ORIENTATION_UNDEFINED) {
+          orientation = exifOrientation;
+        }
+      }
+      pos += segmentLength;
+    }
+    return null;
+  }
+
+  /** SOF0-SOF15 except DHT (C4), JPG (C8) and DAC (CC) markers. */
+  private static boolean isStartOfFrame(int marker) {
+    return marker >= 0xC0
+        && marker <= 0xCF
+        && marker != 0xC4
+        && marker != 0xC8
+        && marker != 0xCC;
+  }
+
+  /** SOF2, SOF6, SOF10 and SOF14 markers of progressive DCT. */
+  private static boolean isProgressive(int marker) {
+    return marker == 0xC2 || marker == 0xC6 || marker == 0xCA || marker == 0xCE;
+  }
+
+  /** Read the orientation tag from the IFD0 of EXIF APP1 segment in the given range. */
+  private static int parseExifOrientation(byte[] data, int start, int end) {
+    // "Exif\0\0" identifier followed by TIFF header
+    if (end - start < 14
+        || data[start] != 'E'
+        || data[start + 1] != 'x'
+        || data[start + 2] != 'i'
+        || data[start + 3] != 'f'
+        || data[start + 4] != 0
+        || data[start + 5] != 0) {
+      return ORIENTATION_UNDEFINED;
+    }
+    int tiff = start + 6;
+    boolean little;
+    if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+      little = true;
+    } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+      little = false;
+    } else {
+      return ORIENTATION_UNDEFINED;
+    }
+    if (u16(data, tiff + 2, little) != 42) {
+      return ORIENTATION_UNDEFINED;
+    }
+    long ifdOffset = u32(data, tiff + 4, little);
+    if (ifdOffset < 8 || tiff + ifdOffset + 2 > end) {
+      return ORIENTATION_UNDEFINED;
+    }
+    int ifd = (int) (tiff + ifdOffset);
+    int count = u16(data, ifd, little);
+    for (int i = 0; i < count; i++) {
+      int entry = ifd + 2 + i * 12;
+      if (entry + 12 > end) {
+        break;
+      }
+      if (u16(data, entry, little) == EXIF_TAG_ORIENTATION) {
+        // SHORT value is stored in the first 2 bytes of the value field
+        int orientation = u16(data, entry + 8, little);
+        return orientation >= 1 && orientation <= 8 ? orientation : ORIENTATION_UNDEFINED;
+      }
+    }
+    return ORIENTATION_UNDEFINED;
+  }
+
+  /** Read the canvas size from the first WebP chunk (lossy, lossless or extended). */
+  private static Header parseWebp(byte[] data, int length) {
+    int width;
+    int height;
+    if (data[12] == 'V' && data[13] == 'P' && data[14] == '8' && data[15] == ' ') {
+      // lossy: frame tag (3 bytes) followed by start code 9d 01 2a and 14 bit dimensions
+      if (u8(data, 23) != 0x9D || u8(data, 24) != 0x01 || u8(data, 25) != 0x2A) {
+        return null;
+      }
+      width = u16le(data, 26) & 0x3FFF;
+      height = u16le(data, 28) & 0x3FFF;
+    } else if (data[12] == 'V' && data[13] == 'P' && data[14] == '8' && data[15] == 'L') {
+      // lossless: signature byte followed by 14 bit (width - 1) and (height - 1)
+      if (u8(data, 20) != 0x2F) {
+        return null;
+      }
+      int b1 = u8(data, 21);
+      int b2 = u8(data, 22);
+      int b3 = u8(data, 23);
+      int b4 = u8(data, 24);
+      width = 1 + (b1 | (b2 & 0x3F) << 8);
+      height = 1 + ((b2 >> 6) | b3 << 2 | (b4 & 0x0F) << 10);
+    } else if (data[12] == 'V' && data[13] == 'P' && data[14] == '8' && data[15] == 'X') {
+      // extended: 24 bit (canvas width - 1) and (canvas height - 1)
+      width = 1 + u24le(data, 24);
+      height = 1 + u24le(data, 27);
+    } else {
+      return null;
+    }
+    Header header = valid(new Header(width, height, MIME_TYPE_WEBP));
+    if (header != null) {
+      if (data[15] == ' ') {
+        header.opaque = true;
+      } else if (data[15] == 'L') {
+        // alpha is used hint bit
+        header.opaque = (u8(data, 24) & 0x10) == 0;
+      } else {
+        // alpha flag of the extended format
+        header.opaque = (u8(data, 20) & 0x10) == 0;
+      }
+    }
+    return header;
+  }
+
+  /**
+   * Check if PNG image has no alpha by its color type (gray or RGB) and no transparency chunk
+   * before the image data, false if the chunks before the image data are not all in the buffer.
+   */
+  private static boolean isPngOpaque(byte[] data, int length) {
+    int colorType = u8(data, 25);
+    if (colorType != 0 && colorType != 2) {
+      return false;
+    }
+    int pos = 8;
+    while (pos + 8 <= length) {
+      int chunkLength = u32be(data, pos);
+      if (chunkLength < 0) {
+        return false;
+      }
+      if (data[pos + 4] == 'I' && data[pos + 5] == 'D' && data[pos + 6] == 'A') {
+        return true;
+      }
+      if (data[pos + 4] == 't' && data[pos + 5] == 'R' && data[pos + 6] == 'N') {
+        return false;
+      }
+      if (chunkLength > length - pos - 12) {
+        // the next chunk is not in the buffer, also keeps the position from overflow
+        return false;
+      }
+      pos += 12 + chunkLength;
+    }
+    return false;
+  }
+
+  private static boolean isPng(byte[] data) {
+    return u8(data, 0) == 0x89
+        && data[1] == 'P'
+        && data[2] == 'N'
+        && data[3] == 'G'
+        && data[4] == 0x0D
+        && data[5] == 0x0A
+        && data[6] == 0x1A
+        && data[7] == 0x0A
+        && data[12] == 'I'
+        && data[13] == 'H'
+        && data[14] == 'D'
+        && data[15] == 'R';
+  }
+
+  private static boolean isWebp(byte[] data) {
+    return data[0] == 'R'
+        && data[1] == 'I'
+        && data[2] == 'F'
+        && data[3] == 'F'
+        && data[8] == 'W'
+        && data[9] == 'E'
+        && data[10] == 'B'
+        && data[11] == 'P';
+  }
+
+  private static boolean isGif(byte[] data) {
+    return data[0] == 'G'
+        && data[1] == 'I'
+        && data[2] == 'F'
+        && data[3] == '8'
+        && (data[4] == '7' || data[4] == '9')
+        && data[5] == 'a';
+  }
+
+  /** Return the header only if it has valid dimensions. */
+  private static Header valid(Header header) {
+    return header.width > 0 && header.height > 0 ? header : null;
+  }
+
+  private static int u8(byte[] data, int pos) {
+    return data[pos] & 0xFF;
+  }
+
+  private static int u16be(byte[] data, int pos) {
+    return u8(data, pos) << 8 | u8(data, pos + 1);
+  }
+
+  private static int u16le(byte[] data, int pos) {
+    return u8(data, pos) | u8(data, pos + 1) << 8;
+  }
+
+  private static int u24le(byte[] data, int pos) {
+    return u8(data, pos) | u8(data, pos + 1) << 8 | u8(data, pos + 2) << 16;
+  }
+
+  private static int u32be(byte[] data, int pos) {
+    return u8(data, pos) << 24
+        | u8(data, pos + 1) << 16
+        | u8(data, pos + 2) << 8
+        | u8(data, pos + 3);
+  }
+
+  private static int u16(byte[] data, int pos, boolean little) {
+    return little ? u16le(data, pos) : u16be(data, pos);
+  }
+
+  private static long u32(byte[] data, int pos, boolean little) {
+    long value =
+        little
+            ? u16le(data, pos) | (long) u16le(data, pos + 2) << 16
+            : (long) u16be(data, pos) << 16 | u16be(data, pos + 2);
+    return value & 0xFFFFFFFFL;
+  }
+  // endregion
+
+  // region: Inner class: Header
+
+  /** The image data parsed from the file header. */
+  static final class Header {
+
+    /** The width of the image in pixels (before EXIF rotation) */
+    final int width;
+
+    /** The height of the image in pixels (before EXIF rotation) */
+    final int height;
+
+    /** The mime type of the image format */
+    final String mimeType;
+
+    /** The EXIF orientation value, {@link #ORIENTATION_UNDEFINED} if not available */
+    int orientation;
+
+    /** if the image is known to have no alpha channel, false if it may have alpha */
+    boolean opaque;
+
+    /** if the image is progressive JPEG */
+    boolean progressive;
+
+    Header(int width, int height, String mimeType) {
+      this.width = width;
+      this.height = height;
+      this.mimeType = mimeType;
+      this.orientation = ORIENTATION_UNDEFINED;
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,323 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of image metadata: dimensions, EXIF rotation, mime type, if opaque, if
+ * progressive JPEG and if region decodable, so loading and cropping an image seen before doesn't
+ * probe its URI.<br>
+ * Entries are keyed by the URI and hold the content version (provider reported size and last
+ * modified) they were read from, an entry of other version is stale and dropped when read so
+ * changed content is probed again.<br>
+ * Stored in shared preferences, the least recently used entries over {@link #MAX_ENTRIES} are
+ * removed. Each entry persists its access sequence so the access order is restored on reload.
+ */
+final class ImageMetadataCache {
+
+  // region: Fields and Consts
+
+  /** The max number of images to keep metadata for */
+  private static final int MAX_ENTRIES = 256;
+
+  /** The shared preferences file of the cache */
+  private static final String PREFS_NAME = "image_cropper_metadata";
+
+  /** The single cache instance */
+  private static ImageMetadataCache mInstance;
+
+  /** The persisted entries */
+  private final SharedPreferences mPrefs;
+
+  /** The entries by URI in access order */
+  private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The access sequence of the last accessed entry */
+  private long mSequence;
+
+  /** The number of times metadata was served from the cache */
+  private int mHitCount;
+
+  /** The number of times metadata was not cached or stale */
+  private int mMissCount;
+  // endregion
+
+  private ImageMetadataCache(Context context) {
+    mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    List<Map.Entry<String, Entry>> loaded = new ArrayList<>();
+    for (Map.Entry<String, ?> pref : mPrefs.getAll().entrySet()) {
+      Entry entry =
+          pref.getValue() instanceof String ? Entry.decode((String) pref.getValue()) : null;
+      if (entry != null) {
+        loaded.add(new AbstractMap.SimpleEntry<>(pref.getKey(), entry));
+        mSequence = Math.max(mSequence, entry.sequence);
+      }
+    }
+    // the preferences are unordered, restore the access order by the persisted sequence
+    Collections.sort(
+        loaded,
+        new Comparator<Map.Entry<String, Entry>>() {
+          @Override
+          public int compare(Map.Entry<String, Entry> lhs, Map.Entry<String, Entry> rhs) {
+            long lhsSequence = lhs.getValue().sequence;
+            long rhsSequence = rhs.getValue().sequence;
+            return lhsSequence < rhsSequence ? -1 : lhsSequence == rhsSequence ? 0 : 1;
+          }
+        });
+    for (Map.Entry<String, Entry> entry : loaded) {
+      mEntries.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /** Get the single cache instance, loaded from the shared preferences once. */
+  static synchronized ImageMetadataCache getInstance(Context context) {
+    if (mInstance == null) {
+      mInstance = new ImageMetadataCache(context.getApplicationContext());
+    }
+    return mInstance;
+  }
+
+  /**
+   * Get the metadata of the given URI content version.
+   *
+   * @return the metadata or null if not cached, stale or the version is unknown
+   */
+  synchronized Entry get(Uri uri, ImageSource.Version version) {
+    Entry entry = getEntry(uri, version);
+    if (entry != null) {
+      mHitCount++;
+      // persist the access so the order survives restart
+      String key = uri.toString();
+      entry = entry.withVersion(version, ++mSequence);
+      mEntries.put(key, entry);
+      mPrefs.edit().putString(key, entry.encode()).apply();
+    } else {
+      mMissCount++;
+    }
+    return entry;
+  }
+
+  /** Cache the metadata of the given URI content version, ignored if the version is unknown. */
+  synchronized void put(Uri uri, ImageSource.Version version, Entry entry) {
+    if (uri != null && version != null && entry != null) {
+      Entry versioned = entry.withVersion(version, ++mSequence);
+      String key = uri.toString();
+      mEntries.put(key, versioned);
+      SharedPreferences.Editor editor = mPrefs.edit().putString(key, versioned.encode());
+      Iterator<String> iterator = mEntries.keySet().iterator();
+      while (mEntries.size() > MAX_ENTRIES && iterator.hasNext()) {
+        editor.remove(iterator.next());
+        iterator.remove();
+      }
+      editor.apply();
+    }
+  }
+
+  /**
+   * Set if the image of the given URI content version can be region decoded, once known by
+   * opening region decoder. Ignored if the metadata of the version is not cached.
+   */
+  synchronized void setRegionDecodable(Uri uri, ImageSource.Version version, boolean decodable) {
+    Entry entry = getEntry(uri, version);
+    if (entry != null && entry.regionDecodable != decodable) {
+      put(
+          uri,
+          version,
+          new Entry(
+              entry.width,
+              entry.height,
+              entry.degreesRotated,
+              entry.mimeType,
+              entry.opaque,
+              entry.progressive,
+              decodable));
+    }
+  }
+
+  /** The number of times metadata was served from the cache. */
+  synchronized int hitCount() {
+    return mHitCount;
+  }
+
+  /** The number of times metadata was not cached or stale. */
+  synchronized int missCount() {
+    return mMissCount;
+  }
+
+  // region: Private methods
+
+  /** Get the entry of the given URI content version, stale entry is removed. */
+  private Entry getEntry(Uri uri, ImageSource.Version version) {
+    if (uri == null || version == null) {
+      return null;
+    }
+    String key = uri.toString();
+    Entry entry = mEntries.get(key);
+    if (entry != null
+        && (version.size != entry.size || version.lastModified != entry.lastModified)) {
+      // the content has changed since the metadata was read
+      mEntries.remove(key);
+      mPrefs.edit().remove(key).apply();
+      entry = null;
+    }
+    return entry;
+  }
+  // endregion
+
+  // region: Inner class: Entry
+
+  /** The metadata of an image content version. */
+  static final class Entry {
+
+    /** The width of the image in pixels (before EXIF rotation) */
+    final int width;
+
+    /** The height of the image in pixels (before EXIF rotation) */
+    final int height;
+
+    /** The rotation by the EXIF orientation of the image */
+    final int degreesRotated;
+
+    /** The mime type of the image format, null if unknown */
+    final String mimeType;
+
+    /** if the image is known to have no alpha channel */
+    final boolean opaque;
+
+    /** if the image is progressive JPEG, region decoding it decodes the full image */
+    final boolean progressive;
+
+    /** if the image can be region decoded, true until opening region decoder failed */
+    final boolean regionDecodable;
+
+    /** The size of the content the metadata was read from */
+    final long size;
+
+    /** The last modified time of the content the metadata was read from */
+    final long lastModified;
+
+    /** The access sequence of the entry in the cache, 0 if persisted without one (oldest) */
+    final long sequence;
+
+    Entry(
+        int width,
+        int height,
+        int degreesRotated,
+        String mimeType,
+        boolean opaque,
+        boolean progressive,
+        boolean regionDecodable) {
+      this(width, height, degreesRotated, mimeType, opaque, progressive, regionDecodable, 0, 0, 0);
+    }
+
+    private Entry(
+        int width,
+        int height,
+        int degreesRotated,
+        String mimeType,
+        boolean opaque,
+        boolean progressive,
+        boolean regionDecodable,
+        long size,
+        long lastModified,
+        long sequence) {
+      this.width = width;
+      this.height = height;
+      this.degreesRotated = degreesRotated;
+      this.mimeType = mimeType;
+      this.opaque = opaque;
+      this.progressive = progressive;
+      this.regionDecodable = regionDecodable;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.sequence = sequence;
+    }
+
+    /** Copy of the entry for the given content version, accessed at the given sequence. */
+    private Entry withVersion(ImageSource.Version version, long sequence) {
+      return new Entry(
+          width,
+          height,
+          degreesRotated,
+          mimeType,
+          opaque,
+          progressive,
+          regionDecodable,
+          version.size,
+          version.lastModified,
+          sequence);
+    }
+
+    /** Encode the entry to the persisted string. */
+    private String encode() {
+      return size
+          + "|"
+          + lastModified
+          + "|"
+          + width
+          + "|"
+          + height
+          + "|"
+          + degreesRotated
+          + "|"
+          + (opaque ? 1 : 0)
+          + "|"
+          + (progressive ? 1 : 0)
+          + "|"
+          + (regionDecodable ? 1 : 0)
+          + "|"
+          + (mimeType != null ? mimeType : "")
+          + "|"
+          + sequence;
+    }
+
+    /**
+     * Decode entry from the persisted string, null if not valid.<br>
+     * Entries persisted before the access sequence was added have 9 parts and sequence 0.
+     */
+    private static Entry decode(String value) {
+      try {
+        String[] parts = value.split("\\|", -1);
+        if (parts.length != 9 && parts.length != 10) {
+          return null;
+        }
+        return new Entry(
+            Integer.parseInt(parts[2]),
+            Integer.parseInt(parts[3]),
+            Integer.parseInt(parts[4]),
+            parts[8].length() > 0 ? parts[8] : null,
+            "1".equals(parts[5]),
+            "1".equals(parts[6]),
+            "1".equals(parts[7]),
+            Long.parseLong(parts[0]),
+            Long.parseLong(parts[1]),
+            parts.length > 9 ? Long.parseLong(parts[9]) : 0);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,123 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Prefetch of image to crop before the crop image view starts loading it, so decoding runs in
+ * parallel to the crop activity creation.<br>
+ * The bounds probe, EXIF read and decode of the displayed image are done on a background thread
+ * the same as {@link BitmapLoadingWorkerTask} and the result is put in the preview memory and disk
+ * caches. The prefetch is coalesced by {@link CropScheduler} with the loading of its URI: the
+ * loading task removes the prefetch if still queued or waits for it if in progress and then finds
+ * the result in the cache instead of decoding again.
+ */
+final class ImagePrefetcher {
+
+  private ImagePrefetcher() {}
+
+  /** Start prefetch of the image of the given URI, if it is not already queued or in progress. */
+  static void prefetch(Context context, final Uri uri) {
+    if (uri == null) {
+      return;
+    }
+    final Context appContext = context.getApplicationContext();
+    CropScheduler.executeCoalesced(
+        CropScheduler.Lane.IO,
+        CropScheduler.PRIORITY_PREFETCH,
+        uri,
+        new Runnable() {
+          @Override
+          public void run() {
+            load(appContext, uri);
+          }
+        });
+  }
+
+  // region: Private methods
+
+  /**
+   * Decode the displayed image of the given URI into the preview caches, the same size, sampling
+   * and pixel config as {@link BitmapLoadingWorkerTask} for not hardware accelerated view.
+   */
+  private static void load(Context context, Uri uri) {
+    ImageSource source = null;
+    try {
+      int[] size = BitmapLoadingWorkerTask.getLoadSize(context.getResources().getDisplayMetrics());
+      ImageSource.Version version = ImageSource.getVersion(context, uri);
+      if (version == null) {
+        // not cacheable content, the loading task can't pick up the result
+        return;
+      }
+      ImageMetadataCache metadataCache = ImageMetadataCache.getInstance(context);
+      ImageMetadataCache.Entry metadata = metadataCache.get(uri, version);
+      if (metadata == null) {
+        source = ImageSource.open(context, uri);
+        metadata = BitmapUtils.probeMetadata(source);
+        metadataCache.put(uri, version, metadata);
+      }
+      BitmapFactory.Options options = BitmapUtils.decodeSampledOptions(metadata, size[0], size[1]);
+      // windows are hardware accelerated by default, a software view misses by the key config
+      options.inPreferredConfig =
+          BitmapUtils.getPreviewConfig(metadata.opaque, options.inSampleSize, true);
+
+      BitmapMemoryCache cache = BitmapMemoryCache.getInstance();
+      BitmapMemoryCache.Key key =
+          BitmapMemoryCache.Key.create(
+              uri,
+              version,
+              options.inSampleSize,
+              metadata.degreesRotated,
+              options.inPreferredConfig);
+      Bitmap bitmap = cache.get(key);
+      BitmapDiskCache diskCache =
+          options.inSampleSize > 1 ? BitmapDiskCache.getInstance(context) : null;
+      if (bitmap == null && diskCache != null) {
+        bitmap = diskCache.get(key);
+        if (bitmap != null) {
+          cache.put(key, bitmap);
+        }
+      }
+      if (bitmap == null) {
+        if (source == null) {
+          source = ImageSource.open(context, uri);
+        }
+        long start = System.nanoTime();
+        int sampleSize = options.inSampleSize;
+        BitmapUtils.BitmapSampled decodeResult =
+            BitmapUtils.decodeSampledBitmap(source, options, null);
+        bitmap = decodeResult.bitmap;
+        if (decodeResult.sampleSize == sampleSize) {
+          cache.put(key, bitmap);
+          if (diskCache != null) {
+            diskCache.put(key, bitmap, System.nanoTime() - start);
+          }
+        }
+      }
+      // the cache keeps the bitmap for the loading task, release it if not cached
+      if (bitmap != null && !cache.release(bitmap)) {
+        BitmapPool.getInstance().put(bitmap);
+      }
+    } catch (Exception e) {
+      Log.w("AIC", "Failed to prefetch image: " + uri, e);
+    } finally {
+      BitmapUtils.closeSafe(source);
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,351 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import androidx.exifinterface.media.ExifInterface;
+
+/**
+ * Image source that opens the Android URI once and serves the bounds probe, the EXIF orientation
+ * and the full decode from the same stream.<br>
+ * The start of the stream is buffered so the header can be read as many times as required, the
+ * rest of the stream is read only by the full decode. If the stream has to be read again (OOM
+ * retry) the URI is re-opened and the open is counted.
+ */
+final class ImageSource implements Closeable {
+
+  // region: Fields and Consts
+
+  /** The initial number of bytes buffered from the start of the stream (EXIF APP1 max size) */
+  private static final int HEADER_BUFFER_SIZE = 64 * 1024;
+
+  /** The max number of bytes to buffer when the image dimensions are not found in the header */
+  private static final int MAX_HEADER_BUFFER_SIZE = 1024 * 1024;
+
+  /** Used to open the URI stream */
+  private final ContentResolver mResolver;
+
+  /** The Android URI of the image source */
+  private final Uri mUri;
+
+  /** The currently open stream, positioned right after the buffered header */
+  private InputStream mStream;
+
+  /** The buffered start of the stream */
+  private byte[] mHeader = new byte[HEADER_BUFFER_SIZE];
+
+  /** The number of valid bytes in the header buffer */
+  private int mHeaderLength;
+
+  /** if the open stream reached its end while buffering the header */
+  private boolean mStreamEnded;
+
+  /** if the open stream was handed to the full decode, next decode will re-open the URI */
+  private boolean mStreamConsumed;
+
+  /** the image header parsed from the buffered header bytes, lazy loaded */
+  private ImageHeaderParser.Header mParsedHeader;
+
+  /** if parsing the header was already attempted */
+  private boolean mHeaderParsed;
+
+  /** the EXIF data read from the header, lazy loaded */
+  private ExifInterface mExif;
+
+  /** if reading EXIF data was already attempted */
+  private boolean mExifRead;
+
+  /** the number of times the URI was opened by this source */
+  private int mOpenCount;
+
+  /** the total number of bytes read from all the streams opened by this source */
+  private long mBytesRead;
+  // endregion
+
+  private ImageSource(ContentResolver resolver, Uri uri) {
+    mResolver = resolver;
+    mUri = uri;
+  }
+
+  /**
+   * Open image source for the given URI, the stream is opened and the header is buffered
+   * immediately.
+   */
+  static ImageSource open(Context context, Uri uri) throws IOException {
+    ImageSource source = new ImageSource(context.getContentResolver(), uri);
+    try {
+      source.mStream = source.openStream();
+      source.fillHeader(HEADER_BUFFER_SIZE);
+    } catch (IOException e) {
+      source.close();
+      throw e;
+    }
+    return source;
+  }
+
+  /**
+   * Get the version of the content of the given URI from the provider reported size and last
+   * modified time.<br>
+   * Used to know if a cached data of the URI is still valid, null if the version cannot be known
+   * (the content must not be cached).
+   */
+  static Version getVersion(Context context, Uri uri) {
+    try {
+      if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+        File file = new File(uri.getPath());
+        return file.exists() ? new Version(file.length(), file.lastModified()) : null;
+      }
+      if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+        Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+        if (cursor != null) {
+          try {
+            if (cursor.moveToFirst()) {
+              long size = getLong(cursor, OpenableColumns.SIZE);
+              long lastModified = getLong(cursor, "last_modified");
+              if (lastModified < 1) {
+                // media store has date modified in seconds instead of documents last modified
+                lastModified = getLong(cursor, "date_modified") * 1000;
+              }
+              return size > 0 && lastModified > 0 ? new Version(size, lastModified) : null;
+            }
+          } finally {
+            cursor.close();
+          }
+        }
+      }
+    } catch (Exception ignored) {
+    }
+    return null;
+  }
+
+  /** The Android URI of the image source. */
+  Uri getUri() {
+    return mUri;
+  }
+
+  /** The number of times the URI was opened by this source. */
+  int getOpenCount() {
+    return mOpenCount;
+  }
+
+  /** The total number of bytes read from the URI by this source. */
+  long getBytesRead() {
+    return mBytesRead;
+  }
+
+  /**
+   * Get the image dimensions, mime type and orientation parsed from the buffered header bytes
+   * without decoding, null if the format is not supported by {@link ImageHeaderParser}.
+   */
+  ImageHeaderParser.Header getHeader() {
+    if (!mHeaderParsed) {
+      mHeaderParsed = true;
+      mParsedHeader = ImageHeaderParser.parse(mHeader, mHeaderLength);
+    }
+    return mParsedHeader;
+  }
+
+  /**
+   * Decode the image dimensions from the buffered header using "inJustDecodeBounds".<br>
+   * If the dimensions are not in the header (large metadata segments) the header buffer is grown up
+   * to 1MB before giving up and probing the full stream.
+   */
+  BitmapFactory.Options decodeBounds() throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    while (true) {
+      options.outWidth = -1;
+      options.outHeight = -1;
+      BitmapFactory.decodeByteArray(mHeader, 0, mHeaderLength, options);
+      if (options.outWidth > 0 && options.outHeight > 0 || mStreamEnded || mStreamConsumed) {
+        break;
+      }
+      if (mHeader.length >= MAX_HEADER_BUFFER_SIZE) {
+        // give up on the buffer, probe the rest of the stream and re-open for the full decode
+        BitmapFactory.decodeStream(openDecodeStream(), BitmapUtils.EMPTY_RECT, options);
+        break;
+      }
+      fillHeader(Math.min(mHeader.length * 2, MAX_HEADER_BUFFER_SIZE));
+    }
+    options.inJustDecodeBounds = false;
+    return options;
+  }
+
+  /** Get the EXIF data of the image read from the buffered header, null if not available. */
+  ExifInterface getExif() {
+    if (!mExifRead) {
+      mExifRead = true;
+      try {
+        mExif = new ExifInterface(openHeaderStream());
+      } catch (Exception ignored) {
+      }
+    }
+    return mExif;
+  }
+
+  /** Get stream of the buffered header bytes, doesn't read from the URI. */
+  InputStream openHeaderStream() {
+    return new ByteArrayInputStream(mHeader, 0, mHeaderLength);
+  }
+
+  /**
+   * Get stream to read the full image from.<br>
+   * The first call returns the buffered header followed by the rest of the already open stream,
+   * following calls re-open the URI.
+   */
+  InputStream openDecodeStream() throws IOException {
+    if (!mStreamConsumed) {
+      mStreamConsumed = true;
+      InputStream header = openHeaderStream();
+      return mStreamEnded ? header : new SequenceInputStream(header, mStream);
+    }
+    BitmapUtils.closeSafe(mStream);
+    mStream = openStream();
+    return mStream;
+  }
+
+  @Override
+  public void close() {
+    BitmapUtils.closeSafe(mStream);
+    mStream = null;
+  }
+
+  // region: Private methods
+
+  /** Get long value of the given column name from the cursor, -1 if no such column. */
+  private static long getLong(Cursor cursor, String column) {
+    int index = cursor.getColumnIndex(column);
+    return index > -1 && !cursor.isNull(index) ? cursor.getLong(index) : -1;
+  }
+
+  /** Open a new counted stream for the URI. */
+  private InputStream openStream() throws FileNotFoundException {
+    InputStream stream = mResolver.openInputStream(mUri);
+    if (stream == null) {
+      throw new FileNotFoundException("Failed to open image stream: " + mUri);
+    }
+    mOpenCount++;
+    return new CountingInputStream(stream);
+  }
+
+  /** Read from the open stream into the header buffer until it has the given size or ends. */
+  private void fillHeader(int size) throws IOException {
+    if (size > mHeader.length) {
+      byte[] header = new byte[size];
+      System.arraycopy(mHeader, 0, header, 0, mHeaderLength);
+      mHeader = header;
+    }
+    while (mHeaderLength < size) {
+      int read = mStream.read(mHeader, mHeaderLength, size - mHeaderLength);
+      if (read < 0) {
+        mStreamEnded = true;
+        break;
+      }
+      mHeaderLength += read;
+    }
+  }
+  // endregion
+
+  // region: Inner class: Version
+
+  /** The version of URI content by its size and last modified time. */
+  static final class Version {
+
+    /** The size of the content in bytes */
+    final long size;
+
+    /** The last modified time of the content in milliseconds */
+    final long lastModified;
+
+    Version(long size, long lastModified) {
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Version)) {
+        return false;
+      }
+      Version version = (Version) o;
+      return size == version.size && lastModified == version.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int) (size ^ (size >>> 32)) + (int) (lastModified ^ (lastModified >>> 32));
+    }
+
+    @Override
+    public String toString() {
+      return size + "_" + lastModified;
+    }
+  }
+  // endregion
+
+  // region: Inner class: CountingInputStream
+
+  /** Stream wrapper that counts the bytes read from the URI into the owning source. */
+  private final class CountingInputStream extends FilterInputStream {
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        mBytesRead++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      int read = super.read(buffer, offset, count);
+      if (read > 0) {
+        mBytesRead += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+      long skipped = super.skip(count);
+      if (skipped > 0) {
+        mBytesRead += skipped;
+      }
+      return skipped;
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,240 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * The max size of bitmap allowed to be rendered on the device, probed by EGL once per device
+ * build.<br>
+ * The probe initializes an EGL display and walks all its configs, so it is run on a background
+ * thread when the library is initialized and the result is persisted in shared preferences keyed
+ * by the build fingerprint, so image loading doesn't pay the probe on the first load or on every
+ * process start.
+ */
+final class MaxTextureSizeProbe {
+
+  // region: Fields and Consts
+
+  /** Safe minimum default size */
+  private static final int IMAGE_MAX_BITMAP_DIMENSION = 2048;
+
+  /** The shared preferences file of the persisted probe result */
+  private static final String PREFS_NAME = "image_cropper_device";
+
+  private static final String KEY_FINGERPRINT = "max_texture_size_fingerprint";
+
+  private static final String KEY_SIZE = "max_texture_size";
+
+  private static final String KEY_PROBE_MILLIS = "max_texture_size_probe_millis";
+
+  /** The probed max texture size, 0 until known */
+  private static volatile int mMaxTextureSize;
+
+  /** The application context to load the persisted result with, null until init */
+  private static Context mAppContext;
+
+  /** if the load of the persisted result or the probe started, by the init job or by get */
+  private static boolean mLoadStarted;
+
+  /** Released when the load started by init is done */
+  private static final CountDownLatch mLoaded = new CountDownLatch(1);
+
+  /** The time the EGL probe took, persisted with the result */
+  private static volatile long mProbeMillis;
+
+  /** if the size was read from the persisted result and the probe was skipped */
+  private static volatile boolean mPersisted;
+  // endregion
+
+  private MaxTextureSizeProbe() {}
+
+  /**
+   * Load the persisted max texture size of the device build or probe it on a background thread,
+   * once per process.
+   */
+  static synchronized void init(Context context) {
+    if (mAppContext != null) {
+      return;
+    }
+    mAppContext = context.getApplicationContext();
+    CropScheduler.getExecutor(CropScheduler.Lane.IO, CropScheduler.PRIORITY_VISIBLE)
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                loadOnce();
+              }
+            });
+  }
+
+  /**
+   * Get the max texture size, if not yet known wait for the load started by init, running it on
+   * the calling thread if still queued, so the result is persisted.<br>
+   * Without init the size is probed on the calling thread and not persisted.
+   */
+  static int get() {
+    int size = mMaxTextureSize;
+    if (size > 0) {
+      return size;
+    }
+    boolean initialized;
+    synchronized (MaxTextureSizeProbe.class) {
+      initialized = mAppContext != null;
+    }
+    if (initialized) {
+      loadOnce();
+      try {
+        mLoaded.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      size = mMaxTextureSize;
+      if (size > 0) {
+        return size;
+      }
+    }
+    return probe(null);
+  }
+
+  /** The time in milliseconds the EGL probe took on this device build, 0 if unknown. */
+  static long getProbeMillis() {
+    return mProbeMillis;
+  }
+
+  /**
+   * if the max texture size was read from the persisted result, the probe time is the latency
+   * saved.
+   */
+  static boolean isPersisted() {
+    return mPersisted;
+  }
+
+  // region: Private methods
+
+  /** Run the load of the persisted result or the probe, once, by the first thread to get here. */
+  private static void loadOnce() {
+    Context context;
+    synchronized (MaxTextureSizeProbe.class) {
+      if (mLoadStarted) {
+        return;
+      }
+      mLoadStarted = true;
+      context = mAppContext;
+    }
+    try {
+      load(context);
+    } finally {
+      mLoaded.countDown();
+    }
+  }
+
+  /** Read the persisted result if of the current device build, otherwise probe and persist. */
+  private static void load(Context context) {
+    SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    synchronized (MaxTextureSizeProbe.class) {
+      if (mMaxTextureSize == 0
+          && Build.FINGERPRINT != null
+          && Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+        int size = prefs.getInt(KEY_SIZE, 0);
+        if (size > 0) {
+          mProbeMillis = prefs.getLong(KEY_PROBE_MILLIS, 0);
+          mPersisted = true;
+          mMaxTextureSize = size;
+          Log.i(
+              "AIC",
+              "Max texture size " + size + " persisted, skipped probe of " + mProbeMillis + "ms");
+          return;
+        }
+      }
+    }
+    probe(prefs);
+  }
+
+  /** Probe the max texture size once and persist it if preferences are given. */
+  private static synchronized int probe(SharedPreferences prefs) {
+    if (mMaxTextureSize == 0) {
+      long start = System.nanoTime();
+      mMaxTextureSize = probeEgl();
+      mProbeMillis = (System.nanoTime() - start) / 1000000;
+      Log.i("AIC", "Max texture size " + mMaxTextureSize + " probed in " + mProbeMillis + "ms");
+    }
+    if (prefs != null && !mPersisted) {
+      prefs
+          .edit()
+          .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+          .putInt(KEY_SIZE, mMaxTextureSize)
+          .putLong(KEY_PROBE_MILLIS, mProbeMillis)
+          .apply();
+    }
+    return mMaxTextureSize;
+  }
+
+  /**
+   * Get the max size of bitmap allowed to be rendered on the device.<br>
+   * http://stackoverflow.com/questions/7428996/hw-accelerated-activity-how-to-get-opengl-texture-size-limit.
+   */
+  private static int probeEgl() {
+    try {
+      // Get EGL Display
+      EGL10 egl = (EGL10) EGLContext.getEGL();
+      EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+
+      // Initialise
+      int[] version = new int[2];
+      egl.eglInitialize(display, version);
+
+      // Query total number of configurations
+      int[] totalConfigurations = new int[1];
+      egl.eglGetConfigs(display, null, 0, totalConfigurations);
+
+      // Query actual list configurations
+      EGLConfig[] configurationsList = new EGLConfig[totalConfigurations[0]];
+      egl.eglGetConfigs(display, configurationsList, totalConfigurations[0], totalConfigurations);
+
+      int[] textureSize = new int[1];
+      int maximumTextureSize = 0;
+
+      // Iterate through all the configurations to located the maximum texture size
+      for (int i = 0; i < totalConfigurations[0]; i++) {
+        // Only need to check for width since opengl textures are always squared
+        egl.eglGetConfigAttrib(
+            display, configurationsList[i], EGL10.EGL_MAX_PBUFFER_WIDTH, textureSize);
+
+        // Keep track of the maximum texture size
+        if (maximumTextureSize < textureSize[0]) {
+          maximumTextureSize = textureSize[0];
+        }
+      }
+
+      // Release
+      egl.eglTerminate(display);
+
+      // Return largest texture size found, or default
+      return Math.max(maximumTextureSize, IMAGE_MAX_BITMAP_DIMENSION);
+    } catch (Exception e) {
+      return IMAGE_MAX_BITMAP_DIMENSION;
+    }
+  }
+  // endregion
+}
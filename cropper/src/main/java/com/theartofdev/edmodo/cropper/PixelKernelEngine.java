@@ -0,0 +1,498 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Process;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Crop, rotate by 0, 90, 180 or 270 degrees, flip and area averaging downscale of bitmap on all the
+ * device cores, instead of a single platform draw on the cropping thread.<br>
+ * The output is split to stripes of rows, each stripe reads the source pixels it covers to an int
+ * array, averages each output pixel box and writes its rows to the output bitmap. Stripes are
+ * pulled by the calling thread and by helper threads of a pool sized to the device cores, so the
+ * crop completes even if the pool is busy.<br>
+ * Not used for upscale (box filter is nearest neighbor) or non straight angle, see {@link
+ * #setEnabled(boolean)}.
+ */
+final class PixelKernelEngine {
+
+  // region: Fields and Consts
+
+  /** The max pixels of source stripe read at once */
+  private static final int MAX_STRIPE_PIXELS = 512 * 1024;
+
+  /** The number of stripes per thread, so threads finishing early pick up the slack */
+  private static final int STRIPES_PER_THREAD = 4;
+
+  /** The number of device cores, the stripe threads including the calling thread */
+  private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  /** if the engine is used by the cropping task, by default the platform draw is used */
+  private static volatile boolean mEnabled;
+
+  /** The pool of the helper stripe threads, created on first use */
+  private static ThreadPoolExecutor mExecutor;
+  // endregion
+
+  private PixelKernelEngine() {}
+
+  /** if the engine is used by the cropping task. */
+  static boolean isEnabled() {
+    return mEnabled;
+  }
+
+  /** Set if the engine is used by the cropping task. */
+  static void setEnabled(boolean enabled) {
+    mEnabled = enabled;
+  }
+
+  /**
+   * Crop image bitmap from given bitmap using the given points in the original bitmap, rotate, flip
+   * and resize to the requested size, the same as {@link BitmapUtils#cropBitmapObjectHandleOOM}.
+   *
+   * @return the cropped bitmap or null if the engine doesn't support the crop and the platform draw
+   *     should be used
+   */
+  static BitmapUtils.BitmapSampled crop(
+      Bitmap bitmap,
+      float[] points,
+      int degreesRotated,
+      boolean fixAspectRatio,
+      int aspectRatioX,
+      int aspectRatioY,
+      boolean flipHorizontally,
+      boolean flipVertically,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      CancellationToken token) {
+    if (degreesRotated % 90 != 0 || !isReadable(bitmap)) {
+      return null;
+    }
+
+    // the crop rectangle in the rotated and flipped coordinates and back in the source coordinates
+    Matrix matrix = new Matrix();
+    Rect rotatedRect =
+        BitmapUtils.getTransformedCropRect(
+            bitmap,
+            points,
+            degreesRotated,
+            fixAspectRatio,
+            aspectRatioX,
+            aspectRatioY,
+            flipHorizontally,
+            flipVertically,
+            matrix);
+    Matrix inverse = new Matrix();
+    matrix.invert(inverse);
+    RectF sourceRect = new RectF(rotatedRect);
+    inverse.mapRect(sourceRect);
+    Rect rect = new Rect();
+    sourceRect.round(rect);
+    rect.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+
+    int[] size =
+        BitmapUtils.getResizedSize(
+            rotatedRect.width(), rotatedRect.height(), reqWidth, reqHeight, options);
+    Bitmap result =
+        transform(
+            bitmap,
+            rect,
+            degreesRotated,
+            flipHorizontally,
+            flipVertically,
+            size[0],
+            size[1],
+            token);
+    return result != null ? new BitmapUtils.BitmapSampled(result, 1) : null;
+  }
+
+  /**
+   * Resize the given bitmap by the request size option, the same as {@link
+   * BitmapUtils#resizeBitmap}, the given bitmap is returned to the pool if resized.
+   *
+   * @return the resized bitmap or null if the engine doesn't support the resize and the platform
+   *     draw should be used
+   */
+  static Bitmap resize(
+      Bitmap bitmap,
+      int reqWidth,
+      int reqHeight,
+      CropImageView.RequestSizeOptions options,
+      CancellationToken token) {
+    if (!isReadable(bitmap)) {
+      return null;
+    }
+    int[] size =
+        BitmapUtils.getResizedSize(
+            bitmap.getWidth(), bitmap.getHeight(), reqWidth, reqHeight, options);
+    if (size[0] == bitmap.getWidth() && size[1] == bitmap.getHeight()) {
+      return bitmap;
+    }
+    Bitmap result =
+        transform(
+            bitmap,
+            new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight()),
+            0,
+            false,
+            false,
+            size[0],
+            size[1],
+            token);
+    if (result != null) {
+      BitmapPool.getInstance().put(bitmap);
+    }
+    return result;
+  }
+
+  /**
+   * Average the source box of each output pixel of the given stripe of output rows.<br>
+   * The box of output column x is [colStart[x], colEnd[x]) and of output row y is [rowStart[y],
+   * rowEnd[y]) in the rotated and flipped crop coordinates, mapped back to the source crop
+   * coordinates by the rotation. Colors are averaged weighted by alpha so transparent pixels don't
+   * darken the edges.
+   *
+   * @param src the source pixels of the block in the crop coordinates, row by row
+   * @param blockLeft the left of the source block read to the source pixels, in the crop
+   *     coordinates
+   * @param blockTop the top of the source block read to the source pixels, in the crop coordinates
+   * @param blockWidth the width of the source block, the row stride of the source pixels
+   * @param cropWidth the width of the crop in the source coordinates
+   * @param cropHeight the height of the crop in the source coordinates
+   * @param dst the output pixels of the stripe, row by row
+   */
+  static void resampleStripe(
+      int[] src,
+      int blockLeft,
+      int blockTop,
+      int blockWidth,
+      int cropWidth,
+      int cropHeight,
+      int degreesRotated,
+      int[] colStart,
+      int[] colEnd,
+      int[] rowStart,
+      int[] rowEnd,
+      int firstRow,
+      int lastRow,
+      int[] dst) {
+    int width = colStart.length;
+    int degrees = ((degreesRotated % 360) + 360) % 360;
+    for (int y = firstRow; y < lastRow; y++) {
+      int dstOffset = (y - firstRow) * width;
+      for (int x = 0; x < width; x++) {
+        int left;
+        int top;
+        int right;
+        int bottom;
+        if (degrees == 90) {
+          left = rowStart[y];
+          right = rowEnd[y];
+          top = cropHeight - colEnd[x];
+          bottom = cropHeight - colStart[x];
+        } else if (degrees == 180) {
+          left = cropWidth - colEnd[x];
+          right = cropWidth - colStart[x];
+          top = cropHeight - rowEnd[y];
+          bottom = cropHeight - rowStart[y];
+        } else if (degrees == 270) {
+          left = cropWidth - rowEnd[y];
+          right = cropWidth - rowStart[y];
+          top = colStart[x];
+          bottom = colEnd[x];
+        } else {
+          left = colStart[x];
+          right = colEnd[x];
+          top = rowStart[y];
+          bottom = rowEnd[y];
+        }
+
+        long a = 0;
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        for (int sy = top; sy < bottom; sy++) {
+          int offset = (sy - blockTop) * blockWidth - blockLeft;
+          for (int sx = left; sx < right; sx++) {
+            int color = src[offset + sx];
+            int alpha = color >>> 24;
+            a += alpha;
+            r += alpha * ((color >> 16) & 0xFF);
+            g += alpha * ((color >> 8) & 0xFF);
+            b += alpha * (color & 0xFF);
+          }
+        }
+        int count = (right - left) * (bottom - top);
+        dst[dstOffset + x] =
+            a == 0
+                ? 0
+                : (int) (a / count) << 24
+                    | (int) (r / a) << 16
+                    | (int) (g / a) << 8
+                    | (int) (b / a);
+      }
+    }
+  }
+
+  /**
+   * Set the box of each output pixel in the given axis of the given source length, area of source
+   * pixels of at least one pixel, mirrored if flipped.
+   */
+  static void setBoxes(int[] start, int[] end, int length, boolean flip) {
+    int count = start.length;
+    for (int i = 0; i < count; i++) {
+      int from = (int) ((long) i * length / count);
+      int to = Math.max(from + 1, (int) ((long) (i + 1) * length / count));
+      int index = flip ? count - 1 - i : i;
+      start[index] = from;
+      end[index] = to;
+    }
+  }
+
+  // region: Private methods
+
+  /**
+   * Crop the given rectangle of the source, rotate, flip and downscale it to a pooled bitmap of the
+   * given output size in parallel stripes.
+   *
+   * @return the output bitmap or null if upscale is required
+   */
+  private static Bitmap transform(
+      final Bitmap bitmap,
+      final Rect rect,
+      final int degreesRotated,
+      boolean flipHorizontally,
+      boolean flipVertically,
+      final int width,
+      final int height,
+      final CancellationToken token) {
+    boolean swap = degreesRotated % 180 != 0;
+    int rotatedWidth = swap ? rect.height() : rect.width();
+    int rotatedHeight = swap ? rect.width() : rect.height();
+    if (rect.isEmpty() || width > rotatedWidth || height > rotatedHeight) {
+      return null;
+    }
+
+    // the box of each output column and row in the rotated and flipped crop coordinates
+    final int[] colStart = new int[width];
+    final int[] colEnd = new int[width];
+    final int[] rowStart = new int[height];
+    final int[] rowEnd = new int[height];
+    setBoxes(colStart, colEnd, rotatedWidth, flipHorizontally);
+    setBoxes(rowStart, rowEnd, rotatedHeight, flipVertically);
+
+    // stripe rows so the source block of a stripe fits the max stripe pixels
+    int sourcePerRow =
+        (swap ? rect.height() : rect.width()) * ((rotatedHeight + height - 1) / height + 1);
+    final int stripeRows =
+        Math.max(
+            1,
+            Math.min(
+                (height + THREADS * STRIPES_PER_THREAD - 1) / (THREADS * STRIPES_PER_THREAD),
+                MAX_STRIPE_PIXELS / sourcePerRow));
+    final int stripes = (height + stripeRows - 1) / stripeRows;
+
+    final Bitmap output =
+        BitmapPool.getInstance().getOrCreate(width, height, Bitmap.Config.ARGB_8888);
+    output.setDensity(bitmap.getDensity());
+    output.setHasAlpha(bitmap.hasAlpha());
+
+    final AtomicInteger next = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(stripes);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    Runnable worker =
+        new Runnable() {
+          @Override
+          public void run() {
+            int[] src = null;
+            int[] dst = null;
+            Rect block = new Rect();
+            int stripe;
+            while ((stripe = next.getAndIncrement()) < stripes) {
+              try {
+                if (error.get() != null || (token != null && token.isCancelled())) {
+                  continue;
+                }
+                int firstRow = stripe * stripeRows;
+                int lastRow = Math.min(height, firstRow + stripeRows);
+                getSourceBlock(
+                    rect,
+                    degreesRotated,
+                    colStart,
+                    colEnd,
+                    rowStart,
+                    rowEnd,
+                    firstRow,
+                    lastRow,
+                    block);
+                int blockPixels = block.width() * block.height();
+                if (src == null || src.length < blockPixels) {
+                  src = new int[blockPixels];
+                }
+                if (dst == null || dst.length < width * (lastRow - firstRow)) {
+                  dst = new int[width * stripeRows];
+                }
+                bitmap.getPixels(
+                    src,
+                    0,
+                    block.width(),
+                    rect.left + block.left,
+                    rect.top + block.top,
+                    block.width(),
+                    block.height());
+                resampleStripe(
+                    src,
+                    block.left,
+                    block.top,
+                    block.width(),
+                    rect.width(),
+                    rect.height(),
+                    degreesRotated,
+                    colStart,
+                    colEnd,
+                    rowStart,
+                    rowEnd,
+                    firstRow,
+                    lastRow,
+                    dst);
+                synchronized (output) {
+                  output.setPixels(dst, 0, width, 0, firstRow, width, lastRow - firstRow);
+                }
+              } catch (Throwable e) {
+                error.compareAndSet(null, e);
+              } finally {
+                done.countDown();
+              }
+            }
+          }
+        };
+
+    ThreadPoolExecutor executor = getExecutor();
+    for (int i = 1; i < Math.min(THREADS, stripes); i++) {
+      executor.execute(worker);
+    }
+    worker.run();
+
+    // helpers still write to the output, cancel by the token makes them skip remaining stripes
+    boolean interrupted = false;
+    while (done.getCount() > 0) {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    Throwable e = error.get();
+    if (e != null) {
+      BitmapPool.getInstance().put(output);
+      if (e instanceof Error) {
+        throw (Error) e;
+      }
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+    CancellationToken.check(token, "pixel stripes", output);
+    return output;
+  }
+
+  /**
+   * Get the block of the crop in the source crop coordinates covered by the boxes of the given
+   * output rows.
+   */
+  private static void getSourceBlock(
+      Rect rect,
+      int degreesRotated,
+      int[] colStart,
+      int[] colEnd,
+      int[] rowStart,
+      int[] rowEnd,
+      int firstRow,
+      int lastRow,
+      Rect block) {
+    int from = Integer.MAX_VALUE;
+    int to = 0;
+    for (int y = firstRow; y < lastRow; y++) {
+      from = Math.min(from, rowStart[y]);
+      to = Math.max(to, rowEnd[y]);
+    }
+    int degrees = ((degreesRotated % 360) + 360) % 360;
+    if (degrees == 90) {
+      block.set(from, 0, to, rect.height());
+    } else if (degrees == 180) {
+      block.set(0, rect.height() - to, rect.width(), rect.height() - from);
+    } else if (degrees == 270) {
+      block.set(rect.width() - to, 0, rect.width() - from, rect.height());
+    } else {
+      block.set(0, from, rect.width(), to);
+    }
+  }
+
+  /** if the pixels of the given bitmap can be read by the engine. */
+  private static boolean isReadable(Bitmap bitmap) {
+    return bitmap != null
+        && !bitmap.isRecycled()
+        && (Build.VERSION.SDK_INT < Build.VERSION_CODES.O
+            || bitmap.getConfig() != Bitmap.Config.HARDWARE);
+  }
+
+  /** Get the pool of the helper stripe threads, created on first use. */
+  private static synchronized ThreadPoolExecutor getExecutor() {
+    if (mExecutor == null) {
+      mExecutor =
+          new ThreadPoolExecutor(
+              THREADS,
+              THREADS,
+              30,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(),
+              new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                  Thread thread =
+                      new Thread(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                              runnable.run();
+                            }
+                          },
+                          "AIC pixels #" + mCount.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+      mExecutor.allowCoreThreadTimeOut(true);
+    }
+    return mExecutor;
+  }
+  // endregion
+}
@@ -0,0 +1,323 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Region decoder of the image loaded from URI shared by the crop requests, their OOM retries and
+ * the zoom tiles so the image file is parsed once per loaded image.<br>
+ * The decoder is opened lazily on first decode. The session is reference counted, the owner (crop
+ * image view) holds the first reference and every other user must {@link #acquire()} and {@link
+ * #release()} it, the decoder is recycled when the last reference is released and no decode is
+ * running, by the thread that finishes the last decode.<br>
+ * All decodes are serialized on the session decode lock as the region decoder is single threaded.
+ * The reference count is guarded by a separate state lock that is never held while decoding, so
+ * release from the main thread doesn't wait for a decode in progress.<br>
+ * The region decoder is of the current decoder backend, only the default Android backend decodes
+ * into pooled bitmaps.
+ */
+final class RegionDecoderSession {
+
+  // region: Fields and Consts
+
+  /** Used to open the URI */
+  private final Context mContext;
+
+  /** The Android URI of the image */
+  private final Uri mUri;
+
+  /** Guards the reference count and the running decodes count, never held while decoding */
+  private final Object mStateLock = new Object();
+
+  /** Serializes the opening of the decoder and the decodes */
+  private final Object mDecodeLock = new Object();
+
+  /** The region decoder of the decoder backend, null until opened or after closed */
+  private volatile ImageDecoderSpi.Region<Bitmap> mDecoder;
+
+  /** The error of opening the decoder, to not retry to open image that is not supported */
+  private IOException mOpenError;
+
+  /** The number of users of the session, the decoder is recycled when it reaches 0 */
+  private int mRefCount = 1;
+
+  /** The number of decodes (or opens) running or waiting for the decode lock */
+  private int mRunning;
+
+  /** The number of regions decoded by the session */
+  private int mDecodeCount;
+
+  /** The time it took to open the region decoder */
+  private volatile long mSetupNanos;
+
+  /** The width of the image, 0 until the decoder is opened */
+  private volatile int mWidth;
+
+  /** The height of the image, 0 until the decoder is opened */
+  private volatile int mHeight;
+
+  /** if opening the region decoder failed, the image doesn't support region decoding */
+  private volatile boolean mFailed;
+  // endregion
+
+  /** Create session for the given image URI, the decoder is not opened until used. */
+  RegionDecoderSession(Context context, Uri uri) {
+    mContext = context.getApplicationContext();
+    mUri = uri;
+  }
+
+  /** The Android URI of the image. */
+  Uri getUri() {
+    return mUri;
+  }
+
+  /**
+   * Acquire another reference to the session.
+   *
+   * @return this session or null if the session was already closed
+   */
+  RegionDecoderSession acquire() {
+    synchronized (mStateLock) {
+      if (mRefCount < 1) {
+        return null;
+      }
+      mRefCount++;
+      return this;
+    }
+  }
+
+  /**
+   * Release a reference to the session, the decoder is recycled when no references are left, now
+   * if no decode is running or else by the thread that finishes the last decode.<br>
+   * Doesn't wait for a decode in progress, safe to call on the main thread.
+   */
+  void release() {
+    boolean close;
+    synchronized (mStateLock) {
+      close = mRefCount > 0 && --mRefCount == 0 && mRunning == 0;
+    }
+    if (close) {
+      closeDecoder();
+    }
+  }
+
+  /**
+   * Decode the given rectangle of the image, opening the decoder if not yet opened.<br>
+   * Blocks while other decode is in progress.
+   *
+   * @throws IOException if the session is closed or the image cannot be region decoded
+   */
+  Bitmap decodeRegion(Rect rect, BitmapFactory.Options options) throws IOException {
+    beginDecode(true);
+    try {
+      synchronized (mDecodeLock) {
+        ImageDecoderSpi.Region<Bitmap> decoder = openLocked();
+        if (decoder instanceof AndroidImageDecoder.AndroidRegion) {
+          return ((AndroidImageDecoder.AndroidRegion) decoder).decodeRegion(rect, options);
+        }
+        // other backends don't decode into pooled bitmap
+        BitmapPool.getInstance().put(options.inBitmap);
+        options.inBitmap = null;
+        return decoder.decodeRegion(
+            rect.left, rect.top, rect.right, rect.bottom, options.inSampleSize);
+      }
+    } finally {
+      endDecode();
+    }
+  }
+
+  /**
+   * Open the region decoder if not yet opened, blocks while other decode is in progress.
+   *
+   * @throws IOException if the session is closed or the image cannot be region decoded
+   */
+  void open() throws IOException {
+    beginDecode(false);
+    try {
+      synchronized (mDecodeLock) {
+        openLocked();
+      }
+    } finally {
+      endDecode();
+    }
+  }
+
+  /** The width of the image, 0 if the decoder is not open yet. */
+  int getWidth() {
+    return mWidth;
+  }
+
+  /** The height of the image, 0 if the decoder is not open yet. */
+  int getHeight() {
+    return mHeight;
+  }
+
+  /** if opening the region decoder failed, the image doesn't support region decoding. */
+  boolean isFailed() {
+    return mFailed;
+  }
+
+  /** The time in milliseconds it took to open the region decoder, 0 if not opened yet. */
+  float getSetupMillis() {
+    return mSetupNanos / 1000000f;
+  }
+
+  /** The number of regions decoded by the session. */
+  int getDecodeCount() {
+    synchronized (mStateLock) {
+      return mDecodeCount;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RegionDecoderSession{uri="
+        + mUri
+        + ", setupMs="
+        + getSetupMillis()
+        + ", decodes="
+        + getDecodeCount()
+        + "}";
+  }
+
+  // region: Private methods
+
+  /**
+   * Start a decode (or open) of the session, counted so a concurrent release doesn't recycle the
+   * decoder under it.
+   *
+   * @param decode if region decode to count, false for open
+   * @throws IOException if the session is closed
+   */
+  private void beginDecode(boolean decode) throws IOException {
+    synchronized (mStateLock) {
+      if (mRefCount < 1) {
+        throw new IOException("Region decoder session is closed: " + mUri);
+      }
+      mRunning++;
+      if (decode) {
+        mDecodeCount++;
+      }
+    }
+  }
+
+  /** End decode started by {@link #beginDecode(boolean)}, recycle the decoder if session closed. */
+  private void endDecode() {
+    boolean close;
+    synchronized (mStateLock) {
+      close = --mRunning == 0 && mRefCount == 0;
+    }
+    if (close) {
+      closeDecoder();
+    }
+  }
+
+  /** Get the region decoder, opening it if not yet opened, must hold the decode lock. */
+  private ImageDecoderSpi.Region<Bitmap> openLocked() throws IOException {
+    if (mDecoder == null) {
+      openDecoder();
+    }
+    return mDecoder;
+  }
+
+  /**
+   * Recycle the decoder of the closed session, called once no reference is left and no decode is
+   * running so nothing else can use the decoder.
+   */
+  private void closeDecoder() {
+    ImageDecoderSpi.Region<Bitmap> decoder = mDecoder;
+    mDecoder = null;
+    BitmapUtils.closeSafe(decoder);
+  }
+
+  /** Open the region decoder, by file descriptor if possible so it can seek instead of buffer. */
+  private void openDecoder() throws IOException {
+    if (mOpenError != null) {
+      throw mOpenError;
+    }
+    long start = System.nanoTime();
+    ImageDecoderSpi<Bitmap> decoder = BitmapUtils.getImageDecoder();
+    ImageMetadataCache metadataCache = null;
+    ImageSource.Version version = null;
+    try {
+      if (decoder == AndroidImageDecoder.INSTANCE) {
+        // don't probe again image content already known not to be region decodable
+        metadataCache = ImageMetadataCache.getInstance(mContext);
+        version = ImageSource.getVersion(mContext, mUri);
+        ImageMetadataCache.Entry metadata = metadataCache.get(mUri, version);
+        if (metadata != null && !metadata.regionDecodable) {
+          throw new IOException("Image is known not to be region decodable: " + mUri);
+        }
+        mDecoder = openByFileDescriptor();
+      }
+      if (mDecoder == null) {
+        InputStream stream = null;
+        try {
+          stream = mContext.getContentResolver().openInputStream(mUri);
+          if (stream == null) {
+            throw new FileNotFoundException("Failed to open image stream: " + mUri);
+          }
+          mDecoder = decoder.openRegion(stream);
+        } finally {
+          BitmapUtils.closeSafe(stream);
+        }
+      }
+      mWidth = mDecoder.getWidth();
+      mHeight = mDecoder.getHeight();
+      if (metadataCache != null) {
+        metadataCache.setRegionDecodable(mUri, version, true);
+      }
+    } catch (IOException e) {
+      Log.w("AIC", "Failed to open region decoder: " + mUri, e);
+      mFailed = true;
+      mOpenError = e;
+      if (metadataCache != null && !(e instanceof FileNotFoundException)) {
+        metadataCache.setRegionDecodable(mUri, version, false);
+      }
+      throw e;
+    } finally {
+      mSetupNanos = System.nanoTime() - start;
+    }
+  }
+
+  /** Open the region decoder by the URI file descriptor, null if not available. */
+  private ImageDecoderSpi.Region<Bitmap> openByFileDescriptor() {
+    ParcelFileDescriptor fd = null;
+    try {
+      fd = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+      return fd != null ? AndroidImageDecoder.INSTANCE.openRegion(fd.getFileDescriptor()) : null;
+    } catch (Exception e) {
+      return null;
+    } finally {
+      // the decoder duplicates the descriptor
+      if (fd != null) {
+        try {
+          fd.close();
+        } catch (Exception ignored) {
+        }
+      }
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,358 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.ImageView;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * View drawing full resolution tiles of the cropping image over the sampled bitmap shown in the
+ * image view when zoomed in beyond the bitmap resolution.<br>
+ * Tiles are decoded by the region decoder session of the loaded image on a background thread at
+ * the sample size the current image matrix scale requires, only for the visible area, and kept in
+ * a cache bounded by the view size so memory doesn't depend on the image size.
+ */
+public class TileImageView extends View {
+
+  // region: Fields and Consts
+
+  /** The size of a tile in decoded pixels */
+  private static final int TILE_SIZE = 512;
+
+  /**
+   * Single background thread to decode tiles, region decoder is single threaded anyway.<br>
+   * Newest requests are executed first so the currently visible tiles are decoded first on pan.
+   */
+  private static final ThreadPoolExecutor TILE_EXECUTOR =
+      new ThreadPoolExecutor(
+          1,
+          1,
+          0,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+              return offerFirst(runnable);
+            }
+          });
+
+  /** The image view that shows the sampled bitmap, its image matrix is used to draw the tiles */
+  private ImageView mImageView;
+
+  /**
+   * The region decoder session of the image to decode tiles from, null if tiles are not used.<br>
+   * Owned by the crop image view that clears the tiles before closing it.
+   */
+  private RegionDecoderSession mSession;
+
+  /** Incremented when the tiles are released so decodes still in progress are discarded */
+  private int mGeneration;
+
+  /** The sample size of the bitmap shown in the image view */
+  private int mLoadedSampleSize;
+
+  /** The width of the full image (estimated from the shown bitmap until decoder is open) */
+  private int mImageWidth;
+
+  /** The height of the full image (estimated from the shown bitmap until decoder is open) */
+  private int mImageHeight;
+
+  /** The decoded tiles by tile key in access order (LRU first) */
+  private final LinkedHashMap<Long, Bitmap> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The keys of the tiles that are requested to decode */
+  private final HashSet<Long> mPendingTiles = new HashSet<>();
+
+  /** The total size in bytes of the decoded tiles */
+  private int mTilesSize;
+
+  /** The max total size in bytes of the decoded tiles, by the view size */
+  private int mMaxTilesSize;
+
+  /** The sample size of the tiles currently drawn, requests of other sample are skipped */
+  private volatile int mCurrentSampleSize;
+
+  /** Used to draw tiles by the image matrix */
+  private final Matrix mDrawMatrix = new Matrix();
+
+  /** Used to map the view rectangle to image coordinates */
+  private final Matrix mInverseMatrix = new Matrix();
+
+  /** Used to read the image matrix scale */
+  private final float[] mMatrixValues = new float[9];
+
+  /** Used to get the visible rectangle of the image */
+  private final RectF mVisibleRect = new RectF();
+
+  /** Used to draw the tiles with filtering */
+  private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  // endregion
+
+  public TileImageView(Context context) {
+    this(context, null);
+  }
+
+  public TileImageView(Context context, AttributeSet attrs) {
+    super(context, attrs);
+  }
+
+  /** Set the image view showing the sampled bitmap to draw the tiles over. */
+  void setImageView(ImageView imageView) {
+    mImageView = imageView;
+  }
+
+  /**
+   * Set the image to draw tiles of.<br>
+   * Tiles are used only for opaque image loaded from URI with sample size larger than 1, for any
+   * other image the tiles are cleared.
+   *
+   * @param session the region decoder session of the image the bitmap was loaded from
+   * @param bitmap the bitmap shown in the image view
+   * @param loadedSampleSize the sample size the bitmap was loaded with
+   */
+  void setImage(RegionDecoderSession session, Bitmap bitmap, int loadedSampleSize) {
+    clearImage();
+    if (session != null && bitmap != null && loadedSampleSize > 1 && !bitmap.hasAlpha()) {
+      mSession = session;
+      mLoadedSampleSize = loadedSampleSize;
+      mImageWidth = bitmap.getWidth() * loadedSampleSize;
+      mImageHeight = bitmap.getHeight() * loadedSampleSize;
+    }
+    invalidate();
+  }
+
+  /** Clear the image and release all the tiles. */
+  void clearImage() {
+    releaseTiles();
+    mSession = null;
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    // keep the image so tiles are decoded again if attached again
+    releaseTiles();
+  }
+
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    super.onSizeChanged(w, h, oldw, oldh);
+    // twice the tiles that can be visible at once
+    int tiles = (w / TILE_SIZE + 2) * (h / TILE_SIZE + 2);
+    mMaxTilesSize = 2 * tiles * TILE_SIZE * TILE_SIZE * 2;
+    trimToSize(mMaxTilesSize);
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    super.onDraw(canvas);
+    if (mSession == null
+        || mSession.isFailed()
+        || mImageView == null
+        || mImageView.getDrawable() == null) {
+      return;
+    }
+    if (mSession.getWidth() > 0) {
+      mImageWidth = mSession.getWidth();
+      mImageHeight = mSession.getHeight();
+    }
+
+    // the image pixels per view pixel of the current image matrix
+    Matrix imageMatrix = mImageView.getImageMatrix();
+    imageMatrix.getValues(mMatrixValues);
+    float scale =
+        (float)
+            Math.sqrt(
+                Math.abs(
+                    mMatrixValues[Matrix.MSCALE_X] * mMatrixValues[Matrix.MSCALE_Y]
+                        - mMatrixValues[Matrix.MSKEW_X] * mMatrixValues[Matrix.MSKEW_Y]));
+    float imagePerViewPixel = mLoadedSampleSize / scale;
+    int sampleSize = 1;
+    while (sampleSize * 2 <= imagePerViewPixel) {
+      sampleSize *= 2;
+    }
+    if (sampleSize >= mLoadedSampleSize) {
+      // the shown bitmap has enough resolution
+      mCurrentSampleSize = 0;
+      return;
+    }
+    mCurrentSampleSize = sampleSize;
+
+    // the visible rectangle in full image coordinates
+    imageMatrix.invert(mInverseMatrix);
+    mVisibleRect.set(0, 0, getWidth(), getHeight());
+    mInverseMatrix.mapRect(mVisibleRect);
+    mVisibleRect.left *= mLoadedSampleSize;
+    mVisibleRect.top *= mLoadedSampleSize;
+    mVisibleRect.right *= mLoadedSampleSize;
+    mVisibleRect.bottom *= mLoadedSampleSize;
+
+    int tileImageSize = TILE_SIZE * sampleSize;
+    int cols = (mImageWidth + tileImageSize - 1) / tileImageSize;
+    int rows = (mImageHeight + tileImageSize - 1) / tileImageSize;
+    int left = Math.max(0, (int) (mVisibleRect.left / tileImageSize));
+    int top = Math.max(0, (int) (mVisibleRect.top / tileImageSize));
+    int right = Math.min(cols - 1, (int) (mVisibleRect.right / tileImageSize));
+    int bottom = Math.min(rows - 1, (int) (mVisibleRect.bottom / tileImageSize));
+
+    for (int row = top; row <= bottom; row++) {
+      for (int col = left; col <= right; col++) {
+        long key = getTileKey(sampleSize, col, row);
+        Bitmap tile = mTiles.get(key);
+        if (tile != null) {
+          mDrawMatrix.set(imageMatrix);
+          mDrawMatrix.preScale(1f / mLoadedSampleSize, 1f / mLoadedSampleSize);
+          mDrawMatrix.preTranslate(col * tileImageSize, row * tileImageSize);
+          mDrawMatrix.preScale(sampleSize, sampleSize);
+          canvas.drawBitmap(tile, mDrawMatrix, mPaint);
+        } else if (mPendingTiles.add(key)) {
+          Rect rect =
+              new Rect(
+                  col * tileImageSize,
+                  row * tileImageSize,
+                  (col + 1) * tileImageSize,
+                  (row + 1) * tileImageSize);
+          TILE_EXECUTOR.execute(new TileTask(mSession, mGeneration, key, rect, sampleSize));
+        }
+      }
+    }
+  }
+
+  // region: Private methods
+
+  /** On tile decoded add it to the tiles cache if still relevant and redraw. */
+  private void onTileDecoded(int generation, long key, Bitmap tile) {
+    if (generation != mGeneration) {
+      BitmapPool.getInstance().put(tile);
+      return;
+    }
+    mPendingTiles.remove(key);
+    if (tile != null) {
+      mTiles.put(key, tile);
+      mTilesSize += tile.getRowBytes() * tile.getHeight();
+      trimToSize(mMaxTilesSize);
+      invalidate();
+    }
+  }
+
+  /** Return the least recently used tiles to the bitmap pool until the size is not larger. */
+  private void trimToSize(int maxSize) {
+    Iterator<Map.Entry<Long, Bitmap>> iterator = mTiles.entrySet().iterator();
+    while (mTilesSize > maxSize && iterator.hasNext()) {
+      Bitmap tile = iterator.next().getValue();
+      iterator.remove();
+      mTilesSize -= tile.getRowBytes() * tile.getHeight();
+      BitmapPool.getInstance().put(tile);
+    }
+  }
+
+  /** Release all the tiles, pending decodes are discarded. */
+  private void releaseTiles() {
+    trimToSize(-1);
+    mPendingTiles.clear();
+    mCurrentSampleSize = 0;
+    mGeneration++;
+  }
+
+  /** Get unique key of the tile by its sample size, column and row. */
+  private static long getTileKey(int sampleSize, int col, int row) {
+    return (long) sampleSize << 48 | (long) col << 24 | row;
+  }
+  // endregion
+
+  // region: Inner class: TileTask
+
+  /** Background task to decode single tile and post it back to the view. */
+  private final class TileTask implements Runnable {
+
+    private final RegionDecoderSession mTaskSession;
+
+    private final int mTaskGeneration;
+
+    private final long mKey;
+
+    private final Rect mRect;
+
+    private final int mSampleSize;
+
+    TileTask(RegionDecoderSession session, int generation, long key, Rect rect, int sampleSize) {
+      mTaskSession = session;
+      mTaskGeneration = generation;
+      mKey = key;
+      mRect = rect;
+      mSampleSize = sampleSize;
+    }
+
+    @Override
+    public void run() {
+      // skip tiles of zoom level that is no longer shown
+      final Bitmap tile = mSampleSize == mCurrentSampleSize ? decodeTile() : null;
+      post(
+          new Runnable() {
+            @Override
+            public void run() {
+              onTileDecoded(mTaskGeneration, mKey, tile);
+            }
+          });
+    }
+
+    /** Decode the tile region by the session, null if the session is closed or failed. */
+    private Bitmap decodeTile() {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      try {
+        mTaskSession.open();
+        if (!mRect.intersect(0, 0, mTaskSession.getWidth(), mTaskSession.getHeight())) {
+          return null;
+        }
+        options.inSampleSize = mSampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+          options.inMutable = true;
+          options.inBitmap =
+              BitmapPool.getInstance()
+                  .getDirty(
+                      (mRect.width() + mSampleSize - 1) / mSampleSize,
+                      (mRect.height() + mSampleSize - 1) / mSampleSize,
+                      Bitmap.Config.RGB_565);
+        }
+        return mTaskSession.decodeRegion(mRect, options);
+      } catch (OutOfMemoryError e) {
+        BitmapPool.getInstance().put(options.inBitmap);
+        return null;
+      } catch (Exception e) {
+        // the session was closed or the image doesn't support region decoding
+        BitmapPool.getInstance().put(options.inBitmap);
+        return null;
+      }
+    }
+  }
+  // endregion
+}
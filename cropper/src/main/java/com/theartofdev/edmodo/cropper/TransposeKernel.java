@@ -0,0 +1,132 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Rotation by 90 or 270 degrees with flip of ARGB_8888 bitmap by a cache blocked transpose of its
+ * pixels, instead of a matrix draw that walks the source in columns for every destination row.<br>
+ * The source is read in bands of rows, each band is transposed in small square blocks so both the
+ * reads and the writes of a block stay in cache, and written as a band of columns to the pooled
+ * destination bitmap. The band buffers are kept per thread and reused by the next rotation of the
+ * thread, up to the max band pixels.
+ */
+final class TransposeKernel {
+
+  // region: Fields and Consts
+
+  /** The side of the square block transposed at once, 32x32 pixels are 4KB on each side */
+  private static final int BLOCK = 32;
+
+  /** The max pixels of a band of source rows, and of the band buffers kept per thread */
+  private static final int MAX_BAND_PIXELS = 256 * 1024;
+
+  /** The source and destination band buffers of each thread, reused by its next rotation */
+  private static final ThreadLocal<int[][]> mBuffers =
+      new ThreadLocal<int[][]>() {
+        @Override
+        protected int[][] initialValue() {
+          return new int[2][0];
+        }
+      };
+  // endregion
+
+  private TransposeKernel() {}
+
+  /**
+   * Rotate the given rectangle of the given bitmap by 90 or 270 degrees and flip it, the same as
+   * drawing it by rotation matrix followed by flip scale, into a bitmap taken from the bitmap pool.
+   *
+   * @return the rotated bitmap or null if not rotation by 90 or 270 degrees or not ARGB_8888 bitmap
+   *     so matrix draw should be used
+   */
+  static Bitmap rotate(
+      Bitmap bitmap, Rect rect, int degrees, boolean flipHorizontally, boolean flipVertically) {
+    degrees = ((degrees % 360) + 360) % 360;
+    if ((degrees != 90 && degrees != 270)
+        || bitmap.isRecycled()
+        || bitmap.getConfig() != Bitmap.Config.ARGB_8888
+        || rect.isEmpty()) {
+      return null;
+    }
+    int width = rect.width();
+    int height = rect.height();
+
+    // source row y goes to destination column, mirrored for 90 unless flipped horizontally;
+    // source column x goes to destination row, mirrored for 270 unless flipped vertically
+    boolean mirrorRows = degrees == 90 ? !flipHorizontally : flipHorizontally;
+    boolean mirrorCols = degrees == 90 ? flipVertically : !flipVertically;
+
+    Bitmap result = BitmapPool.getInstance().getOrCreate(height, width, Bitmap.Config.ARGB_8888);
+    result.setDensity(bitmap.getDensity());
+    result.setHasAlpha(bitmap.hasAlpha());
+
+    int bandRows = Math.max(BLOCK, MAX_BAND_PIXELS / width / BLOCK * BLOCK);
+    int[][] buffers = getBuffers(width * Math.min(bandRows, height));
+    int[] src = buffers[0];
+    int[] dst = buffers[1];
+    for (int top = 0; top < height; top += bandRows) {
+      int rows = Math.min(bandRows, height - top);
+      bitmap.getPixels(src, 0, width, rect.left, rect.top + top, width, rows);
+      transpose(src, width, rows, dst, mirrorRows, mirrorCols);
+      result.setPixels(dst, 0, rows, mirrorRows ? height - top - rows : top, 0, rows, width);
+    }
+    return result;
+  }
+
+  /**
+   * Transpose the given pixels of the given rows of the given width in square blocks.<br>
+   * Pixel (x, y) of the source goes to pixel (y, x) of the destination, of width of the given
+   * rows, mirrored by the given flags.
+   *
+   * @param mirrorRows source row y goes to destination column rows - 1 - y
+   * @param mirrorCols source column x goes to destination row width - 1 - x
+   */
+  static void transpose(
+      int[] src, int width, int rows, int[] dst, boolean mirrorRows, boolean mirrorCols) {
+    for (int blockY = 0; blockY < rows; blockY += BLOCK) {
+      int endY = Math.min(rows, blockY + BLOCK);
+      for (int blockX = 0; blockX < width; blockX += BLOCK) {
+        int endX = Math.min(width, blockX + BLOCK);
+        for (int y = blockY; y < endY; y++) {
+          int srcOffset = y * width;
+          int dstCol = mirrorRows ? rows - 1 - y : y;
+          for (int x = blockX; x < endX; x++) {
+            int dstRow = mirrorCols ? width - 1 - x : x;
+            dst[dstRow * rows + dstCol] = src[srcOffset + x];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the source and destination band buffers of the calling thread of at least the given
+   * pixels.<br>
+   * Buffers larger than the max band pixels, of band of the min rows of a very wide image, are
+   * allocated for the call only so the thread doesn't hold on to them.
+   */
+  static int[][] getBuffers(int pixels) {
+    int[][] buffers = mBuffers.get();
+    if (buffers[0].length >= pixels) {
+      return buffers;
+    }
+    int[][] grown = {new int[pixels], new int[pixels]};
+    if (pixels <= MAX_BAND_PIXELS) {
+      mBuffers.set(grown);
+    }
+    return grown;
+  }
+}
@@ -0,0 +1,86 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import java.util.Locale;
+
+/**
+ * Minimal throughput benchmark run by the host JVM tests.<br>
+ * Runs the body for warmup iterations so the JIT compiles it, then measures the best of a few
+ * timed rounds and prints the throughput, results are for relative comparison on the same machine
+ * only.<br>
+ * Benchmark test classes are marked with this class as their JUnit category and are excluded from
+ * the default test run, run them with {@code ./gradlew :cropper:testDebugUnitTest -Pbenchmark}.
+ */
+final class Benchmark {
+
+  // region: Fields and Consts
+
+  /** The number of untimed iterations to run before measuring */
+  private static final int WARMUP_ITERATIONS = 5;
+
+  /** The number of timed rounds, the fastest is reported */
+  private static final int ROUNDS = 5;
+
+  /** The number of iterations of each timed round */
+  private static final int ITERATIONS = 3;
+
+  /** Prevents the JIT from removing the benchmarked work as dead code */
+  private static volatile long mSink;
+  // endregion
+
+  private Benchmark() {}
+
+  /**
+   * Measure the throughput of the given body and print it.
+   *
+   * @param name the name of the benchmark to print
+   * @param units the number of units processed by single run of the body, e.g. pixels or bytes
+   * @param unit the name of the unit to print
+   * @param body the benchmarked work
+   * @return the units processed per second
+   */
+  static double run(String name, long units, String unit, Body body) throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      mSink += body.run();
+    }
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        mSink += body.run();
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    double perSecond = units * ITERATIONS * 1e9 / Math.max(1, best);
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%s: %.2f M%s/s (%.3f ms)",
+            name,
+            perSecond / 1e6,
+            unit,
+            best / 1e6 / ITERATIONS));
+    return perSecond;
+  }
+
+  // region: Inner class: Body
+
+  /** The benchmarked work. */
+  interface Body {
+
+    /** Run the work once, return any value of the result so it isn't optimized away. */
+    long run() throws Exception;
+  }
+  // endregion
+}
@@ -0,0 +1,262 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Time and peak memory of cropping a bitmap object in the single draw of {@link BitmapUtils}
+ * against the chain it replaced: rotated draw of the bounding rectangle of the crop, extra crop of
+ * the rotated rectangle and resize to the requested size.<br>
+ * The platform Canvas draw can't run on the host JVM, so each draw is stood in by a bilinear
+ * filtered sample of each output pixel through the inverse matrix, and each bitmap by a pixels
+ * array whose bytes are counted while it is alive.
+ */
+@Category(Benchmark.class)
+public class FusedCropBenchmark {
+
+  // region: Fields and Consts
+
+  private static final int WIDTH = 4000;
+
+  private static final int HEIGHT = 3000;
+
+  /** The size of the crop window, in the rotated image */
+  private static final int CROP_WIDTH = 2000;
+
+  private static final int CROP_HEIGHT = 1200;
+
+  /** The requested size of the result, RESIZE_INSIDE */
+  private static final int REQ_WIDTH = 1000;
+
+  private static final int REQ_HEIGHT = 1000;
+
+  /** The bytes of the bitmaps allocated by the crop that are alive */
+  private static long mLiveBytes;
+
+  /** The largest {@link #mLiveBytes} since reset */
+  private static long mPeakBytes;
+  // endregion
+
+  @Test
+  public void cropThroughput() throws Exception {
+    int[] src = PixelKernelEngineTest.randomPixels(new Random(0), WIDTH * HEIGHT);
+    int[] angles = {30, 90};
+    for (int degrees : angles) {
+      benchmark(src, degrees);
+    }
+  }
+
+  // region: Private methods
+
+  private static void benchmark(final int[] src, final int degrees) throws Exception {
+    final double rads = Math.toRadians(degrees);
+    float scale = Math.max(CROP_WIDTH / (float) REQ_WIDTH, CROP_HEIGHT / (float) REQ_HEIGHT);
+    final int outWidth = Math.round(CROP_WIDTH / scale);
+    final int outHeight = Math.round(CROP_HEIGHT / scale);
+    String name = WIDTH + "x" + HEIGHT + " crop " + CROP_WIDTH + "x" + CROP_HEIGHT;
+    name += " rotated " + degrees + " to " + outWidth + "x" + outHeight + ": ";
+    long pixels = (long) CROP_WIDTH * CROP_HEIGHT;
+
+    Benchmark.Body chain =
+        new Benchmark.Body() {
+          @Override
+          public long run() {
+            int[] result = cropChain(src, rads, outWidth, outHeight);
+            free(result);
+            return result[result.length / 2];
+          }
+        };
+    Benchmark.Body fused =
+        new Benchmark.Body() {
+          @Override
+          public long run() {
+            int[] result = cropFused(src, rads, outWidth, outHeight);
+            free(result);
+            return result[result.length / 2];
+          }
+        };
+
+    long chainPeak = getPeakBytes(chain);
+    long fusedPeak = getPeakBytes(fused);
+    double chainRate = Benchmark.run(name + "draw, crop, resize chain", pixels, "px", chain);
+    double fusedRate = Benchmark.run(name + "single draw", pixels, "px", fused);
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%speak above source %.1f MB chain, %.1f MB single draw, speedup %.2fx",
+            name,
+            chainPeak / 1048576.0,
+            fusedPeak / 1048576.0,
+            fusedRate / chainRate));
+    assertTrue(fusedPeak < chainPeak);
+    assertTrue(chainRate > 0 && fusedRate > 0);
+  }
+
+  /** Run the body once and get the peak bytes of the bitmaps it allocated. */
+  private static long getPeakBytes(Benchmark.Body body) throws Exception {
+    mLiveBytes = 0;
+    mPeakBytes = 0;
+    body.run();
+    return mPeakBytes;
+  }
+
+  /**
+   * The crop chain before the single draw: rotate the bounding rectangle of the crop points into
+   * an intermediate bitmap, copy the crop window out of it and scale it to the requested size.
+   */
+  private static int[] cropChain(int[] src, double rads, int outWidth, int outHeight) {
+    float cos = (float) Math.abs(Math.cos(rads));
+    float sin = (float) Math.abs(Math.sin(rads));
+    int rectWidth = (int) Math.ceil(CROP_WIDTH * cos + CROP_HEIGHT * sin);
+    int rectHeight = (int) Math.ceil(CROP_WIDTH * sin + CROP_HEIGHT * cos);
+    int rotatedWidth = (int) Math.ceil(rectWidth * cos + rectHeight * sin);
+    int rotatedHeight = (int) Math.ceil(rectWidth * sin + rectHeight * cos);
+
+    int[] rotated = allocate(rotatedWidth * rotatedHeight);
+    draw(src, rads, 1, 1, rotated, rotatedWidth, rotatedHeight);
+
+    int[] cropped = allocate(CROP_WIDTH * CROP_HEIGHT);
+    int left = (rotatedWidth - CROP_WIDTH) / 2;
+    int top = (rotatedHeight - CROP_HEIGHT) / 2;
+    for (int y = 0; y < CROP_HEIGHT; y++) {
+      System.arraycopy(
+          rotated, (top + y) * rotatedWidth + left, cropped, y * CROP_WIDTH, CROP_WIDTH);
+    }
+    free(rotated);
+
+    int[] result = allocate(outWidth * outHeight);
+    draw(
+        cropped,
+        CROP_WIDTH,
+        CROP_HEIGHT,
+        CROP_WIDTH / (float) outWidth,
+        CROP_HEIGHT / (float) outHeight,
+        result,
+        outWidth,
+        outHeight);
+    free(cropped);
+    return result;
+  }
+
+  /** The single draw: rotate, crop and scale the source into a bitmap of the result size. */
+  private static int[] cropFused(int[] src, double rads, int outWidth, int outHeight) {
+    int[] result = allocate(outWidth * outHeight);
+    draw(
+        src,
+        rads,
+        CROP_WIDTH / (float) outWidth,
+        CROP_HEIGHT / (float) outHeight,
+        result,
+        outWidth,
+        outHeight);
+    return result;
+  }
+
+  /**
+   * Draw the source rotated around its center by the given angle into the output centered on it,
+   * each output pixel is scaled by the given factors back to the rotated source.
+   */
+  private static void draw(
+      int[] src, double rads, float scaleX, float scaleY, int[] dst, int dstWidth, int dstHeight) {
+    float cos = (float) Math.cos(rads);
+    float sin = (float) Math.sin(rads);
+    for (int y = 0; y < dstHeight; y++) {
+      float ry = ((y + 0.5f) - dstHeight / 2f) * scaleY;
+      for (int x = 0; x < dstWidth; x++) {
+        float rx = ((x + 0.5f) - dstWidth / 2f) * scaleX;
+        // inverse rotation of the output position to the source
+        float fx = rx * cos + ry * sin + WIDTH / 2f;
+        float fy = -rx * sin + ry * cos + HEIGHT / 2f;
+        dst[y * dstWidth + x] = sample(src, WIDTH, HEIGHT, fx - 0.5f, fy - 0.5f);
+      }
+    }
+  }
+
+  /** Draw the source scaled by the given factors into the output. */
+  private static void draw(
+      int[] src,
+      int srcWidth,
+      int srcHeight,
+      float scaleX,
+      float scaleY,
+      int[] dst,
+      int dstWidth,
+      int dstHeight) {
+    for (int y = 0; y < dstHeight; y++) {
+      float fy = (y + 0.5f) * scaleY - 0.5f;
+      for (int x = 0; x < dstWidth; x++) {
+        float fx = (x + 0.5f) * scaleX - 0.5f;
+        dst[y * dstWidth + x] = sample(src, srcWidth, srcHeight, fx, fy);
+      }
+    }
+  }
+
+  /**
+   * Bilinear sample of the source at the given position, premultiplied by alpha, transparent
+   * outside the source.
+   */
+  private static int sample(int[] src, int width, int height, float fx, float fy) {
+    if (fx < -1 || fy < -1 || fx >= width || fy >= height) {
+      return 0;
+    }
+    int x0 = (int) Math.floor(fx);
+    int y0 = (int) Math.floor(fy);
+    float wx = fx - x0;
+    float wy = fy - y0;
+    float a = 0;
+    float r = 0;
+    float g = 0;
+    float b = 0;
+    for (int i = 0; i < 4; i++) {
+      int x = x0 + (i & 1);
+      int y = y0 + (i >> 1);
+      if (x < 0 || y < 0 || x >= width || y >= height) {
+        continue;
+      }
+      int color = src[y * width + x];
+      float weight = ((i & 1) != 0 ? wx : 1 - wx) * ((i >> 1) != 0 ? wy : 1 - wy);
+      float alpha = (color >>> 24) * weight;
+      a += alpha;
+      r += alpha * ((color >> 16) & 0xFF);
+      g += alpha * ((color >> 8) & 0xFF);
+      b += alpha * (color & 0xFF);
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return Math.round(a) << 24
+        | Math.round(r / a) << 16
+        | Math.round(g / a) << 8
+        | Math.round(b / a);
+  }
+
+  /** Allocate the pixels of bitmap and count its bytes as alive. */
+  private static int[] allocate(int pixels) {
+    mLiveBytes += pixels * 4L;
+    mPeakBytes = Math.max(mPeakBytes, mLiveBytes);
+    return new int[pixels];
+  }
+
+  /** Count the bytes of the given pixels as released. */
+  private static void free(int[] pixels) {
+    mLiveBytes -= pixels.length * 4L;
+  }
+  // endregion
+}
@@ -0,0 +1,86 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+
+/**
+ * Parse throughput of the image header parser on the header buffer read by the image source, for
+ * each supported format.
+ */
+@Category(Benchmark.class)
+public class ImageHeaderParserBenchmark {
+
+  /** The parses of each benchmark iteration */
+  private static final int PARSES = 100000;
+
+  /** The size of the header buffer, the first bytes of the file read by the image source */
+  private static final int HEADER_SIZE = 64 * 1024;
+
+  @Test
+  public void parseThroughput() throws Exception {
+    // JPEG with EXIF and 8KB of segments before the frame, as camera images have
+    byte[] camera =
+        ImageHeaderParserTest.concat(
+            ImageHeaderParserTest.soi(),
+            ImageHeaderParserTest.segment(0xE1, ImageHeaderParserTest.exif(true, 6)),
+            ImageHeaderParserTest.segment(0xE2, new byte[0x2000]),
+            ImageHeaderParserTest.segment(0xDB, new byte[65]),
+            ImageHeaderParserTest.sof(0xC2, 4000, 3000));
+    benchmark("jpeg exif", camera);
+
+    PngWriter png = new PngWriter(4000, 3000, 8, PngWriter.COLOR_RGB);
+    benchmark("png", png.write(new byte[3000][png.getRowBytes()]));
+
+    byte[] webp = Arrays.copyOf("RIFF\0\0\0\0WEBPVP8X".getBytes("US-ASCII"), 30);
+    // canvas of 4000x3000, stored minus 1
+    webp[24] = (byte) 0x9F;
+    webp[25] = 0x0F;
+    webp[27] = (byte) 0xB7;
+    webp[28] = 0x0B;
+    benchmark("webp", webp);
+
+    byte[] gif = Arrays.copyOf("GIF89a".getBytes("US-ASCII"), 13);
+    gif[6] = 1;
+    gif[8] = 1;
+    benchmark("gif", gif);
+  }
+
+  // region: Private methods
+
+  private static void benchmark(String name, byte[] file) throws Exception {
+    final byte[] header = Arrays.copyOf(file, HEADER_SIZE);
+    final int length = Math.min(file.length, HEADER_SIZE);
+    assertTrue(name, ImageHeaderParser.parse(header, length) != null);
+    Benchmark.run(
+        "parse " + name + " header",
+        PARSES,
+        "headers",
+        new Benchmark.Body() {
+          @Override
+          public long run() {
+            long sum = 0;
+            for (int i = 0; i < PARSES; i++) {
+              sum += ImageHeaderParser.parse(header, length).width;
+            }
+            return sum;
+          }
+        });
+  }
+  // endregion
+}
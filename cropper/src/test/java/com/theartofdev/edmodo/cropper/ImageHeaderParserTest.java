@@ -0,0 +1,408 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Parse of valid, truncated and malformed image headers. */
+public class ImageHeaderParserTest {
+
+  // region: JPEG
+
+  @Test
+  public void parseJpegBaseline() {
+    ImageHeaderParser.Header header = parse(jpeg(0xC0, 640, 480, null));
+    assertHeader(header, 640, 480, ImageHeaderParser.MIME_TYPE_JPEG);
+    assertEquals(ImageHeaderParser.ORIENTATION_NORMAL, header.orientation);
+    assertTrue(header.opaque);
+    assertFalse(header.progressive);
+  }
+
+  @Test
+  public void parseJpegProgressive() {
+    ImageHeaderParser.Header header = parse(jpeg(0xC2, 1920, 1080, null));
+    assertHeader(header, 1920, 1080, ImageHeaderParser.MIME_TYPE_JPEG);
+    assertTrue(header.progressive);
+  }
+
+  @Test
+  public void parseJpegExifOrientation() {
+    for (int orientation = 1; orientation <= 8; orientation++) {
+      assertEquals(
+          orientation, parse(jpeg(0xC0, 10, 20, exif(true, orientation))).orientation);
+      assertEquals(
+          orientation, parse(jpeg(0xC0, 10, 20, exif(false, orientation))).orientation);
+    }
+    // invalid orientation value is ignored
+    assertEquals(
+        ImageHeaderParser.ORIENTATION_NORMAL,
+        parse(jpeg(0xC0, 10, 20, exif(true, 9))).orientation);
+  }
+
+  @Test
+  public void parseJpegSkipsNonFrameMarkers() {
+    // DHT (C4) has the range of SOF markers but is not a frame
+    byte[] dht = segment(0xC4, new byte[] {0, 1, 2, 3});
+    byte[] fill = {(byte) 0xFF, (byte) 0xFF};
+    byte[] data = concat(soi(), fill, dht, sof(0xC1, 300, 200));
+    assertHeader(parse(data), 300, 200, ImageHeaderParser.MIME_TYPE_JPEG);
+  }
+
+  @Test
+  public void parseMalformedJpeg() {
+    // scan before frame
+    assertNull(parse(concat(soi(), segment(0xDA, new byte[4]), sof(0xC0, 10, 10))));
+    // not a marker
+    assertNull(parse(concat(soi(), new byte[] {0x12, 0x34, 0, 0}, sof(0xC0, 10, 10))));
+    // zero dimensions
+    assertNull(parse(jpeg(0xC0, 0, 480, null)));
+    assertNull(parse(jpeg(0xC0, 640, 0, null)));
+    // segment length smaller than its own length field
+    for (int length = 0; length < 2; length++) {
+      byte[] data = concat(soi(), new byte[] {(byte) 0xFF, (byte) 0xE0, 0, (byte) length});
+      assertNull(parse(concat(data, new byte[] {(byte) 0xFF, (byte) 0xC0}, sof(0xC0, 5, 5))));
+    }
+    // EXIF with bad byte order, bad magic and IFD offset past the segment
+    byte[] exif = exif(true, 6);
+    byte[] badOrder = exif.clone();
+    badOrder[6] = 'X';
+    assertEquals(
+        ImageHeaderParser.ORIENTATION_NORMAL, parse(jpeg(0xC0, 8, 8, badOrder)).orientation);
+    byte[] badMagic = exif.clone();
+    badMagic[8] = 0;
+    assertEquals(
+        ImageHeaderParser.ORIENTATION_NORMAL, parse(jpeg(0xC0, 8, 8, badMagic)).orientation);
+    byte[] badOffset = exif.clone();
+    badOffset[10] = 0x7F;
+    assertEquals(
+        ImageHeaderParser.ORIENTATION_NORMAL, parse(jpeg(0xC0, 8, 8, badOffset)).orientation);
+  }
+
+  @Test
+  public void parseTruncatedJpeg() {
+    byte[] data = jpeg(0xC0, 640, 480, exif(false, 3));
+    assertTruncatedPrefixes(data);
+  }
+  // endregion
+
+  // region: PNG
+
+  @Test
+  public void parsePng() throws Exception {
+    PngWriter rgb = new PngWriter(320, 240, 8, PngWriter.COLOR_RGB);
+    ImageHeaderParser.Header header = parse(rgb.write(new byte[240][rgb.getRowBytes()]));
+    assertHeader(header, 320, 240, ImageHeaderParser.MIME_TYPE_PNG);
+    assertTrue(header.opaque);
+
+    PngWriter rgba = new PngWriter(3, 2, 8, PngWriter.COLOR_RGBA);
+    assertFalse(parse(rgba.write(new byte[2][rgba.getRowBytes()])).opaque);
+
+    PngWriter keyed = new PngWriter(3, 2, 8, PngWriter.COLOR_RGB).setTransparency(new byte[6]);
+    assertFalse(parse(keyed.write(new byte[2][keyed.getRowBytes()])).opaque);
+  }
+
+  @Test
+  public void parseMalformedPng() throws Exception {
+    PngWriter writer = new PngWriter(3, 2, 8, PngWriter.COLOR_RGB);
+    byte[] png = writer.write(new byte[2][writer.getRowBytes()]);
+
+    byte[] zeroWidth = png.clone();
+    Arrays.fill(zeroWidth, 16, 20, (byte) 0);
+    assertNull(parse(zeroWidth));
+
+    byte[] negativeWidth = png.clone();
+    negativeWidth[16] = (byte) 0x80;
+    assertNull(parse(negativeWidth));
+
+    // chunk length so large the next chunk position overflows
+    for (int length : new int[] {0x7FFFFFF0, 0x7FFFFFFF, 0xFFFFFFF0}) {
+      byte[] huge = png.clone();
+      huge[8] = (byte) (length >>> 24);
+      huge[9] = (byte) (length >>> 16);
+      huge[10] = (byte) (length >>> 8);
+      huge[11] = (byte) length;
+      ImageHeaderParser.Header header = parse(huge);
+      assertNotNull(header);
+      assertFalse(header.opaque);
+    }
+  }
+
+  @Test
+  public void parseTruncatedPng() throws Exception {
+    PngWriter writer = new PngWriter(3, 2, 8, PngWriter.COLOR_RGB);
+    assertTruncatedPrefixes(writer.write(new byte[2][writer.getRowBytes()]));
+  }
+  // endregion
+
+  // region: WebP
+
+  @Test
+  public void parseWebpLossy() {
+    byte[] data = webp("VP8 ", 30);
+    data[23] = (byte) 0x9D;
+    data[24] = 0x01;
+    data[25] = 0x2A;
+    // 14 bit dimensions, the top 2 bits are the scale
+    putU16le(data, 26, 0xC000 | 1024);
+    putU16le(data, 28, 768);
+    ImageHeaderParser.Header header = parse(data);
+    assertHeader(header, 1024, 768, ImageHeaderParser.MIME_TYPE_WEBP);
+    assertTrue(header.opaque);
+
+    data[24] = 0x02;
+    assertNull(parse(data));
+  }
+
+  @Test
+  public void parseWebpLossless() {
+    byte[] data = webp("VP8L", 30);
+    data[20] = 0x2F;
+    int bits = (400 - 1) | (300 - 1) << 14;
+    putU16le(data, 21, bits & 0xFFFF);
+    putU16le(data, 23, bits >>> 16);
+    ImageHeaderParser.Header header = parse(data);
+    assertHeader(header, 400, 300, ImageHeaderParser.MIME_TYPE_WEBP);
+    assertTrue(header.opaque);
+
+    // alpha is used hint
+    data[24] |= 0x10;
+    assertFalse(parse(data).opaque);
+
+    data[20] = 0x2E;
+    assertNull(parse(data));
+  }
+
+  @Test
+  public void parseWebpExtended() {
+    byte[] data = webp("VP8X", 30);
+    putU24le(data, 24, 5000 - 1);
+    putU24le(data, 27, 70000 - 1);
+    ImageHeaderParser.Header header = parse(data);
+    assertHeader(header, 5000, 70000, ImageHeaderParser.MIME_TYPE_WEBP);
+    assertTrue(header.opaque);
+
+    // alpha flag
+    data[20] = 0x10;
+    assertFalse(parse(data).opaque);
+  }
+
+  @Test
+  public void parseMalformedWebp() {
+    assertNull(parse(webp("VP9 ", 30)));
+    byte[] notWebp = webp("VP8X", 30);
+    notWebp[8] = 'X';
+    assertNull(parse(notWebp));
+  }
+
+  @Test
+  public void parseTruncatedWebp() {
+    byte[] data = webp("VP8X", 30);
+    putU24le(data, 24, 99);
+    putU24le(data, 27, 99);
+    assertTruncatedPrefixes(data);
+  }
+  // endregion
+
+  // region: GIF
+
+  @Test
+  public void parseGif() {
+    for (String version : new String[] {"GIF87a", "GIF89a"}) {
+      byte[] data = Arrays.copyOf(ascii(version), 13);
+      putU16le(data, 6, 500);
+      putU16le(data, 8, 250);
+      assertHeader(parse(data), 500, 250, ImageHeaderParser.MIME_TYPE_GIF);
+      assertTruncatedPrefixes(data);
+    }
+    byte[] data = Arrays.copyOf(ascii("GIF88a"), 13);
+    putU16le(data, 6, 500);
+    putU16le(data, 8, 250);
+    assertNull(parse(data));
+  }
+  // endregion
+
+  @Test
+  public void parseUnknownAndEmpty() {
+    assertNull(parse(new byte[0]));
+    assertNull(parse(ascii("BM this is a bitmap header of enough length")));
+    // length larger than the buffer is clamped to the buffer
+    assertNull(ImageHeaderParser.parse(new byte[] {(byte) 0xFF, (byte) 0xD8}, 100));
+    assertNull(ImageHeaderParser.parse(new byte[] {(byte) 0xFF, (byte) 0xD8}, -1));
+  }
+
+  @Test
+  public void parseRandomDataWithoutThrowing() {
+    Random random = new Random(0);
+    byte[][] prefixes = {
+      {(byte) 0xFF, (byte) 0xD8},
+      {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'},
+      ascii("RIFF\0\0\0\0WEBPVP8 "),
+      ascii("RIFF\0\0\0\0WEBPVP8L"),
+      ascii("RIFF\0\0\0\0WEBPVP8X"),
+      ascii("GIF89a"),
+      {}
+    };
+    for (int i = 0; i < 20000; i++) {
+      byte[] data = new byte[random.nextInt(200)];
+      random.nextBytes(data);
+      byte[] prefix = prefixes[i % prefixes.length];
+      System.arraycopy(prefix, 0, data, 0, Math.min(prefix.length, data.length));
+      // the random header is either rejected or has valid dimensions
+      ImageHeaderParser.Header header = ImageHeaderParser.parse(data, data.length);
+      if (header != null) {
+        assertTrue(header.width > 0 && header.height > 0);
+      }
+    }
+  }
+
+  // region: Helpers
+
+  /** Get JPEG of SOI, optional APP1 EXIF segment and SOF segment of the given marker. */
+  static byte[] jpeg(int sofMarker, int width, int height, byte[] exif) {
+    byte[] app0 = segment(0xE0, ascii("JFIF\0\1\1\0\0\1\0\1\0\0"));
+    byte[] app1 = exif != null ? segment(0xE1, exif) : new byte[0];
+    byte[] dqt = segment(0xDB, new byte[65]);
+    byte[] sos = segment(0xDA, new byte[8]);
+    return concat(soi(), app0, app1, dqt, sof(sofMarker, width, height), sos);
+  }
+
+  /** Get EXIF APP1 payload of TIFF header of the given byte order and IFD0 with orientation. */
+  static byte[] exif(boolean little, int orientation) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write('E');
+    out.write('x');
+    out.write('i');
+    out.write('f');
+    out.write(0);
+    out.write(0);
+    byte[] tiff = new byte[8 + 2 + 2 * 12 + 4];
+    tiff[0] = tiff[1] = (byte) (little ? 'I' : 'M');
+    putU16(tiff, 2, 42, little);
+    putU32(tiff, 4, 8, little);
+    putU16(tiff, 8, 2, little);
+    // ImageWidth entry before the orientation entry, SHORT values of count 1
+    putU16(tiff, 10, 0x0100, little);
+    putU16(tiff, 12, 3, little);
+    putU32(tiff, 14, 1, little);
+    putU16(tiff, 18, 640, little);
+    putU16(tiff, 22, 0x0112, little);
+    putU16(tiff, 24, 3, little);
+    putU32(tiff, 26, 1, little);
+    putU16(tiff, 30, orientation, little);
+    out.write(tiff, 0, tiff.length);
+    return out.toByteArray();
+  }
+
+  static byte[] soi() {
+    return new byte[] {(byte) 0xFF, (byte) 0xD8};
+  }
+
+  static byte[] sof(int marker, int width, int height) {
+    byte[] frame = new byte[6 + 3 * 3];
+    frame[0] = 8;
+    putU16(frame, 1, height, false);
+    putU16(frame, 3, width, false);
+    frame[5] = 3;
+    return segment(marker, frame);
+  }
+
+  static byte[] segment(int marker, byte[] payload) {
+    byte[] data = new byte[4 + payload.length];
+    data[0] = (byte) 0xFF;
+    data[1] = (byte) marker;
+    putU16(data, 2, payload.length + 2, false);
+    System.arraycopy(payload, 0, data, 4, payload.length);
+    return data;
+  }
+
+  private static byte[] webp(String chunk, int length) {
+    byte[] data = Arrays.copyOf(ascii("RIFF\0\0\0\0WEBP" + chunk), length);
+    putU16le(data, 4, length - 8);
+    return data;
+  }
+
+  /** Every prefix shorter than the full data is parsed without throwing. */
+  private static void assertTruncatedPrefixes(byte[] data) {
+    for (int length = 0; length < data.length; length++) {
+      ImageHeaderParser.Header header = ImageHeaderParser.parse(data, length);
+      if (header != null) {
+        assertTrue(header.width > 0 && header.height > 0);
+      }
+      // same prefix in a buffer of exactly the prefix length
+      ImageHeaderParser.parse(Arrays.copyOf(data, length), length);
+    }
+  }
+
+  private static void assertHeader(
+      ImageHeaderParser.Header header, int width, int height, String mimeType) {
+    assertNotNull(header);
+    assertEquals(width, header.width);
+    assertEquals(height, header.height);
+    assertEquals(mimeType, header.mimeType);
+  }
+
+  private static ImageHeaderParser.Header parse(byte[] data) {
+    return ImageHeaderParser.parse(data, data.length);
+  }
+
+  static byte[] concat(byte[]... parts) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      out.write(part, 0, part.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] ascii(String value) {
+    byte[] data = new byte[value.length()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) value.charAt(i);
+    }
+    return data;
+  }
+
+  private static void putU16(byte[] data, int pos, int value, boolean little) {
+    if (little) {
+      putU16le(data, pos, value);
+    } else {
+      data[pos] = (byte) (value >> 8);
+      data[pos + 1] = (byte) value;
+    }
+  }
+
+  private static void putU32(byte[] data, int pos, int value, boolean little) {
+    putU16(data, little ? pos : pos + 2, value & 0xFFFF, little);
+    putU16(data, little ? pos + 2 : pos, value >>> 16, little);
+  }
+
+  private static void putU16le(byte[] data, int pos, int value) {
+    data[pos] = (byte) value;
+    data[pos + 1] = (byte) (value >> 8);
+  }
+
+  private static void putU24le(byte[] data, int pos, int value) {
+    putU16le(data, pos, value);
+    data[pos + 2] = (byte) (value >> 16);
+  }
+  // endregion
+}
@@ -0,0 +1,406 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reference decoder backend of PNG images in plain Java with no Android dependencies, so decode
+ * throughput can be measured and compared on the host JVM without a device.<br>
+ * Supports all non interlaced PNG color types and bit depths, 16 bit samples are reduced to 8 bits.
+ * Sampling keeps every n-th pixel, region decode inflates the rows up to the region bottom.<br>
+ * Not optimized, intended as a baseline and for correctness comparison of other backends, lives in
+ * the test source set so it isn't shipped in the library.
+ */
+final class JavaPngImageDecoder implements ImageDecoderSpi<JavaPngImageDecoder.Image> {
+
+  // region: Fields and Consts
+
+  /** The PNG file signature */
+  private static final byte[] SIGNATURE = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+  };
+
+  private static final int CHUNK_IHDR = 0x49484452;
+
+  private static final int CHUNK_PLTE = 0x504C5445;
+
+  private static final int CHUNK_TRNS = 0x74524E53;
+
+  private static final int CHUNK_IDAT = 0x49444154;
+
+  private static final int CHUNK_IEND = 0x49454E44;
+
+  private static final int COLOR_GRAY = 0;
+
+  private static final int COLOR_RGB = 2;
+
+  private static final int COLOR_PALETTE = 3;
+
+  private static final int COLOR_GRAY_ALPHA = 4;
+  // endregion
+
+  @Override
+  public int[] decodeBounds(InputStream stream) throws IOException {
+    byte[] header = new byte[24];
+    int length = 0;
+    int read;
+    while (length < header.length && (read = stream.read(header, length, 24 - length)) > 0) {
+      length += read;
+    }
+    ImageHeaderParser.Header parsed = ImageHeaderParser.parse(header, length);
+    return parsed != null ? new int[] {parsed.width, parsed.height} : null;
+  }
+
+  @Override
+  public Image decode(InputStream stream, int sampleSize) throws IOException {
+    Png png = Png.read(stream);
+    return png.decode(0, 0, png.width, png.height, sampleSize);
+  }
+
+  @Override
+  public Region<Image> openRegion(InputStream stream) throws IOException {
+    final Png png = Png.read(stream);
+    return new Region<Image>() {
+      @Override
+      public int getWidth() {
+        return png.width;
+      }
+
+      @Override
+      public int getHeight() {
+        return png.height;
+      }
+
+      @Override
+      public Image decodeRegion(int left, int top, int right, int bottom, int sampleSize)
+          throws IOException {
+        return png.decode(left, top, right, bottom, sampleSize);
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  @Override
+  public int decodeOrientation(InputStream stream) {
+    // PNG has no EXIF orientation in practice
+    return 0;
+  }
+
+  // region: Inner class: Image
+
+  /** Decoded image of ARGB pixels row by row. */
+  static final class Image {
+
+    final int width;
+
+    final int height;
+
+    /** The ARGB color of the pixels, row by row */
+    final int[] pixels;
+
+    Image(int width, int height, int[] pixels) {
+      this.width = width;
+      this.height = height;
+      this.pixels = pixels;
+    }
+  }
+  // endregion
+
+  // region: Inner class: Png
+
+  /** The parsed chunks of PNG image with the compressed pixel data. */
+  private static final class Png {
+
+    int width;
+
+    int height;
+
+    int bitDepth;
+
+    int colorType;
+
+    /** The number of samples per pixel by the color type */
+    int channels;
+
+    /** The palette colors as ARGB, alpha from the tRNS chunk */
+    int[] palette;
+
+    /** The transparent color key of gray/RGB images from tRNS chunk, null if none */
+    int[] transparentKey;
+
+    /** The concatenated IDAT chunks */
+    byte[] data;
+
+    /** Read the chunks of the PNG image from the given stream. */
+    static Png read(InputStream stream) throws IOException {
+      DataInputStream in = new DataInputStream(stream);
+      byte[] signature = new byte[SIGNATURE.length];
+      in.readFully(signature);
+      if (!Arrays.equals(signature, SIGNATURE)) {
+        throw new IOException("Not a PNG image");
+      }
+      Png png = new Png();
+      ByteArrayOutputStream idat = new ByteArrayOutputStream();
+      while (true) {
+        int length = in.readInt();
+        int type = in.readInt();
+        if (length < 0) {
+          throw new IOException("Invalid PNG chunk length: " + length);
+        }
+        byte[] chunk = new byte[length];
+        in.readFully(chunk);
+        // CRC is not verified
+        in.readInt();
+        if (type == CHUNK_IHDR) {
+          png.readHeader(chunk);
+        } else if (type == CHUNK_PLTE) {
+          png.palette = new int[length / 3];
+          for (int i = 0; i < png.palette.length; i++) {
+            png.palette[i] =
+                0xFF000000
+                    | (chunk[i * 3] & 0xFF) << 16
+                    | (chunk[i * 3 + 1] & 0xFF) << 8
+                    | (chunk[i * 3 + 2] & 0xFF);
+          }
+        } else if (type == CHUNK_TRNS) {
+          png.readTransparency(chunk);
+        } else if (type == CHUNK_IDAT) {
+          idat.write(chunk);
+        } else if (type == CHUNK_IEND) {
+          break;
+        }
+      }
+      if (png.width < 1 || png.height < 1) {
+        throw new IOException("PNG image has no header");
+      }
+      if (png.colorType == COLOR_PALETTE && png.palette == null) {
+        throw new IOException("PNG palette image has no palette");
+      }
+      png.data = idat.toByteArray();
+      return png;
+    }
+
+    /** Decode the given rectangle of the image sampled by the given sample size. */
+    Image decode(int left, int top, int right, int bottom, int sampleSize) throws IOException {
+      left = Math.max(0, left);
+      top = Math.max(0, top);
+      right = Math.min(width, right);
+      bottom = Math.min(height, bottom);
+      if (right <= left || bottom <= top) {
+        throw new IllegalArgumentException("Region is outside the image");
+      }
+      sampleSize = Math.max(1, sampleSize);
+      int outWidth = (right - left + sampleSize - 1) / sampleSize;
+      int outHeight = (bottom - top + sampleSize - 1) / sampleSize;
+      int[] pixels = new int[outWidth * outHeight];
+
+      int bitsPerPixel = channels * bitDepth;
+      int filterBytes = Math.max(1, bitsPerPixel / 8);
+      byte[] row = new byte[(width * bitsPerPixel + 7) / 8];
+      byte[] prev = new byte[row.length];
+      Inflater inflater = new Inflater();
+      try {
+        DataInputStream in =
+            new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(data), inflater));
+        for (int y = 0; y < bottom; y++) {
+          int filter = in.read();
+          if (filter < 0) {
+            throw new EOFException("PNG image data ended at row " + y);
+          }
+          in.readFully(row);
+          unfilter(filter, row, prev, filterBytes);
+          if (y >= top && (y - top) % sampleSize == 0) {
+            int offset = (y - top) / sampleSize * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+              pixels[offset + x] = getPixel(row, left + x * sampleSize);
+            }
+          }
+          byte[] tmp = prev;
+          prev = row;
+          row = tmp;
+        }
+      } finally {
+        inflater.end();
+      }
+      return new Image(outWidth, outHeight, pixels);
+    }
+
+    /** Read the IHDR chunk. */
+    private void readHeader(byte[] chunk) throws IOException {
+      width = readInt(chunk, 0);
+      height = readInt(chunk, 4);
+      bitDepth = chunk[8] & 0xFF;
+      colorType = chunk[9] & 0xFF;
+      if (chunk[12] != 0) {
+        throw new IOException("Interlaced PNG is not supported");
+      }
+      switch (colorType) {
+        case COLOR_GRAY:
+        case COLOR_PALETTE:
+          channels = 1;
+          break;
+        case COLOR_GRAY_ALPHA:
+          channels = 2;
+          break;
+        case COLOR_RGB:
+          channels = 3;
+          break;
+        default:
+          channels = 4;
+      }
+    }
+
+    /** Read the tRNS chunk, palette alpha or transparent color key. */
+    private void readTransparency(byte[] chunk) {
+      if (colorType == COLOR_PALETTE && palette != null) {
+        for (int i = 0; i < chunk.length && i < palette.length; i++) {
+          palette[i] = (palette[i] & 0xFFFFFF) | (chunk[i] & 0xFF) << 24;
+        }
+      } else if (colorType == COLOR_GRAY && chunk.length >= 2) {
+        transparentKey = new int[] {readShort(chunk, 0)};
+      } else if (colorType == COLOR_RGB && chunk.length >= 6) {
+        transparentKey =
+            new int[] {readShort(chunk, 0), readShort(chunk, 2), readShort(chunk, 4)};
+      }
+    }
+
+    /** Reverse the PNG filter of the given row in place by the previous row. */
+    private static void unfilter(int filter, byte[] row, byte[] prev, int bpp) throws IOException {
+      switch (filter) {
+        case 0:
+          break;
+        case 1:
+          for (int i = bpp; i < row.length; i++) {
+            row[i] = (byte) (row[i] + row[i - bpp]);
+          }
+          break;
+        case 2:
+          for (int i = 0; i < row.length; i++) {
+            row[i] = (byte) (row[i] + prev[i]);
+          }
+          break;
+        case 3:
+          for (int i = 0; i < row.length; i++) {
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            row[i] = (byte) (row[i] + ((a + (prev[i] & 0xFF)) >>> 1));
+          }
+          break;
+        case 4:
+          for (int i = 0; i < row.length; i++) {
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+            row[i] = (byte) (row[i] + predictor);
+          }
+          break;
+        default:
+          throw new IOException("Invalid PNG filter type: " + filter);
+      }
+    }
+
+    /** Get the ARGB color of the pixel at the given column of the unfiltered row. */
+    private int getPixel(byte[] row, int x) {
+      switch (colorType) {
+        case COLOR_PALETTE:
+          int index = getSample(row, x, 0);
+          return index < palette.length ? palette[index] : 0xFF000000;
+        case COLOR_GRAY:
+          {
+            int raw = getSample(row, x, 0);
+            int gray = to8Bit(raw);
+            int alpha = transparentKey != null && transparentKey[0] == raw ? 0 : 0xFF;
+            return alpha << 24 | gray << 16 | gray << 8 | gray;
+          }
+        case COLOR_GRAY_ALPHA:
+          {
+            int gray = to8Bit(getSample(row, x, 0));
+            return to8Bit(getSample(row, x, 1)) << 24 | gray << 16 | gray << 8 | gray;
+          }
+        case COLOR_RGB:
+          {
+            int r = getSample(row, x, 0);
+            int g = getSample(row, x, 1);
+            int b = getSample(row, x, 2);
+            boolean transparent =
+                transparentKey != null
+                    && transparentKey[0] == r
+                    && transparentKey[1] == g
+                    && transparentKey[2] == b;
+            return (transparent ? 0 : 0xFF000000)
+                | to8Bit(r) << 16
+                | to8Bit(g) << 8
+                | to8Bit(b);
+          }
+        default:
+          return to8Bit(getSample(row, x, 3)) << 24
+              | to8Bit(getSample(row, x, 0)) << 16
+              | to8Bit(getSample(row, x, 1)) << 8
+              | to8Bit(getSample(row, x, 2));
+      }
+    }
+
+    /** Get the raw value of the given channel of the pixel at the given column. */
+    private int getSample(byte[] row, int x, int channel) {
+      switch (bitDepth) {
+        case 8:
+          return row[x * channels + channel] & 0xFF;
+        case 16:
+          return readShort(row, (x * channels + channel) * 2);
+        default:
+          // 1, 2 or 4 bits of single channel
+          int bit = x * bitDepth;
+          int shift = 8 - bitDepth - bit % 8;
+          return (row[bit / 8] >> shift) & ((1 << bitDepth) - 1);
+      }
+    }
+
+    /** Scale raw sample value of the image bit depth to 8 bits. */
+    private int to8Bit(int raw) {
+      if (bitDepth == 8) {
+        return raw;
+      } else if (bitDepth == 16) {
+        return raw >> 8;
+      }
+      return raw * 255 / ((1 << bitDepth) - 1);
+    }
+
+    private static int readInt(byte[] data, int pos) {
+      return (data[pos] & 0xFF) << 24
+          | (data[pos + 1] & 0xFF) << 16
+          | (data[pos + 2] & 0xFF) << 8
+          | (data[pos + 3] & 0xFF);
+    }
+
+    private static int readShort(byte[] data, int pos) {
+      return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+    }
+  }
+  // endregion
+}
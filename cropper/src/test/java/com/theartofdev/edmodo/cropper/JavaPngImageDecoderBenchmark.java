@@ -0,0 +1,95 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+/** Decode throughput of the reference PNG decoder, full, sampled and region decode. */
+@Category(Benchmark.class)
+public class JavaPngImageDecoderBenchmark {
+
+  private static final int WIDTH = 1024;
+
+  private static final int HEIGHT = 768;
+
+  private final JavaPngImageDecoder mDecoder = new JavaPngImageDecoder();
+
+  @Test
+  public void decodeThroughput() throws Exception {
+    final byte[] rgba = createPng(PngWriter.COLOR_RGBA, 4);
+    final byte[] rgb = createPng(PngWriter.COLOR_RGB, 3);
+
+    assertTrue(benchmarkDecode("decode rgba", rgba, 1) > 0);
+    assertTrue(benchmarkDecode("decode rgb", rgb, 1) > 0);
+    assertTrue(benchmarkDecode("decode rgba sample 4", rgba, 4) > 0);
+
+    final ImageDecoderSpi.Region<JavaPngImageDecoder.Image> region =
+        mDecoder.openRegion(new ByteArrayInputStream(rgba));
+    try {
+      double perSecond =
+          Benchmark.run(
+              "decode rgba region top left quarter",
+              WIDTH * HEIGHT / 4,
+              "px",
+              new Benchmark.Body() {
+                @Override
+                public long run() throws Exception {
+                  return region.decodeRegion(0, 0, WIDTH / 2, HEIGHT / 2, 1).pixels.length;
+                }
+              });
+      assertTrue(perSecond > 0);
+    } finally {
+      region.close();
+    }
+  }
+
+  // region: Private methods
+
+  private double benchmarkDecode(String name, final byte[] png, final int sampleSize)
+      throws Exception {
+    return Benchmark.run(
+        name,
+        WIDTH * HEIGHT,
+        "px",
+        new Benchmark.Body() {
+          @Override
+          public long run() throws Exception {
+            return mDecoder.decode(new ByteArrayInputStream(png), sampleSize).pixels.length;
+          }
+        });
+  }
+
+  /**
+   * Create PNG of smooth gradient with noise, compressible like a photo, rows cycling through all
+   * the filter types.
+   */
+  private static byte[] createPng(int colorType, int channels) throws Exception {
+    Random random = new Random(0);
+    byte[][] rows = new byte[HEIGHT][WIDTH * channels];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        for (int c = 0; c < channels; c++) {
+          rows[y][x * channels + c] = (byte) ((x + y) / (c + 2) + random.nextInt(8));
+        }
+      }
+    }
+    return new PngWriter(WIDTH, HEIGHT, 8, colorType).setFilters(0, 1, 2, 3, 4).write(rows);
+  }
+  // endregion
+}
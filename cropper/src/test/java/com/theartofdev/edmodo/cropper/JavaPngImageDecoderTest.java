@@ -0,0 +1,355 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/** Decode correctness of the reference PNG decoder against images of known pixels. */
+public class JavaPngImageDecoderTest {
+
+  private static final int WIDTH = 13;
+
+  private static final int HEIGHT = 7;
+
+  private final JavaPngImageDecoder mDecoder = new JavaPngImageDecoder();
+
+  @Test
+  public void decodeRgbEachFilter() throws IOException {
+    for (int filter = 0; filter <= 4; filter++) {
+      Random random = new Random(filter);
+      PngWriter writer =
+          new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGB).setFilters(filter);
+      byte[][] rows = randomRows(random, HEIGHT, writer.getRowBytes());
+      int[] expected = new int[WIDTH * HEIGHT];
+      for (int y = 0; y < HEIGHT; y++) {
+        for (int x = 0; x < WIDTH; x++) {
+          expected[y * WIDTH + x] =
+              0xFF000000
+                  | (rows[y][x * 3] & 0xFF) << 16
+                  | (rows[y][x * 3 + 1] & 0xFF) << 8
+                  | (rows[y][x * 3 + 2] & 0xFF);
+        }
+      }
+      assertDecoded("filter " + filter, expected, writer.write(rows));
+    }
+  }
+
+  @Test
+  public void decodeRgbaMixedFilters() throws IOException {
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGBA).setFilters(4, 3, 2, 1, 0);
+    byte[][] rows = randomRows(new Random(1), HEIGHT, writer.getRowBytes());
+    assertDecoded("rgba", getRgba8(rows), writer.write(rows));
+  }
+
+  @Test
+  public void decodeGrayAlpha() throws IOException {
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_GRAY_ALPHA).setFilters(1, 4);
+    byte[][] rows = randomRows(new Random(2), HEIGHT, writer.getRowBytes());
+    int[] expected = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        int gray = rows[y][x * 2] & 0xFF;
+        expected[y * WIDTH + x] = (rows[y][x * 2 + 1] & 0xFF) << 24 | gray * 0x010101;
+      }
+    }
+    assertDecoded("gray alpha", expected, writer.write(rows));
+  }
+
+  @Test
+  public void decodePaletteWithTransparency() throws IOException {
+    byte[] palette = {(byte) 0xFF, 0, 0, 0, (byte) 0xFF, 0, 0, 0, (byte) 0xFF, 0x10, 0x20, 0x30};
+    // alpha of the first two entries only, the rest are opaque
+    byte[] transparency = {0, (byte) 0x80};
+    int[] colors = {0x00FF0000, 0x8000FF00, 0xFF0000FF, 0xFF102030};
+
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_PALETTE)
+            .setPalette(palette)
+            .setTransparency(transparency)
+            .setFilters(0, 1, 2, 3, 4);
+    byte[][] rows = new byte[HEIGHT][writer.getRowBytes()];
+    int[] expected = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        int index = (x + y) % colors.length;
+        rows[y][x] = (byte) index;
+        expected[y * WIDTH + x] = colors[index];
+      }
+    }
+    assertDecoded("palette", expected, writer.write(rows));
+  }
+
+  @Test
+  public void decodeSubBytePalette() throws IOException {
+    byte[] palette = {0, 0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    int[] colors = {0xFF000000, 0xFF010203, 0xFF040506, 0xFF070809};
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 2, PngWriter.COLOR_PALETTE).setPalette(palette);
+    byte[][] rows = new byte[HEIGHT][writer.getRowBytes()];
+    int[] expected = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        int index = (x * 3 + y) % colors.length;
+        rows[y][x / 4] |= (byte) (index << (6 - x % 4 * 2));
+        expected[y * WIDTH + x] = colors[index];
+      }
+    }
+    assertDecoded("2 bit palette", expected, writer.write(rows));
+  }
+
+  @Test
+  public void decode16BitReducedToHighByte() throws IOException {
+    PngWriter rgb = new PngWriter(WIDTH, HEIGHT, 16, PngWriter.COLOR_RGB).setFilters(4, 1);
+    byte[][] rows = randomRows(new Random(3), HEIGHT, rgb.getRowBytes());
+    int[] expected = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        expected[y * WIDTH + x] =
+            0xFF000000
+                | (rows[y][x * 6] & 0xFF) << 16
+                | (rows[y][x * 6 + 2] & 0xFF) << 8
+                | (rows[y][x * 6 + 4] & 0xFF);
+      }
+    }
+    assertDecoded("16 bit rgb", expected, rgb.write(rows));
+
+    PngWriter rgba = new PngWriter(WIDTH, HEIGHT, 16, PngWriter.COLOR_RGBA).setFilters(2, 3);
+    rows = randomRows(new Random(4), HEIGHT, rgba.getRowBytes());
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        expected[y * WIDTH + x] =
+            (rows[y][x * 8 + 6] & 0xFF) << 24
+                | (rows[y][x * 8] & 0xFF) << 16
+                | (rows[y][x * 8 + 2] & 0xFF) << 8
+                | (rows[y][x * 8 + 4] & 0xFF);
+      }
+    }
+    assertDecoded("16 bit rgba", expected, rgba.write(rows));
+  }
+
+  @Test
+  public void decodeSubByteGray() throws IOException {
+    int[][] levels = {
+      {0x00, 0xFF},
+      {0x00, 0x55, 0xAA, 0xFF},
+      {
+        0x00, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, 0x88, 0x99, 0xAA, 0xBB, 0xCC, 0xDD, 0xEE,
+        0xFF
+      }
+    };
+    int[] depths = {1, 2, 4};
+    for (int d = 0; d < depths.length; d++) {
+      int depth = depths[d];
+      PngWriter writer =
+          new PngWriter(WIDTH, HEIGHT, depth, PngWriter.COLOR_GRAY).setFilters(0, 1, 2, 3, 4);
+      byte[][] rows = new byte[HEIGHT][writer.getRowBytes()];
+      int[] expected = new int[WIDTH * HEIGHT];
+      int perByte = 8 / depth;
+      for (int y = 0; y < HEIGHT; y++) {
+        for (int x = 0; x < WIDTH; x++) {
+          int raw = (x + y * 5) % levels[d].length;
+          rows[y][x / perByte] |= (byte) (raw << (8 - depth - x % perByte * depth));
+          expected[y * WIDTH + x] = 0xFF000000 | levels[d][raw] * 0x010101;
+        }
+      }
+      assertDecoded(depth + " bit gray", expected, writer.write(rows));
+    }
+  }
+
+  @Test
+  public void decodeGrayTransparentKey() throws IOException {
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 4, PngWriter.COLOR_GRAY).setTransparency(new byte[] {0, 7});
+    byte[][] rows = new byte[HEIGHT][writer.getRowBytes()];
+    int[] expected = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        int raw = (x + y) % 16;
+        rows[y][x / 2] |= (byte) (raw << (x % 2 == 0 ? 4 : 0));
+        expected[y * WIDTH + x] = (raw == 7 ? 0 : 0xFF000000) | raw * 0x111111;
+      }
+    }
+    assertDecoded("gray key", expected, writer.write(rows));
+  }
+
+  @Test
+  public void decodeRgbTransparentKey() throws IOException {
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGB)
+            .setTransparency(new byte[] {0, 1, 0, 2, 0, 3});
+    byte[][] rows = randomRows(new Random(5), HEIGHT, writer.getRowBytes());
+    rows[2][3] = 1;
+    rows[2][4] = 2;
+    rows[2][5] = 3;
+    byte[] png = writer.write(rows);
+    JavaPngImageDecoder.Image image = decode(png, 1);
+    assertEquals(0x00010203, image.pixels[2 * WIDTH + 1]);
+    assertEquals(0xFF, image.pixels[0] >>> 24);
+  }
+
+  @Test
+  public void decodeImageWrittenByImageIo() throws IOException {
+    BufferedImage source = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+    Random random = new Random(6);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        source.setRGB(x, y, random.nextInt());
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(source, "png", out);
+    int[] expected = source.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    assertDecoded("imageio", expected, out.toByteArray());
+  }
+
+  @Test
+  public void decodeSampledAndRegionMatchFullDecode() throws IOException {
+    PngWriter writer =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGBA).setFilters(0, 1, 2, 3, 4);
+    byte[] png = writer.write(randomRows(new Random(7), HEIGHT, writer.getRowBytes()));
+    int[] full = decode(png, 1).pixels;
+
+    JavaPngImageDecoder.Image sampled = decode(png, 2);
+    assertEquals((WIDTH + 1) / 2, sampled.width);
+    assertEquals((HEIGHT + 1) / 2, sampled.height);
+    for (int y = 0; y < sampled.height; y++) {
+      for (int x = 0; x < sampled.width; x++) {
+        assertEquals(full[y * 2 * WIDTH + x * 2], sampled.pixels[y * sampled.width + x]);
+      }
+    }
+
+    ImageDecoderSpi.Region<JavaPngImageDecoder.Image> region =
+        mDecoder.openRegion(new ByteArrayInputStream(png));
+    assertEquals(WIDTH, region.getWidth());
+    assertEquals(HEIGHT, region.getHeight());
+    JavaPngImageDecoder.Image part = region.decodeRegion(3, 2, 10, 6, 1);
+    region.close();
+    assertEquals(7, part.width);
+    assertEquals(4, part.height);
+    for (int y = 0; y < part.height; y++) {
+      for (int x = 0; x < part.width; x++) {
+        assertEquals(full[(y + 2) * WIDTH + x + 3], part.pixels[y * part.width + x]);
+      }
+    }
+  }
+
+  @Test
+  public void decodeBounds() throws IOException {
+    PngWriter writer = new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGB);
+    byte[] png = writer.write(new byte[HEIGHT][writer.getRowBytes()]);
+    assertArrayEquals(
+        new int[] {WIDTH, HEIGHT}, mDecoder.decodeBounds(new ByteArrayInputStream(png)));
+  }
+
+  @Test
+  public void rejectInvalidImages() throws IOException {
+    PngWriter writer = new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGB);
+    byte[] png = writer.write(randomRows(new Random(8), HEIGHT, writer.getRowBytes()));
+
+    byte[] badSignature = png.clone();
+    badSignature[1] = 'X';
+    assertFails("bad signature", badSignature);
+
+    // every truncation must fail with IOException, not a runtime exception
+    for (int length = 0; length < png.length - 12; length++) {
+      assertFails("truncated to " + length, Arrays.copyOf(png, length));
+    }
+
+    byte[] interlaced =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGB)
+            .setInterlace(1)
+            .write(new byte[HEIGHT][writer.getRowBytes()]);
+    assertFails("interlaced", interlaced);
+
+    byte[] badFilter =
+        new PngWriter(WIDTH, HEIGHT, 8, PngWriter.COLOR_RGB)
+            .setFilters(5)
+            .write(new byte[HEIGHT][writer.getRowBytes()]);
+    assertFails("bad filter", badFilter);
+  }
+
+  /** Get rows of random bytes, raw scanlines of image of random pixels. */
+  static byte[][] randomRows(Random random, int height, int rowBytes) {
+    byte[][] rows = new byte[height][rowBytes];
+    for (byte[] row : rows) {
+      random.nextBytes(row);
+    }
+    return rows;
+  }
+
+  // region: Private methods
+
+  private JavaPngImageDecoder.Image decode(byte[] png, int sampleSize) throws IOException {
+    return mDecoder.decode(new ByteArrayInputStream(png), sampleSize);
+  }
+
+  private void assertDecoded(String message, int[] expected, byte[] png) throws IOException {
+    JavaPngImageDecoder.Image image = decode(png, 1);
+    assertEquals(message, WIDTH, image.width);
+    assertEquals(message, HEIGHT, image.height);
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i] != image.pixels[i]) {
+        fail(
+            message
+                + " pixel "
+                + i % WIDTH
+                + ","
+                + i / WIDTH
+                + " expected "
+                + Integer.toHexString(expected[i])
+                + " but was "
+                + Integer.toHexString(image.pixels[i]));
+      }
+    }
+  }
+
+  private void assertFails(String message, byte[] png) {
+    try {
+      decode(png, 1);
+      fail(message + ": expected IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  /** Get the expected ARGB pixels of the given 8 bit RGBA rows. */
+  private static int[] getRgba8(byte[][] rows) {
+    int[] pixels = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        pixels[y * WIDTH + x] =
+            (rows[y][x * 4 + 3] & 0xFF) << 24
+                | (rows[y][x * 4] & 0xFF) << 16
+                | (rows[y][x * 4 + 1] & 0xFF) << 8
+                | (rows[y][x * 4 + 2] & 0xFF);
+      }
+    }
+    return pixels;
+  }
+  // endregion
+}
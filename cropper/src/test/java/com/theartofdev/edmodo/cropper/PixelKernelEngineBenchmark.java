@@ -0,0 +1,224 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Crop, rotate and downscale throughput of the pixel kernel engine stripes, on a single thread and
+ * striped on all the cores, against the single draw of {@link BitmapUtils}.<br>
+ * The platform Canvas draw can't run on the host JVM, so the draw is stood in by a bilinear
+ * filtered sample of each output pixel through the inverse matrix on a single thread, the same work
+ * the filtered draw does on the cropping thread.
+ */
+@Category(Benchmark.class)
+public class PixelKernelEngineBenchmark {
+
+  private static final int WIDTH = 2000;
+
+  private static final int HEIGHT = 1500;
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  @Test
+  public void resampleThroughput() throws Exception {
+    int[] src = PixelKernelEngineTest.randomPixels(new Random(0), WIDTH * HEIGHT);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      int[] factors = {2, 4};
+      for (int factor : factors) {
+        for (int degrees = 0; degrees <= 90; degrees += 90) {
+          benchmark(executor, src, degrees, factor);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // region: Private methods
+
+  private static void benchmark(
+      final ExecutorService executor, final int[] src, final int degrees, int factor)
+      throws Exception {
+    boolean swap = degrees % 180 != 0;
+    final int outWidth = (swap ? HEIGHT : WIDTH) / factor;
+    final int outHeight = (swap ? WIDTH : HEIGHT) / factor;
+    final int[] colStart = new int[outWidth];
+    final int[] colEnd = new int[outWidth];
+    final int[] rowStart = new int[outHeight];
+    final int[] rowEnd = new int[outHeight];
+    PixelKernelEngine.setBoxes(colStart, colEnd, swap ? HEIGHT : WIDTH, false);
+    PixelKernelEngine.setBoxes(rowStart, rowEnd, swap ? WIDTH : HEIGHT, false);
+    final int[] dst = new int[outWidth * outHeight];
+    String name = WIDTH + "x" + HEIGHT + " / " + factor + " rotated " + degrees + ": ";
+    long pixels = (long) WIDTH * HEIGHT;
+
+    double draw =
+        Benchmark.run(
+            name + "bilinear draw",
+            pixels,
+            "px",
+            new Benchmark.Body() {
+              @Override
+              public long run() {
+                drawBilinear(src, degrees, outWidth, outHeight, dst);
+                return dst[dst.length / 2];
+              }
+            });
+    double single =
+        Benchmark.run(
+            name + "box stripes 1 thread",
+            pixels,
+            "px",
+            new Benchmark.Body() {
+              @Override
+              public long run() {
+                PixelKernelEngine.resampleStripe(
+                    src,
+                    0,
+                    0,
+                    WIDTH,
+                    WIDTH,
+                    HEIGHT,
+                    degrees,
+                    colStart,
+                    colEnd,
+                    rowStart,
+                    rowEnd,
+                    0,
+                    outHeight,
+                    dst);
+                return dst[dst.length / 2];
+              }
+            });
+    double striped =
+        Benchmark.run(
+            name + "box stripes on all " + THREADS + " cores",
+            pixels,
+            "px",
+            new Benchmark.Body() {
+              @Override
+              public long run() throws Exception {
+                int stripeRows = Math.max(1, outHeight / (THREADS * 4));
+                List<Future<?>> futures = new ArrayList<>();
+                for (int row = 0; row < outHeight; row += stripeRows) {
+                  final int firstRow = row;
+                  final int lastRow = Math.min(outHeight, row + stripeRows);
+                  futures.add(
+                      executor.submit(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              int[] stripe = new int[outWidth * (lastRow - firstRow)];
+                              PixelKernelEngine.resampleStripe(
+                                  src,
+                                  0,
+                                  0,
+                                  WIDTH,
+                                  WIDTH,
+                                  HEIGHT,
+                                  degrees,
+                                  colStart,
+                                  colEnd,
+                                  rowStart,
+                                  rowEnd,
+                                  firstRow,
+                                  lastRow,
+                                  stripe);
+                              System.arraycopy(
+                                  stripe, 0, dst, firstRow * outWidth, stripe.length);
+                            }
+                          }));
+                }
+                for (Future<?> future : futures) {
+                  future.get();
+                }
+                return dst[dst.length / 2];
+              }
+            });
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%sbox stripes speedup %.2fx on 1 thread, %.2fx on all cores",
+            name,
+            single / draw,
+            striped / draw));
+    assertTrue(draw > 0 && single > 0 && striped > 0);
+  }
+
+  /**
+   * Rotate clockwise and downscale the source to the output by a bilinear sample of the source at
+   * the center of each output pixel, premultiplied by alpha, the work of a filtered matrix draw.
+   */
+  private static void drawBilinear(
+      int[] src, int degrees, int outWidth, int outHeight, int[] dst) {
+    boolean swap = degrees % 180 != 0;
+    float scaleX = (swap ? HEIGHT : WIDTH) / (float) outWidth;
+    float scaleY = (swap ? WIDTH : HEIGHT) / (float) outHeight;
+    for (int y = 0; y < outHeight; y++) {
+      for (int x = 0; x < outWidth; x++) {
+        float rx = (x + 0.5f) * scaleX;
+        float ry = (y + 0.5f) * scaleY;
+        float fx = swap ? ry : rx;
+        float fy = swap ? HEIGHT - rx : ry;
+        dst[y * outWidth + x] = sample(src, fx - 0.5f, fy - 0.5f);
+      }
+    }
+  }
+
+  /** Bilinear sample of the source at the given position, clamped to the edges. */
+  private static int sample(int[] src, float fx, float fy) {
+    int x0 = Math.max(0, Math.min(WIDTH - 1, (int) Math.floor(fx)));
+    int y0 = Math.max(0, Math.min(HEIGHT - 1, (int) Math.floor(fy)));
+    int x1 = Math.min(WIDTH - 1, x0 + 1);
+    int y1 = Math.min(HEIGHT - 1, y0 + 1);
+    float wx = Math.max(0, Math.min(1, fx - x0));
+    float wy = Math.max(0, Math.min(1, fy - y0));
+    float[] weights = {(1 - wx) * (1 - wy), wx * (1 - wy), (1 - wx) * wy, wx * wy};
+    int[] colors = {
+      src[y0 * WIDTH + x0], src[y0 * WIDTH + x1], src[y1 * WIDTH + x0], src[y1 * WIDTH + x1]
+    };
+    float a = 0;
+    float r = 0;
+    float g = 0;
+    float b = 0;
+    for (int i = 0; i < 4; i++) {
+      int color = colors[i];
+      float alpha = (color >>> 24) * weights[i];
+      a += alpha;
+      r += alpha * ((color >> 16) & 0xFF);
+      g += alpha * ((color >> 8) & 0xFF);
+      b += alpha * (color & 0xFF);
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return Math.round(a) << 24
+        | Math.round(r / a) << 16
+        | Math.round(g / a) << 8
+        | Math.round(b / a);
+  }
+  // endregion
+}
@@ -0,0 +1,201 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/** Box resampling of the pixel kernel engine stripes, on plain pixel arrays. */
+public class PixelKernelEngineTest {
+
+  @Test
+  public void downscaleAveragesEachBox() {
+    int[] src = {
+      0xFF000000, 0xFF020406, 0xFF646464, 0xFF646464,
+      0xFF040404, 0xFF060402, 0xFF646464, 0xFF646464
+    };
+    int[] dst = resample(src, 4, 2, 0, 2, 1);
+    assertArrayEquals(new int[] {0xFF030303, 0xFF646464}, dst);
+  }
+
+  @Test
+  public void transparentPixelsDontDarkenTheAverage() {
+    int[] src = {0x00000000, 0xFFFF0000, 0xFFFF0000, 0xFFFF0000};
+    int[] dst = resample(src, 2, 2, 0, 1, 1);
+    assertArrayEquals(new int[] {0xBFFF0000}, dst);
+
+    dst = resample(new int[] {0, 0, 0, 0}, 2, 2, 0, 1, 1);
+    assertArrayEquals(new int[] {0}, dst);
+  }
+
+  @Test
+  public void rotateClockwise() {
+    int width = 5;
+    int height = 3;
+    int[] src = randomPixels(new Random(0), width * height);
+    for (int degrees = 0; degrees < 360; degrees += 90) {
+      boolean swap = degrees % 180 != 0;
+      int outWidth = swap ? height : width;
+      int outHeight = swap ? width : height;
+      int[] dst = resample(src, width, height, degrees, outWidth, outHeight);
+      for (int y = 0; y < outHeight; y++) {
+        for (int x = 0; x < outWidth; x++) {
+          int sx;
+          int sy;
+          if (degrees == 90) {
+            sx = y;
+            sy = height - 1 - x;
+          } else if (degrees == 180) {
+            sx = width - 1 - x;
+            sy = height - 1 - y;
+          } else if (degrees == 270) {
+            sx = width - 1 - y;
+            sy = x;
+          } else {
+            sx = x;
+            sy = y;
+          }
+          assertEquals(
+              degrees + " degrees " + x + "," + y,
+              src[sy * width + sx],
+              dst[y * outWidth + x]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void flippedStripesMatchSinglePass() {
+    int width = 97;
+    int height = 61;
+    int[] src = randomPixels(new Random(1), width * height);
+    for (int degrees = 0; degrees < 360; degrees += 90) {
+      boolean swap = degrees % 180 != 0;
+      int outWidth = (swap ? height : width) / 3;
+      int outHeight = (swap ? width : height) / 3;
+      int[] single = resample(src, width, height, degrees, outWidth, outHeight);
+
+      int[] colStart = new int[outWidth];
+      int[] colEnd = new int[outWidth];
+      int[] rowStart = new int[outHeight];
+      int[] rowEnd = new int[outHeight];
+      PixelKernelEngine.setBoxes(colStart, colEnd, swap ? height : width, true);
+      PixelKernelEngine.setBoxes(rowStart, rowEnd, swap ? width : height, false);
+      int[] flipped = new int[outWidth * outHeight];
+      int[] stripe = new int[outWidth * 4];
+      for (int firstRow = 0; firstRow < outHeight; firstRow += 4) {
+        int lastRow = Math.min(outHeight, firstRow + 4);
+        PixelKernelEngine.resampleStripe(
+            src,
+            0,
+            0,
+            width,
+            width,
+            height,
+            degrees,
+            colStart,
+            colEnd,
+            rowStart,
+            rowEnd,
+            firstRow,
+            lastRow,
+            stripe);
+        System.arraycopy(stripe, 0, flipped, firstRow * outWidth, (lastRow - firstRow) * outWidth);
+      }
+      for (int y = 0; y < outHeight; y++) {
+        for (int x = 0; x < outWidth; x++) {
+          assertEquals(single[y * outWidth + x], flipped[y * outWidth + outWidth - 1 - x]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void readOnlyTheSourceBlockOfTheStripe() {
+    int width = 8;
+    int height = 8;
+    int[] src = randomPixels(new Random(2), width * height);
+    int[] full = resample(src, width, height, 0, 4, 4);
+
+    // the last two output rows cover source rows 4 to 8, read as a block at top 4
+    int[] block = new int[width * 4];
+    System.arraycopy(src, 4 * width, block, 0, block.length);
+    int[] colStart = new int[4];
+    int[] colEnd = new int[4];
+    int[] rowStart = new int[4];
+    int[] rowEnd = new int[4];
+    PixelKernelEngine.setBoxes(colStart, colEnd, width, false);
+    PixelKernelEngine.setBoxes(rowStart, rowEnd, height, false);
+    int[] dst = new int[4 * 2];
+    PixelKernelEngine.resampleStripe(
+        block,
+        0,
+        4,
+        width,
+        width,
+        height,
+        0,
+        colStart,
+        colEnd,
+        rowStart,
+        rowEnd,
+        2,
+        4,
+        dst);
+    for (int i = 0; i < dst.length; i++) {
+      assertEquals(full[2 * 4 + i], dst[i]);
+    }
+  }
+
+  /** Resample the whole source to the given output size in a single stripe. */
+  static int[] resample(
+      int[] src, int width, int height, int degrees, int outWidth, int outHeight) {
+    boolean swap = degrees % 180 != 0;
+    int[] colStart = new int[outWidth];
+    int[] colEnd = new int[outWidth];
+    int[] rowStart = new int[outHeight];
+    int[] rowEnd = new int[outHeight];
+    PixelKernelEngine.setBoxes(colStart, colEnd, swap ? height : width, false);
+    PixelKernelEngine.setBoxes(rowStart, rowEnd, swap ? width : height, false);
+    int[] dst = new int[outWidth * outHeight];
+    PixelKernelEngine.resampleStripe(
+        src,
+        0,
+        0,
+        width,
+        width,
+        height,
+        degrees,
+        colStart,
+        colEnd,
+        rowStart,
+        rowEnd,
+        0,
+        outHeight,
+        dst);
+    return dst;
+  }
+
+  /** Get random opaque and translucent pixels. */
+  static int[] randomPixels(Random random, int count) {
+    int[] pixels = new int[count];
+    for (int i = 0; i < count; i++) {
+      pixels[i] = random.nextInt() | (random.nextBoolean() ? 0xFF000000 : 0);
+    }
+    return pixels;
+  }
+}
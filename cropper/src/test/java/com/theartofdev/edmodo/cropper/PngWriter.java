@@ -0,0 +1,197 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes PNG images of raw scanlines for the decoder tests, with the filter type of each row chosen
+ * by the test so every filter can be covered.
+ */
+final class PngWriter {
+
+  // region: Fields and Consts
+
+  static final int COLOR_GRAY = 0;
+
+  static final int COLOR_RGB = 2;
+
+  static final int COLOR_PALETTE = 3;
+
+  static final int COLOR_GRAY_ALPHA = 4;
+
+  static final int COLOR_RGBA = 6;
+
+  private final int mWidth;
+
+  private final int mHeight;
+
+  private final int mBitDepth;
+
+  private final int mColorType;
+
+  /** The PLTE chunk data, null if none */
+  private byte[] mPalette;
+
+  /** The tRNS chunk data, null if none */
+  private byte[] mTransparency;
+
+  /** The filter types of the rows, repeated if fewer than the rows */
+  private int[] mFilters = {0};
+
+  /** The interlace method written to the header */
+  private int mInterlace;
+  // endregion
+
+  PngWriter(int width, int height, int bitDepth, int colorType) {
+    mWidth = width;
+    mHeight = height;
+    mBitDepth = bitDepth;
+    mColorType = colorType;
+  }
+
+  PngWriter setPalette(byte[] palette) {
+    mPalette = palette;
+    return this;
+  }
+
+  PngWriter setTransparency(byte[] transparency) {
+    mTransparency = transparency;
+    return this;
+  }
+
+  PngWriter setFilters(int... filters) {
+    mFilters = filters;
+    return this;
+  }
+
+  PngWriter setInterlace(int interlace) {
+    mInterlace = interlace;
+    return this;
+  }
+
+  /** The number of samples per pixel of the color type. */
+  int getChannels() {
+    switch (mColorType) {
+      case COLOR_RGB:
+        return 3;
+      case COLOR_GRAY_ALPHA:
+        return 2;
+      case COLOR_RGBA:
+        return 4;
+      default:
+        return 1;
+    }
+  }
+
+  /** The number of bytes of raw scanline, without the filter type byte. */
+  int getRowBytes() {
+    return (mWidth * getChannels() * mBitDepth + 7) / 8;
+  }
+
+  /**
+   * Write the PNG image of the given raw scanlines.
+   *
+   * @param rows the unfiltered bytes of each row, {@link #getRowBytes()} long
+   */
+  byte[] write(byte[][] rows) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt(mWidth);
+    headerData.writeInt(mHeight);
+    headerData.writeByte(mBitDepth);
+    headerData.writeByte(mColorType);
+    headerData.writeByte(0);
+    headerData.writeByte(0);
+    headerData.writeByte(mInterlace);
+    writeChunk(out, "IHDR", header.toByteArray());
+    if (mPalette != null) {
+      writeChunk(out, "PLTE", mPalette);
+    }
+    if (mTransparency != null) {
+      writeChunk(out, "tRNS", mTransparency);
+    }
+
+    int bpp = Math.max(1, getChannels() * mBitDepth / 8);
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    DeflaterOutputStream deflater = new DeflaterOutputStream(data);
+    byte[] prev = new byte[getRowBytes()];
+    for (int y = 0; y < mHeight; y++) {
+      int filter = mFilters[y % mFilters.length];
+      deflater.write(filter);
+      deflater.write(filter(filter, rows[y], prev, bpp));
+      prev = rows[y];
+    }
+    deflater.close();
+    writeChunk(out, "IDAT", data.toByteArray());
+    writeChunk(out, "IEND", new byte[0]);
+    return out.toByteArray();
+  }
+
+  // region: Private methods
+
+  /** Apply the given PNG filter type to the given row by the previous row. */
+  private static byte[] filter(int filter, byte[] row, byte[] prev, int bpp) {
+    byte[] out = new byte[row.length];
+    for (int i = 0; i < row.length; i++) {
+      int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+      int b = prev[i] & 0xFF;
+      int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+      int predictor;
+      switch (filter) {
+        case 1:
+          predictor = a;
+          break;
+        case 2:
+          predictor = b;
+          break;
+        case 3:
+          predictor = (a + b) / 2;
+          break;
+        case 4:
+          int p = a + b - c;
+          int pa = Math.abs(p - a);
+          int pb = Math.abs(p - b);
+          int pc = Math.abs(p - c);
+          predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+          break;
+        default:
+          predictor = 0;
+      }
+      out[i] = (byte) (row[i] - predictor);
+    }
+    return out;
+  }
+
+  /** Write chunk of the given type and data with its length and CRC. */
+  private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data)
+      throws IOException {
+    DataOutputStream chunk = new DataOutputStream(out);
+    byte[] typeBytes = type.getBytes("US-ASCII");
+    chunk.writeInt(data.length);
+    chunk.write(typeBytes);
+    chunk.write(data);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data);
+    chunk.writeInt((int) crc.getValue());
+  }
+  // endregion
+}
@@ -0,0 +1,114 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+/**
+ * Rotation by 90 degrees throughput of the blocked transpose across image sizes, in bands of the
+ * reused thread buffers and of buffers allocated per rotation, against a column walk of the source
+ * for every destination row as the matrix draw does.
+ */
+@Category(Benchmark.class)
+public class TransposeKernelBenchmark {
+
+  /** The max pixels of a band of the kernel, the bands of the benchmarked rotations */
+  private static final int MAX_BAND_PIXELS = 256 * 1024;
+
+  @Test
+  public void rotateThroughput() throws Exception {
+    int[][] sizes = {{640, 480}, {1280, 960}, {2048, 1536}, {4000, 3000}};
+    for (int[] size : sizes) {
+      benchmark(size[0], size[1]);
+    }
+  }
+
+  // region: Private methods
+
+  private static void benchmark(final int width, final int height) throws Exception {
+    final int[] image = PixelKernelEngineTest.randomPixels(new Random(0), width * height);
+    final int[] rotated = new int[image.length];
+    final int bandRows = Math.max(32, MAX_BAND_PIXELS / width / 32 * 32);
+    final int bandPixels = width * Math.min(bandRows, height);
+    String name = width + "x" + height + " rotate: ";
+    long pixels = (long) width * height;
+
+    Benchmark.run(
+        name + "column walk",
+        pixels,
+        "px",
+        new Benchmark.Body() {
+          @Override
+          public long run() {
+            for (int y = 0; y < width; y++) {
+              int offset = y * height;
+              for (int x = 0; x < height; x++) {
+                rotated[offset + x] = image[(height - 1 - x) * width + y];
+              }
+            }
+            return rotated[rotated.length / 2];
+          }
+        });
+    double allocated =
+        Benchmark.run(
+            name + "blocked, buffers per rotation",
+            pixels,
+            "px",
+            new Benchmark.Body() {
+              @Override
+              public long run() {
+                int[] src = new int[bandPixels];
+                int[] dst = new int[bandPixels];
+                rotateBands(image, width, height, bandRows, src, dst, rotated);
+                return rotated[rotated.length / 2];
+              }
+            });
+    double reused =
+        Benchmark.run(
+            name + "blocked, thread buffers",
+            pixels,
+            "px",
+            new Benchmark.Body() {
+              @Override
+              public long run() {
+                int[][] buffers = TransposeKernel.getBuffers(bandPixels);
+                rotateBands(image, width, height, bandRows, buffers[0], buffers[1], rotated);
+                return rotated[rotated.length / 2];
+              }
+            });
+    assertTrue(allocated > 0 && reused > 0);
+  }
+
+  /**
+   * Rotate the image by 90 degrees band by band as the kernel does with the bitmap, copying the
+   * band rows in and the transposed band columns out.
+   */
+  private static void rotateBands(
+      int[] image, int width, int height, int bandRows, int[] src, int[] dst, int[] rotated) {
+    for (int top = 0; top < height; top += bandRows) {
+      int rows = Math.min(bandRows, height - top);
+      System.arraycopy(image, top * width, src, 0, width * rows);
+      TransposeKernel.transpose(src, width, rows, dst, true, false);
+      int left = height - top - rows;
+      for (int y = 0; y < width; y++) {
+        System.arraycopy(dst, y * rows, rotated, y * height + left, rows);
+      }
+    }
+  }
+  // endregion
+}
@@ -0,0 +1,101 @@
+// "Therefore those skilled at the unorthodox
+// are infinite as heaven and earth,
+// inexhaustible as the great rivers.
+// When they come to an end,
+// they begin again,
+// like the days and months;
+// they die and are reborn,
+// like the four seasons."
+//
+// - Sun Tsu,
+// "The Art of War"
+
+package com.theartofdev.edmodo.cropper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/** Blocked transpose of the transpose kernel and its per thread band buffers. */
+public class TransposeKernelTest {
+
+  @Test
+  public void transposeWithEachMirror() {
+    // sizes not multiple of the block, smaller and larger than a block
+    int[][] sizes = {{1, 1}, {5, 3}, {33, 70}, {100, 41}};
+    for (int[] size : sizes) {
+      int width = size[0];
+      int rows = size[1];
+      int[] src = new int[width * rows];
+      for (int i = 0; i < src.length; i++) {
+        src[i] = i;
+      }
+      for (int mirror = 0; mirror < 4; mirror++) {
+        boolean mirrorRows = (mirror & 1) != 0;
+        boolean mirrorCols = (mirror & 2) != 0;
+        int[] dst = new int[src.length];
+        TransposeKernel.transpose(src, width, rows, dst, mirrorRows, mirrorCols);
+        for (int y = 0; y < rows; y++) {
+          for (int x = 0; x < width; x++) {
+            int dstCol = mirrorRows ? rows - 1 - y : y;
+            int dstRow = mirrorCols ? width - 1 - x : x;
+            assertEquals(
+                width + "x" + rows + " mirror " + mirror,
+                y * width + x,
+                dst[dstRow * rows + dstCol]);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void transposeTwiceRestoresSource() {
+    int width = 77;
+    int rows = 45;
+    int[] src = PixelKernelEngineTest.randomPixels(new Random(0), width * rows);
+    int[] transposed = new int[src.length];
+    int[] restored = new int[src.length];
+    TransposeKernel.transpose(src, width, rows, transposed, false, false);
+    TransposeKernel.transpose(transposed, rows, width, restored, false, false);
+    for (int i = 0; i < src.length; i++) {
+      assertEquals(src[i], restored[i]);
+    }
+  }
+
+  @Test
+  public void reuseBuffersOfTheThread() throws Exception {
+    int[][] buffers = TransposeKernel.getBuffers(1000);
+    assertTrue(buffers[0].length >= 1000 && buffers[1].length >= 1000);
+    assertNotSame(buffers[0], buffers[1]);
+    assertSame(buffers, TransposeKernel.getBuffers(500));
+    assertSame(buffers, TransposeKernel.getBuffers(1000));
+
+    int[][] grown = TransposeKernel.getBuffers(2000);
+    assertNotSame(buffers, grown);
+    assertSame(grown, TransposeKernel.getBuffers(2000));
+
+    // buffers of band of very wide image are not kept
+    int[][] huge = TransposeKernel.getBuffers(4 * 1024 * 1024);
+    assertNotSame(huge, TransposeKernel.getBuffers(4 * 1024 * 1024));
+    assertSame(grown, TransposeKernel.getBuffers(100));
+
+    // other threads have their own buffers
+    final int[][][] other = new int[1][][];
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            other[0] = TransposeKernel.getBuffers(100);
+          }
+        };
+    thread.start();
+    thread.join();
+    assertNotSame(grown, other[0]);
+  }
+}